@@ -0,0 +1,87 @@
+package com.circumspectus.Engine;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The inner loops of neural network inference with the jdk.incubator.vector API, in the widest vectors the processor supports.
+ * Kept apart from src because it compiles and runs only with the incubator module added:
+ *     javac --add-modules jdk.incubator.vector -cp classes -d classes src-vector/Engine/VectorNetworkKernel.java
+ *     java --add-modules jdk.incubator.vector ...
+ * NeuralNetwork falls back to ScalarNetworkKernel if this class or the module is missing.
+ * @author Christopher Stieg
+ */
+public class VectorNetworkKernel implements NetworkKernel {
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;  // half as many lanes as SHORTS
+
+    /**
+     * Adds a row of weights to an accumulator
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param weights   The array holding the weights
+     * @param weightOffset  The index of the first weight of the row
+     * @param length    The number of values
+     */
+    @Override
+    public void add(short accumulator[], int offset, short weights[], int weightOffset, int length) {
+        int i = 0;
+        for (; i < SHORTS.loopBound(length); i += SHORTS.length()) {
+            ShortVector.fromArray(SHORTS, accumulator, offset + i).add(ShortVector.fromArray(SHORTS, weights, weightOffset + i)).intoArray(accumulator, offset + i);
+        }
+        for (; i < length; i++) {
+            accumulator[offset + i] += weights[weightOffset + i];
+        }
+    }
+
+    /**
+     * Subtracts a row of weights from an accumulator
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param weights   The array holding the weights
+     * @param weightOffset  The index of the first weight of the row
+     * @param length    The number of values
+     */
+    @Override
+    public void subtract(short accumulator[], int offset, short weights[], int weightOffset, int length) {
+        int i = 0;
+        for (; i < SHORTS.loopBound(length); i += SHORTS.length()) {
+            ShortVector.fromArray(SHORTS, accumulator, offset + i).sub(ShortVector.fromArray(SHORTS, weights, weightOffset + i)).intoArray(accumulator, offset + i);
+        }
+        for (; i < length; i++) {
+            accumulator[offset + i] -= weights[weightOffset + i];
+        }
+    }
+
+    /**
+     * Multiplies accumulator values, clipped to 0..clip, by weights and sums the products.  The products are formed in 16 bits
+     * and widened to 32 bits for the sum.
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param weights   The array holding the weights
+     * @param weightOffset  The index of the first weight
+     * @param length    The number of values
+     * @param clip  The largest value of an accumulator value after clipping
+     * @return  The sum of the products
+     */
+    @Override
+    public int clippedDotProduct(short accumulator[], int offset, short weights[], int weightOffset, int length, int clip) {
+        ShortVector zero = ShortVector.zero(SHORTS);
+        ShortVector ceiling = ShortVector.broadcast(SHORTS, (short) clip);
+        IntVector sums = IntVector.zero(INTS);
+        int i = 0;
+        for (; i < SHORTS.loopBound(length); i += SHORTS.length()) {
+            ShortVector products = ShortVector.fromArray(SHORTS, accumulator, offset + i).max(zero).min(ceiling)
+                                              .mul(ShortVector.fromArray(SHORTS, weights, weightOffset + i));
+            sums = sums.add(products.convertShape(VectorOperators.S2I, INTS, 0))
+                       .add(products.convertShape(VectorOperators.S2I, INTS, 1));
+        }
+        int sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += Math.min(Math.max(accumulator[offset + i], 0), clip) * weights[weightOffset + i];
+        }
+        return sum;
+    }
+}
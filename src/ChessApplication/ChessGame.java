@@ -8,8 +8,10 @@ import java.awt.GridLayout;
 import java.awt.Point;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.JOptionPane;
-import javax.swing.SwingWorker;
 
 /**
  * Runs a chess game in a JFrame.
@@ -22,24 +24,41 @@ public class ChessGame extends JFrame implements Runnable {
     private final ZobristBoard searchBoard;  // search board to be used by search engine
     //private final BoardRenderer searchBoardRenderer; // rendered to paint search board
     private final SquareClicker squareClicker; // event listener for mouse clicks
-    private IdleTimeEngineWorker idleTimeEngineWorker;
+    private final EnginePool enginePool;  // the pool the engine is leased from, or null if the game has an engine of its own
+    private StopToken idleTimeStopToken;  // stops the search run while waiting for the user to move
+    private CompletableFuture<SearchResult> idleTimeSearch;
+    private Move ponderMove;  // the user's move expected by the idle time search, which ponders on it; null if it searches the current position
+    private CompletableFuture<SearchResult> ponderHitSearch;  // the idle time search after a ponder hit, whose result is the engine's next move
+    private boolean engineThinking;  // true from the user's move until the engine's reply is made, during which the board takes no input
+    private final static int IDLE_TIME_SEARCH_TIME = 10 * 60 * 1000;
+    private final static int ENGINE_MOVE_TIME = 30 * 1000;
     private final static int enginePlayer = Chessboard.BLACK;
 
     /**
      * Constructor for ChessGame
     */
     public ChessGame() {
-        board = new ZobristBoard(new ZobristHashing());
+        this(null);
+    }
+
+    /**
+     * Constructor for ChessGame, leasing its engine from a pool shared with other games if one is given.  The engine is
+     * released when the window is closed, which then closes without exiting the application.
+     * @param enginePool    The pool to lease the engine from, or null to create an engine for the game alone
+     * @throws IllegalStateException    If all engines of the pool are leased
+     */
+    public ChessGame(EnginePool enginePool) {
+        this.enginePool = enginePool;
+        board = enginePool == null ? new ZobristBoard(new ZobristHashing()) : enginePool.newBoard();
         searchBoard = board.getClone();
         boardRenderer = new BoardRenderer(board);
         //searchBoardRenderer = new BoardRenderer(searchBoard);
-        engine = new ChessEngine(board, searchBoard);
+        engine = enginePool == null ? new ChessEngine(board, searchBoard) : enginePool.lease(board);
         squareClicker = new SquareClicker();
         boardRenderer.addMouseListener(squareClicker);
         boardRenderer.addMouseMotionListener(squareClicker);
         //searchBoardRenderer.addMouseMotionListener(squareClicker);
         //searchBoardRenderer.setVisible(true);
-        idleTimeEngineWorker = new IdleTimeEngineWorker(engine);
     }
 
     /**
@@ -47,7 +66,21 @@ public class ChessGame extends JFrame implements Runnable {
      */
     @Override
     public void run() {
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        if (enginePool == null) {
+            setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        }
+        else {
+            setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    if (idleTimeStopToken != null) {
+                        idleTimeStopToken.stop();
+                    }
+                    enginePool.release(engine);
+                }
+            });
+        }
         setSize(500, 500);
         setLayout(new GridLayout(1, 2));
         add(boardRenderer);
@@ -56,18 +89,102 @@ public class ChessGame extends JFrame implements Runnable {
     }
 
     /**
-     * Execute a move from the chess engine and represent it on the board
+     * Starts the chess engine searching for its move.  The move is made on the event dispatch thread once the search returns,
+     * after which the engine searches while waiting for the user's move.
      */
     public void engineMove() {
-        if (board.getCurrentPlayer() == enginePlayer) {            
-            Move nextMove = engine.getNextMove();
-            board.move(nextMove);
-            boardRenderer.addHighlight(Square.toBitwise(nextMove.getOriginSerial()));
-            boardRenderer.addHighlight(Square.toBitwise(nextMove.getDestinationSerial()));
-            boardRenderer.removeAll();
-            boardRenderer.updateUI();
-            boardRenderer.repaint();
-        }        
+        if (board.getCurrentPlayer() == enginePlayer) {
+            CompletableFuture<SearchResult> search;
+            if (ponderHitSearch != null) {
+                search = ponderHitSearch;
+                ponderHitSearch = null;
+            }
+            else {
+                search = engine.search(SearchLimits.ofTime(ENGINE_MOVE_TIME), new StopToken(), null);
+            }
+            engineThinking = true;
+            search.whenComplete((result, failure) -> SwingUtilities.invokeLater(() -> makeEngineMove(result, failure)));
+        }
+    }
+
+    /**
+     * Makes the engine's move and represents it on the board, then starts the idle time search.  Does nothing once the window
+     * is closed, since the engine may have been released to another game.  If the search failed, the board takes input again,
+     * leaving the engine's move to the user.
+     * @param result    The result of the engine's search, or null if it failed
+     * @param failure   The exception with which the search failed, or null if it succeeded
+     */
+    private void makeEngineMove(SearchResult result, Throwable failure) {
+        engineThinking = false;
+        if (failure != null) {
+            if (isDisplayable()) {
+                JOptionPane.showMessageDialog(this, "The engine failed to find a move: " + failure.getMessage());
+            }
+            return;
+        }
+        if (!isDisplayable() || result.bestMove == null) {
+            return;
+        }
+        Move nextMove = result.bestMove;
+        nextMove.setBoard(board);  // a ponder search returns a move bound to its own copy of the board
+        ponderMove = result.ponderMove;
+        board.move(nextMove);
+        boardRenderer.addHighlight(Square.toBitwise(nextMove.getOriginSerial()));
+        boardRenderer.addHighlight(Square.toBitwise(nextMove.getDestinationSerial()));
+        boardRenderer.removeAll();
+        boardRenderer.updateUI();
+        boardRenderer.repaint();
+        checkForCheckmate();
+        startIdleTimeSearch();
+    }
+
+    /**
+     * Starts the engine searching while waiting for the user to move.  If the engine's last search found the user's expected
+     * reply, the engine ponders on the position after it; otherwise it searches a copy of the current position, thus filling up
+     * the transposition table with deeper search data and saving time in regular search.  Both run as background searches, which
+     * an engine pool keeps off the threads of the move searches of other games.
+     */
+    private void startIdleTimeSearch() {
+        idleTimeStopToken = new StopToken();
+        if (ponderMove != null) {
+            idleTimeSearch = engine.ponder(ponderMove, SearchLimits.ofTime(ENGINE_MOVE_TIME), idleTimeStopToken, null);
+        }
+        else {
+            idleTimeSearch = engine.searchInBackground(SearchLimits.ofTime(IDLE_TIME_SEARCH_TIME), idleTimeStopToken, null);
+        }
+    }
+
+    /**
+     * Ends the idle time search, if one was started, once the user has moved.  On a ponder hit the search carries on under the
+     * normal time control and supplies the engine's next move; otherwise it is stopped without waiting for it to return, since
+     * it searches a copy of the board, and the engine starts its next search once it has returned.
+     * @param userMove  The move the user has just made
+     */
+    private void endIdleTimeSearch(Move userMove) {
+        if (idleTimeSearch != null) {
+            if (ponderMove != null && userMove.equals(ponderMove)) {
+                engine.ponderHit();
+                ponderHitSearch = idleTimeSearch;
+            }
+            else {
+                idleTimeStopToken.stop();
+            }
+            idleTimeSearch = null;
+        }
+    }
+
+    /**
+     * Checks for checkmate, and displays a message and exits the game in the case of checkmate.
+     */
+    private void checkForCheckmate() {
+        if (board.isCheckmated(0)) {
+            JOptionPane.showMessageDialog(null, "You lose!");
+            System.exit(0);
+        }
+        if (board.isCheckmated(1)) {
+            JOptionPane.showMessageDialog(null, "You win!");
+            System.exit(0);
+        }
     }
 
     public static void main(String[] args) {
@@ -125,17 +242,14 @@ public class ChessGame extends JFrame implements Runnable {
         public void mouseReleased(MouseEvent e) {
             mouseUpAt = e.getPoint();
             if (isValidMove()) {
-                idleTimeEngineWorker.cancel();
                 movePiece();
+                endIdleTimeSearch(board.getLastMove());
                 checkForCheckmate();
                 boardRenderer.setDraggingOriginSquare(null);
                 boardRenderer.clearHighlight();
                 boardRenderer.revalidate();
                 boardRenderer.repaint();
                 engineMove();
-                checkForCheckmate();
-                idleTimeEngineWorker = new IdleTimeEngineWorker(engine);
-                idleTimeEngineWorker.execute();
             }
         }
 
@@ -156,7 +270,7 @@ public class ChessGame extends JFrame implements Runnable {
          */
         private boolean canMovePiece(Point clickAt) {
             Square square = boardRenderer.getSquareAtPoint(clickAt);
-            if (square == null) {
+            if (square == null || engineThinking) {
                 return false;
             }
             long clickedSquareBitwise = square.toBitwise();
@@ -188,7 +302,7 @@ public class ChessGame extends JFrame implements Runnable {
             Square originSquare = boardRenderer.getSquareAtPoint(mouseDownAt);
             Square destinationSquare = boardRenderer.getSquareAtPoint(mouseUpAt);
             Chessboard board = boardRenderer.getChessboard();
-            if (originSquare == null || destinationSquare == null) {
+            if (originSquare == null || destinationSquare == null || engineThinking) {
                 return false;
             }
             int originSerial = originSquare.toSerial();
@@ -223,66 +337,6 @@ public class ChessGame extends JFrame implements Runnable {
             } 
         }
 
-        /**
-         * Checks for checkmate, and displays a message and exits the game in the case of checkmate.
-         */
-        private void checkForCheckmate() {
-            if (board.isCheckmated(0)) {
-                JOptionPane.showMessageDialog(null, "You lose!");
-                System.exit(0);
-            }
-            if (board.isCheckmated(1)) {
-                JOptionPane.showMessageDialog(null, "You win!");
-                System.exit(0);
-            }
-        }
-
     }
 
 }
-
-
-
-
-/**
- * Extends the SwingWorker class to run the engine while waiting for user to move,
- * thus filling up the transposition table with deeper search data and saving
- * time in regular search
- * @author Christopher Stieg
- */
-class IdleTimeEngineWorker extends SwingWorker<Move, Move> {
-    private final ChessEngine engine;
-    
-    /**
-     * Constructor for IdleTimeEngineWorker
-     * @param engine    Engine to utilize for search
-     */
-    public IdleTimeEngineWorker(ChessEngine engine) {
-        this.engine = engine;
-    }
-    
-    /**
-     * Runs the engine in background
-     * @return  The best move from the search (though this value is not used)
-     */
-    @Override
-    public Move doInBackground() {
-        while (engine.isRunning()) {
-            System.out.println("Waiting for engine to return. (Idle time search)");
-        }
-        System.out.println("Thread started");
-        return engine.getNextMove(10 * 60 * 1000);
-    }
-
-    /**
-     * Cancels the engine running in background
-     */
-    public void cancel() {
-        System.out.println("Thread interrupted");
-        engine.interrupt();
-        while (engine.isRunning()) {
-            System.out.println("Waiting for engine to return. (Main search)");
-        }
-    }
-
-}
\ No newline at end of file
@@ -51,6 +51,10 @@ public class Chessboard {
     private static final int CANT_CASTLE_KINGSIDE[] =   { 0b0001010000, 0b0100100000 };
     private static final int CANT_CASTLE_QUEENSIDE[] =  { 0b0010010000, 0b1000100000 };
     private static final int CANT_CASTLE[][] = new int[][] { CANT_CASTLE_KINGSIDE, CANT_CASTLE_QUEENSIDE };
+    private static final int ROOK_HAS_MOVED[][] = new int[][] { { 0b0001000000, 0b0100000000 }, { 0b0010000000, 0b1000000000 } };  // by side and color
+    private static final long CASTLE_ROOK_SQUARES[][] = new long[][] { { 0x0000000000000080L, 0x8000000000000000L }, { 0x0000000000000001L, 0x0100000000000000L } };  // by side and color
+    private static final long CASTLE_KING_SQUARES[] = { 0x0000000000000010L, 0x1000000000000000L };  // by color
+    private static final String FEN_CASTLING_RIGHTS[][] = new String[][] { { "K", "k" }, { "Q", "q" } };  // by side and color
     
     // usage: if ((CASTLESPACE[side][color] & board.getPieces) != 0) # can't castle  
     private static final long KINGSIDE_CASTLESPACE[] =  { 0x0000000000000060L, 0x6000000000000000L };
@@ -118,6 +122,103 @@ public class Chessboard {
     public Chessboard() {
         initializeBoard();
     }
+
+    /**
+     * Constructor for class Chessboard which sets up a position given in Forsyth-Edwards Notation.
+     * A board takes en passant captures from its last move, so an en passant square is represented by recording the double pawn
+     * push which leads to it as the move before the position; a square behind which no pawn could just have made a double push
+     * is ignored.  The halfmove clock is not kept by Chessboard.  The fullmove number defaults to 1.
+     * @param fen   The position in Forsyth-Edwards Notation (ex. rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1)
+     * @throws InvalidFENException  If the position is not valid FEN
+     */
+    public Chessboard(String fen) throws InvalidFENException {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4) {
+            throw new InvalidFENException("FEN must have at least 4 fields: " + fen);
+        }
+        String[] rows = fields[0].split("/");
+        if (rows.length != 8) {
+            throw new InvalidFENException("FEN must have 8 ranks: " + fen);
+        }
+        for (int rank = 7; rank >= 0; rank--) {
+            int file = 0;
+            for (char c : rows[7 - rank].toCharArray()) {
+                if (c >= '1' && c <= '8') {
+                    file += c - '0';
+                    continue;
+                }
+                if (file > 7) {
+                    throw new InvalidFENException("Too many squares in rank " + (rank + 1) + ": " + fen);
+                }
+                int pieceTypeColor;
+                try {
+                    pieceTypeColor = getPieceTypeEnum(String.valueOf(Character.toUpperCase(c))) + (Character.isUpperCase(c) ? WHITE : BLACK);
+                } catch (InvalidMoveException ime) {
+                    throw new InvalidFENException("Invalid piece '" + c + "': " + fen, ime);
+                }
+                long position = new Square(file, rank).toBitwise();
+                piecesByType[pieceTypeColor / NUMBER_OF_COLORS] |= position;
+                piecesByColor[pieceTypeColor % NUMBER_OF_COLORS] |= position;
+                file++;
+            }
+            if (file != 8) {
+                throw new InvalidFENException("Rank " + (rank + 1) + " does not have 8 squares: " + fen);
+            }
+        }
+        for (int color = WHITE; color <= BLACK; color++) {
+            if (Long.bitCount(getPieceSet(KING + color)) != 1) {
+                throw new InvalidFENException("Each side must have one king: " + fen);
+            }
+        }
+
+        if (!fields[1].equals("w") && !fields[1].equals("b")) {
+            throw new InvalidFENException("Invalid side to move '" + fields[1] + "': " + fen);
+        }
+        int player = fields[1].equals("w") ? WHITE : BLACK;
+
+        // a castling right is kept only if the FEN grants it and the king and rook stand on their original squares
+        if (!fields[2].matches("-|K?Q?k?q?")) {
+            throw new InvalidFENException("Invalid castling rights '" + fields[2] + "': " + fen);
+        }
+        boardState = 0;
+        for (int side = 0; side < 2; side++) {
+            for (int color = WHITE; color <= BLACK; color++) {
+                if (!fields[2].contains(FEN_CASTLING_RIGHTS[side][color]) || (getPieceSet(KING + color) & CASTLE_KING_SQUARES[color]) == 0
+                        || (getPieceSet(ROOK + color) & CASTLE_ROOK_SQUARES[side][color]) == 0) {
+                    boardState |= ROOK_HAS_MOVED[side][color];
+                }
+            }
+        }
+
+        if (!fields[3].matches("-|[a-h][36]")) {
+            throw new InvalidFENException("Invalid en passant square '" + fields[3] + "': " + fen);
+        }
+
+        int fullmoveNumber = 1;
+        if (fields.length > 5) {
+            try {
+                fullmoveNumber = Integer.parseInt(fields[5]);
+            } catch (NumberFormatException nfe) {
+                throw new InvalidFENException("Invalid fullmove number '" + fields[5] + "': " + fen, nfe);
+            }
+            if (fullmoveNumber < 1) {
+                throw new InvalidFENException("Invalid fullmove number '" + fields[5] + "': " + fen);
+            }
+        }
+        ply = 2 * (fullmoveNumber - 1) + 1 + player;  // ply 1 is white's first move
+
+        if (!fields[3].equals("-")) {
+            int enPassantSerial = (fields[3].charAt(0) - 'a') + (fields[3].charAt(1) - '1') * 8;
+            int direction = (player == WHITE) ? -8 : 8;  // from the en passant square toward the pawn which double pushed
+            int opponent = 1 - player;
+            long pawnSquare = Square.toBitwise(enPassantSerial + direction);
+            long emptySquares = Square.toBitwise(enPassantSerial) | Square.toBitwise(enPassantSerial - direction);
+            if (Square.getRank(enPassantSerial) == (player == WHITE ? 5 : 2) && (getPieceSet(PAWN + opponent) & pawnSquare) != 0
+                    && (getAllPieces() & emptySquares) == 0) {
+                moves.add(new Move(ply - 1, enPassantSerial - direction, enPassantSerial + direction, PAWN + opponent, this));
+            }
+        }
+    }
     
     /**
      * Returns a bitboard containing a certain type of piece and color.
@@ -447,7 +548,7 @@ public class Chessboard {
      * @return True if the last move was a double pawn push; false if not
      */
     public boolean lastMoveIsDoublePawnPush() {
-        if (moves.size() <= 1) {
+        if (moves.isEmpty()) {
             return false;
         }
         return (getLastMove().isDoublePawnPush());
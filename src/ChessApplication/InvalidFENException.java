@@ -0,0 +1,17 @@
+package com.circumspectus.ChessApplication;
+
+/**
+ * Exception thrown when a position in Forsyth-Edwards Notation cannot be parsed
+ * @author Christopher Stieg
+ */
+public class InvalidFENException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidFENException(String message)  {
+        super(message);
+    }
+    
+    public InvalidFENException(String message, Throwable throwable)  {
+        super(message, throwable);
+    }
+}
@@ -778,5 +778,18 @@ public class Move implements Comparable<Move> {
         
         // todo: provide disambiguation, castling, pawn promotion, check, checkmate symbols
     }
+
+    /**
+     * Represents the move in coordinate notation, as used by the UCI protocol: the origin and destination squares, followed by
+     * the promotion piece in lower case if the move is a pawn promotion (e.g. e2e4, e7e8q, and e1g1 for castling kingside)
+     * @return  A string representing the move in coordinate notation
+     */
+    public String getCoordinateMovetext() {
+        String movetext = Square.getName(originSerial) + Square.getName(destinationSerial);
+        if (isPromotion()) {
+            movetext = movetext + Chessboard.getPieceTypeCharacter(getPromotionPieceTypeColor()).toLowerCase();
+        }
+        return movetext;
+    }
     
 }
@@ -139,8 +139,10 @@ public class Piece
                                                     0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L };
     
     
-    private static final long WHITE_PAWN_CAPTURES[] = { 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L, 
-                                                    0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L, 
+    // the first rank entries of WHITE_PAWN_CAPTURES and the eighth rank entries of BLACK_PAWN_CAPTURES are never used to generate moves,
+    // but are needed by Square.isAttacked to find pawns attacking the back rank
+    private static final long WHITE_PAWN_CAPTURES[] = { 0x0000000000000200L, 0x0000000000000500L, 0x0000000000000A00L, 0x0000000000001400L, 
+                                                    0x0000000000002800L, 0x0000000000005000L, 0x000000000000A000L, 0x0000000000004000L, 
                                                     0x0000000000020000L, 0x0000000000050000L, 0x00000000000A0000L, 0x0000000000140000L,
                                                     0x0000000000280000L, 0x0000000000500000L, 0x0000000000A00000L, 0x0000000000400000L,
                                                     0x0000000002000000L, 0x0000000005000000L, 0x000000000A000000L, 0x0000000014000000L,
@@ -170,8 +172,8 @@ public class Piece
                                                     0x0000002800000000L, 0x0000005000000000L, 0x000000A000000000L, 0x0000004000000000L,
                                                     0x0000020000000000L, 0x0000050000000000L, 0x00000A0000000000L, 0x0000140000000000L,
                                                     0x0000280000000000L, 0x0000500000000000L, 0x0000A00000000000L, 0x0000400000000000L,
-                                                    0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L,
-                                                    0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L };
+                                                    0x0002000000000000L, 0x0005000000000000L, 0x000A000000000000L, 0x0014000000000000L,
+                                                    0x0028000000000000L, 0x0050000000000000L, 0x00A0000000000000L, 0x0040000000000000L };
     
     
     private static final long POTENTIAL_MOVES[][]= new long[][] {   KING_MOVES,         KING_MOVES,
@@ -1011,17 +1013,12 @@ public class Piece
         
         // add pawn captures
         if (pieceType == Chessboard.PAWN) {
-            // look up potential pawn captures by color (subtracting PAWN constant leaves only color) and given position, then intersecting with opponent's piecesByType.
-            potentialMoves |= (POTENTIAL_PAWN_CAPTURES[pieceTypeColor - Chessboard.PAWN][currentPositionSerial] & board.getPiecesOfColor(board.getOpposingPlayer()));
+            // look up potential pawn captures by color (subtracting PAWN constant leaves only color) and given position, then intersecting with the pieces of the pawn's opponent.
+            potentialMoves |= (POTENTIAL_PAWN_CAPTURES[pieceTypeColor - Chessboard.PAWN][currentPositionSerial] & board.getPiecesOfColor(1 - (pieceTypeColor - Chessboard.PAWN)));
             
             // add en passant pawn captures
-            if (board.lastMoveIsDoublePawnPush() && currentPositionSerial > 8 && currentPositionSerial < 56) {
-                if (pieceTypeColor - Chessboard.PAWN == 0) {
-                    potentialMoves |= (POTENTIAL_PAWN_CAPTURES[0][currentPositionSerial - 8] & board.getEnPassantDestinationSquare());
-                }
-                else {
-                    potentialMoves |= (POTENTIAL_PAWN_CAPTURES[1][currentPositionSerial + 8] & board.getEnPassantDestinationSquare());
-                }
+            if (board.lastMoveIsDoublePawnPush()) {
+                potentialMoves |= (POTENTIAL_PAWN_CAPTURES[pieceTypeColor - Chessboard.PAWN][currentPositionSerial] & board.getEnPassantDestinationSquare());
             }
         }
         return potentialMoves;
@@ -1125,7 +1122,22 @@ public class Piece
     public static long getPossibleAttackingMoves(long potentialMoves, Chessboard board) {
         return potentialMoves & board.getPiecesOfColor(board.getOpposingPlayer());
     }
-    
+
+    /**
+     * Gets the squares attacked by a piece from its current position, whether empty or occupied by pieces of either color.
+     * Sliding pieces attack up to and including the first occupied square in each direction, and pawns attack only the two squares diagonally ahead.
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard) for the attacking piece
+     * @param currentPositionSerial An int serial representing the current position of the attacking piece
+     * @param board             A reference to the parent Chessboard
+     * @return A long containing 1s in the locations representing the squares attacked by the piece
+     */
+    public static long getAttackedSquares(int pieceTypeColor, int currentPositionSerial, Chessboard board) {
+        if (Chessboard.getPieceType(pieceTypeColor) == Chessboard.PAWN) {
+            return POTENTIAL_PAWN_CAPTURES[pieceTypeColor - Chessboard.PAWN][currentPositionSerial];
+        }
+        return removeBlockedSquares(POTENTIAL_MOVES[pieceTypeColor][currentPositionSerial], pieceTypeColor, currentPositionSerial, board);
+    }
+
     /**
      * Removes squares occupied by the current player's own pieces, or blocked by any pieces, from potential moves.
      * @param potentialMoves    The potential moves that a piece could make from the given position were it not blocked by other pieces
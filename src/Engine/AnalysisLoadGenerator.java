@@ -0,0 +1,136 @@
+package com.circumspectus.Engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for AnalysisServer.  Opens a number of concurrent connections, each sending a number of analyze requests for
+ * a rotating set of positions one after another, and reports the latency percentiles of the requests and the throughput.
+ * Run with the arguments: [-port &lt;port&gt; | -unix &lt;path&gt;] [-clients &lt;connections&gt;] [-requests &lt;per connection&gt;]
+ * [-limits "&lt;limits&gt;"], by default 16 connections of 10 requests each with the limits "depth 4".
+ * @author Christopher Stieg
+ */
+public class AnalysisLoadGenerator {
+    private static final int DEFAULT_CLIENTS = 16;
+    private static final int DEFAULT_REQUESTS = 10;
+    private static final String DEFAULT_LIMITS = "depth 4";
+    private static final String[] POSITIONS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP3PPP/R2QKB1R w KQ - 0 8",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1"
+    };
+
+    /**
+     * Runs the load
+     * @param args  The address, connections, requests per connection and limits (see the class description)
+     * @throws Exception    If a connection fails
+     */
+    public static void main(String[] args) throws Exception {
+        SocketAddress address = AnalysisServer.parseAddress("-port", Integer.toString(AnalysisServer.DEFAULT_PORT));
+        int clients = DEFAULT_CLIENTS;
+        int requests = DEFAULT_REQUESTS;
+        String limits = DEFAULT_LIMITS;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-clients":
+                    clients = Integer.parseInt(args[++i]);
+                    break;
+                case "-requests":
+                    requests = Integer.parseInt(args[++i]);
+                    break;
+                case "-limits":
+                    limits = args[++i];
+                    break;
+                default:
+                    address = AnalysisServer.parseAddress(args[i], args[++i]);
+            }
+        }
+
+        long[][] latencies = new long[clients][];  // in nanoseconds, by connection
+        AtomicInteger errors = new AtomicInteger();
+        ExecutorService clientThreads = AnalysisServer.newConnectionExecutor();
+        List<Future<?>> connections = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            SocketAddress serverAddress = address;
+            int requestCount = requests;
+            String requestLimits = limits;
+            connections.add(clientThreads.submit(() -> {
+                latencies[client] = runClient(serverAddress, client, requestCount, requestLimits, errors);
+                return null;
+            }));
+        }
+        for (Future<?> connection : connections) {
+            connection.get();
+        }
+        long elapsedTime = System.nanoTime() - startTime;
+        clientThreads.shutdown();
+
+        long[] allLatencies = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.println(clients + " connections x " + requests + " requests, limits \"" + limits + "\", " + errors.get() + " errors");
+        System.out.println(String.format("Throughput: %.1f requests/s over %d ms", allLatencies.length * 1e9 / elapsedTime, elapsedTime / 1000000));
+        System.out.println(String.format("Latency ms  mean %.1f  p50 %.1f  p90 %.1f  p99 %.1f  max %.1f",
+                Arrays.stream(allLatencies).average().orElse(0) / 1e6, percentile(allLatencies, 50) / 1e6, percentile(allLatencies, 90) / 1e6,
+                percentile(allLatencies, 99) / 1e6, percentile(allLatencies, 100) / 1e6));
+    }
+
+    /**
+     * Sends the requests of one connection, one after another
+     * @param address   The address of the server
+     * @param client    The number of the connection, which selects its first position
+     * @param requests  The number of requests to send
+     * @param limits    The limits of each request
+     * @param errors    Counts the error replies
+     * @return  The latency of each request in nanoseconds
+     * @throws IOException  If the connection fails
+     */
+    private static long[] runClient(SocketAddress address, int client, int requests, String limits, AtomicInteger errors) throws IOException {
+        long[] latencies = new long[requests];
+        try (SocketChannel channel = SocketChannel.open(address);
+                BufferedReader in = new BufferedReader(Channels.newReader(channel, StandardCharsets.US_ASCII));
+                PrintWriter out = new PrintWriter(Channels.newWriter(channel, StandardCharsets.US_ASCII))) {
+            for (int i = 0; i < requests; i++) {
+                long startTime = System.nanoTime();
+                out.println("analyze fen " + POSITIONS[(client + i) % POSITIONS.length] + " " + limits);
+                out.flush();
+                String reply = in.readLine();
+                latencies[i] = System.nanoTime() - startTime;
+                if (reply == null || !reply.startsWith("bestmove")) {
+                    errors.incrementAndGet();
+                    System.err.println("Connection " + client + ": " + reply);
+                }
+            }
+            out.println("quit");
+        }
+        return latencies;
+    }
+
+    /**
+     * Gets a percentile of sorted values by the nearest-rank method
+     * @param sortedValues  The values in ascending order
+     * @param percent   The percentile, from 0 to 100
+     * @return  The value at the percentile, or 0 if there are none
+     */
+    private static long percentile(long[] sortedValues, int percent) {
+        if (sortedValues.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sortedValues.length);
+        return sortedValues[Math.max(0, rank - 1)];
+    }
+}
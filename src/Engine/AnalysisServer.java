@@ -0,0 +1,334 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.InvalidFENException;
+import com.circumspectus.ChessApplication.Move;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves position analysis to local tools over a TCP socket on the loopback address or a Unix-domain socket, so that they need
+ * not start a JVM for each position.  Each connection is handled on a thread of its own, a virtual thread where the runtime has
+ * them (Java 21 and later) and a platform thread otherwise, and may send any number of requests, one per line:
+ * <pre>
+ *     analyze fen &lt;FEN&gt; [depth &lt;ply&gt;] [nodes &lt;count&gt;] [movetime &lt;milliseconds&gt;]
+ *     quit
+ * </pre>
+ * Each analysis is answered with one line:
+ * <pre>
+ *     bestmove &lt;move&gt; score cp &lt;centipawns&gt;|mate &lt;moves&gt; depth &lt;ply&gt; nodes &lt;count&gt; time &lt;milliseconds&gt; pv &lt;moves&gt;
+ * </pre>
+ * in coordinate notation, with bestmove 0000 if the side to move has no legal move, or with "error" followed by a message if the
+ * request is invalid.  A request without limits searches for DEFAULT_MOVE_TIME, and the move time is capped at MAX_MOVE_TIME.
+ * Searches run on the engines of an EnginePool, whose search threads are platform threads, by default one per core; a connection
+ * waits while all engines are busy.  The opening book is not consulted.
+ * @author Christopher Stieg
+ */
+public class AnalysisServer implements Closeable {
+    public static final int DEFAULT_PORT = 7640;
+    private static final int DEFAULT_HASH = 256;  // megabytes of transposition table shared out between the engines
+    private static final long DEFAULT_MOVE_TIME = 1000;  // milliseconds
+    private static final long MAX_MOVE_TIME = 60 * 1000;
+    private final ServerSocketChannel serverChannel;
+    private final SocketAddress address;
+    private final EnginePool enginePool;
+    private final Semaphore freeEngines;  // a connection holds a permit while it leases an engine, so that it waits when none is free
+    private final ExecutorService connectionThreads;
+    private volatile PrintStream trace;  // receives the search trace of the engines leased, or null if it is off
+
+    /**
+     * Constructor for AnalysisServer, which binds the socket
+     * @param address   The address to listen on: an InetSocketAddress, or a UnixDomainSocketAddress whose file does not yet exist
+     * @param searchThreads The number of analyses run at once, each on an engine and platform thread of its own
+     * @param hashMegabytes The memory budget in megabytes of the transposition tables of all engines
+     * @throws IOException  If the socket cannot be bound
+     */
+    public AnalysisServer(SocketAddress address, int searchThreads, int hashMegabytes) throws IOException {
+        serverChannel = address instanceof UnixDomainSocketAddress ? ServerSocketChannel.open(StandardProtocolFamily.UNIX) : ServerSocketChannel.open();
+        serverChannel.bind(address);
+        this.address = serverChannel.getLocalAddress();
+        enginePool = new EnginePool(searchThreads, hashMegabytes, searchThreads);
+        freeEngines = new Semaphore(searchThreads, true);
+        connectionThreads = newConnectionExecutor();
+    }
+
+    /**
+     * Creates the executor of the connections: one virtual thread per connection if the runtime supports virtual threads, or a
+     * cached pool of platform threads if it does not
+     * @return  The executor
+     */
+    static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException roe) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "Analysis connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Gets the address the server listens on, such as the port chosen for port 0
+     * @return  The local address of the socket
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Sets the stream receiving the search trace of the engines, which is off by default
+     * @param trace The stream, such as System.err, or null to turn the trace off
+     */
+    public void setTrace(PrintStream trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Accepts connections on the calling thread until the server is closed, handling each on a thread of its own
+     * @throws IOException  If accepting a connection fails
+     */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                connectionThreads.execute(() -> handle(channel));
+            }
+        } catch (ClosedChannelException cce) {
+            // closed by close
+        }
+    }
+
+    /**
+     * Answers the requests of a connection until the client quits or disconnects
+     * @param channel   The channel of the connection
+     */
+    private void handle(SocketChannel channel) {
+        try (channel;
+                BufferedReader in = new BufferedReader(Channels.newReader(channel, StandardCharsets.US_ASCII));
+                PrintWriter out = new PrintWriter(Channels.newWriter(channel, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens[0].equals("quit")) {
+                    break;
+                }
+                else if (tokens[0].equals("analyze")) {
+                    out.println(analyze(tokens));
+                }
+                else if (!tokens[0].isEmpty()) {
+                    out.println("error Unknown command " + tokens[0]);
+                }
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            // the client disconnected
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Analyzes the position of an analyze request on a leased engine, waiting for an engine to be free
+     * @param tokens    The tokens of the request
+     * @return  The reply line
+     * @throws InterruptedException If interrupted while waiting for an engine
+     */
+    private String analyze(String[] tokens) throws InterruptedException {
+        int limitsStart = 2;
+        while (limitsStart < tokens.length && !isLimit(tokens[limitsStart])) {
+            limitsStart++;
+        }
+        if (tokens.length < 3 || !tokens[1].equals("fen")) {
+            return "error Expected: analyze fen <FEN> [depth <ply>] [nodes <count>] [movetime <milliseconds>]";
+        }
+        SearchLimits limits;
+        ZobristBoard board;
+        try {
+            limits = parseLimits(Arrays.copyOfRange(tokens, limitsStart, tokens.length));
+            board = new ZobristBoard(String.join(" ", Arrays.copyOfRange(tokens, 2, limitsStart)), enginePool.getZobristHashing());
+        } catch (InvalidFENException | IllegalArgumentException e) {
+            return "error " + e.getMessage();
+        }
+
+        SearchResult result;
+        freeEngines.acquire();
+        try {
+            ChessEngine engine = enginePool.lease(board);
+            try {
+                engine.setOpeningBookEnabled(false);
+                engine.setTrace(trace);
+                result = engine.search(limits, new StopToken(), null).join();
+            } catch (CompletionException ce) {
+                return "error Search failed: " + ce.getCause();
+            }
+            finally {
+                enginePool.release(engine);
+            }
+        }
+        finally {
+            freeEngines.release();
+        }
+        return formatResult(result);
+    }
+
+    /**
+     * Determines whether a token of an analyze request names a limit
+     * @param token The token
+     * @return  True if it is depth, nodes or movetime
+     */
+    private static boolean isLimit(String token) {
+        return token.equals("depth") || token.equals("nodes") || token.equals("movetime");
+    }
+
+    /**
+     * Parses the limits of an analyze request
+     * @param tokens    The tokens following the FEN
+     * @return  The limits, with a move time of DEFAULT_MOVE_TIME if none are given, and at most MAX_MOVE_TIME
+     * @throws IllegalArgumentException If a limit is unknown, missing its value, or not positive
+     */
+    static SearchLimits parseLimits(String[] tokens) {
+        int depth = SearchLimits.UNLIMITED;
+        long nodes = SearchLimits.UNLIMITED;
+        long moveTime = SearchLimits.UNLIMITED;
+        for (int i = 0; i < tokens.length; i += 2) {
+            if (i + 1 >= tokens.length) {
+                throw new IllegalArgumentException("Missing value of " + tokens[i]);
+            }
+            long value = Long.parseLong(tokens[i + 1]);
+            if (value <= 0) {
+                throw new IllegalArgumentException("Limit must be positive: " + tokens[i] + " " + tokens[i + 1]);
+            }
+            switch (tokens[i]) {
+                case "depth":
+                    depth = (int) Math.min(value, ChessEngine.DEPTH);
+                    break;
+                case "nodes":
+                    nodes = value;
+                    break;
+                case "movetime":
+                    moveTime = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown limit " + tokens[i]);
+            }
+        }
+        if (depth == SearchLimits.UNLIMITED && nodes == SearchLimits.UNLIMITED && moveTime == SearchLimits.UNLIMITED) {
+            moveTime = DEFAULT_MOVE_TIME;
+        }
+        if (moveTime == SearchLimits.UNLIMITED || moveTime > MAX_MOVE_TIME) {
+            moveTime = MAX_MOVE_TIME;
+        }
+        return new SearchLimits(depth, nodes, moveTime);
+    }
+
+    /**
+     * Formats the reply to an analyze request
+     * @param result    The result of the search
+     * @return  The reply line
+     */
+    private static String formatResult(SearchResult result) {
+        StringBuilder reply = new StringBuilder("bestmove ").append(result.bestMove == null ? "0000" : result.bestMove.getCoordinateMovetext());
+        reply.append(" score ").append(UCIDriver.formatScore(result.score)).append(" depth ").append(result.depth)
+                .append(" nodes ").append(result.nodes).append(" time ").append(result.time).append(" pv");
+        if (!result.principalVariations.isEmpty()) {
+            for (Move move : result.principalVariations.get(0).moves) {
+                reply.append(' ').append(move.getCoordinateMovetext());
+            }
+        }
+        return reply.toString();
+    }
+
+    /**
+     * Stops accepting connections, deleting the file of a Unix-domain socket.  Connections already accepted are served until
+     * their clients quit.
+     * @throws IOException  If the socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        connectionThreads.shutdown();
+        enginePool.shutdown();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    /**
+     * Gets a socket address given by a command line option
+     * @param option    -port for a TCP port on the loopback address, or -unix for the path of a Unix-domain socket
+     * @param value The port or path
+     * @return  The address
+     * @throws IllegalArgumentException If the option is neither
+     */
+    static SocketAddress parseAddress(String option, String value) {
+        if (option.equals("-port")) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(value));
+        }
+        else if (option.equals("-unix")) {
+            return UnixDomainSocketAddress.of(Path.of(value));
+        }
+        throw new IllegalArgumentException("Unknown option " + option);
+    }
+
+    /**
+     * Runs the server until the process is killed, closing it on the way out.  The engines' search trace is discarded, or
+     * written to standard error with -debug.
+     * @param args  [-port &lt;port&gt; | -unix &lt;path&gt;] [-threads &lt;search threads&gt;] [-hash &lt;megabytes&gt;] [-debug]
+     * @throws IOException  If the socket cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        SocketAddress address = parseAddress("-port", Integer.toString(DEFAULT_PORT));
+        int searchThreads = Runtime.getRuntime().availableProcessors();
+        int hashMegabytes = DEFAULT_HASH;
+        boolean debug = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-threads":
+                    searchThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "-hash":
+                    hashMegabytes = Integer.parseInt(args[++i]);
+                    break;
+                case "-debug":
+                    debug = true;
+                    break;
+                default:
+                    address = parseAddress(args[i], args[++i]);
+            }
+        }
+        AnalysisServer server = new AnalysisServer(address, searchThreads, hashMegabytes);
+        if (debug) {
+            server.setTrace(System.err);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();  // deletes the file of a Unix-domain socket when the process is killed
+            } catch (IOException ioe) {
+                System.err.println("Closing the server failed: " + ioe);
+            }
+        }));
+        System.err.println("Analysis server listening on " + server.getAddress() + " with " + searchThreads + " search threads");
+        server.serve();
+    }
+}
@@ -0,0 +1,335 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.InvalidFENException;
+import com.circumspectus.ChessApplication.Move;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analyses a file of positions, one per line in EPD or FEN, in parallel to a fixed depth or node limit.  Each worker thread
+ * searches with an engine of its own, sharing the Zobrist keys, bitbases and evaluation cache; the transposition table is
+ * cleared before each position, so that its result does not depend on the positions analysed before it by the same worker.
+ * With -deterministic, the engines search in deterministic mode, each with an evaluation cache of its own, so that the output
+ * is the same from run to run whatever the number of threads.
+ * The file is read as it is analysed, with a bounded number of positions in flight, and the results are written in input
+ * order as EPD: the position and its operations (the clocks of a FEN as hmvc and fmvn), followed by the analysis operations
+ * acd (depth), acn (nodes), acs (seconds), ce (centipawns, or 32767 less the ply to mate) and pm and pv, the moves in coordinate
+ * notation.  A line which is not a valid position is written with a c9 operation holding the error; blank lines and lines
+ * starting with # are copied.
+ * The total and per-position throughput are reported on standard error.
+ * Run with the arguments: input file, [output file, by default standard output], [-depth &lt;ply&gt; | -nodes &lt;count&gt;],
+ * [-threads &lt;workers&gt;, by default one per core], [-hash &lt;megabytes for all workers&gt;], [-deterministic]
+ * @author Christopher Stieg
+ */
+public class BatchAnalyzer {
+    private static final int DEFAULT_DEPTH = 6;
+    private static final int DEFAULT_HASH = 256;  // megabytes of transposition table shared out between the workers
+    private static final int POSITIONS_IN_FLIGHT_PER_THREAD = 4;  // positions read ahead of the one being written, per worker
+    private static final int MATE_SCORE = 32767;  // the EPD centipawn evaluation of mate on the move
+    private final SearchLimits limits;
+    private final int transpositionTableEntries;  // the entries of the transposition table of each worker's engine
+    private final ZobristHashing zobristHashing = new ZobristHashing();
+    private final Bitbases bitbases = new Bitbases(Bitbases.DEFAULT_DIRECTORY);
+    private final EvaluationCache evaluationCache = new EvaluationCache();
+    private final ThreadLocal<ChessEngine> engines = ThreadLocal.withInitial(this::createEngine);  // the engine of each worker
+    private final ExecutorService workers;
+    private final int positionsInFlight;  // the most positions read and not yet written
+    private final boolean deterministic;  // true if the engines search in deterministic mode
+
+    /**
+     * Constructor for BatchAnalyzer
+     * @param limits    The limits of the search of each position
+     * @param threads   The number of worker threads
+     * @param hashMegabytes The memory budget in megabytes of the transposition tables of all workers
+     * @param deterministic True for reproducible results (see ChessEngine.setDeterministic)
+     */
+    public BatchAnalyzer(SearchLimits limits, int threads, int hashMegabytes, boolean deterministic) {
+        this.limits = limits;
+        this.deterministic = deterministic;
+        this.transpositionTableEntries = Math.max(1, TranspositionTable.getEntriesForMegabytes(hashMegabytes) / threads);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Batch analysis " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.positionsInFlight = threads * POSITIONS_IN_FLIGHT_PER_THREAD;
+    }
+
+    /**
+     * Creates the engine of a worker.  Its searches run directly on the worker's thread.  In deterministic mode it keeps an
+     * evaluation cache of its own.
+     * @return  The engine
+     */
+    private ChessEngine createEngine() {
+        ZobristBoard board = new ZobristBoard(zobristHashing);
+        ChessEngine engine = new ChessEngine(board, board.getClone(), new TranspositionTable(transpositionTableEntries), Runnable::run);
+        engine.setBitbases(bitbases);
+        if (!deterministic) {
+            engine.setEvaluationCache(evaluationCache);
+        }
+        return engine;
+    }
+
+    /**
+     * Analyses the positions of a reader, writing the results in input order
+     * @param in    The positions, one per line
+     * @param out   The writer of the results
+     * @return  The statistics of the positions analysed
+     * @throws IOException  If reading fails
+     * @throws InterruptedException If interrupted while waiting for a result
+     */
+    public BatchStatistics analyze(BufferedReader in, PrintWriter out) throws IOException, InterruptedException {
+        BatchStatistics statistics = new BatchStatistics();
+        ArrayDeque<Future<PositionResult>> pending = new ArrayDeque<>();
+        long startTime = System.nanoTime();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String position = line;
+            pending.add(workers.submit(() -> analyzePosition(position)));
+            if (pending.size() >= positionsInFlight) {
+                write(pending.poll(), out, statistics);
+            }
+        }
+        while (!pending.isEmpty()) {
+            write(pending.poll(), out, statistics);
+        }
+        out.flush();
+        statistics.wallTime = (System.nanoTime() - startTime) / 1000000;
+        return statistics;
+    }
+
+    /**
+     * Waits for the result of the oldest position in flight and writes it
+     * @param result    The future result of the position
+     * @param out   The writer of the results
+     * @param statistics    The statistics to which the position is added
+     * @throws InterruptedException If interrupted while waiting for the result
+     */
+    private static void write(Future<PositionResult> result, PrintWriter out, BatchStatistics statistics) throws InterruptedException {
+        PositionResult positionResult;
+        try {
+            positionResult = result.get();
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Analysis failed", ee.getCause());
+        }
+        out.println(positionResult.line);
+        statistics.add(positionResult);
+    }
+
+    /**
+     * Analyses the position of a line on the worker's engine
+     * @param line  A position in EPD or FEN
+     * @return  The result line, with the nodes and time of the search
+     */
+    private PositionResult analyzePosition(String line) {
+        String trimmedLine = line.trim();
+        if (trimmedLine.isEmpty() || trimmedLine.startsWith("#")) {
+            return new PositionResult(line, false, false, 0, 0);
+        }
+        String[] fields = trimmedLine.split("\\s+", 5);
+        if (fields.length < 4) {
+            return new PositionResult(trimmedLine + " c9 \"Fewer than 4 fields\";", false, true, 0, 0);
+        }
+        String position = String.join(" ", fields[0], fields[1], fields[2], fields[3]);
+        String operations = fields.length > 4 ? fields[4].trim() : "";
+        String fen = position;
+        String[] clocks = operations.split("\\s+", 3);
+        if (clocks.length >= 2 && clocks[0].matches("\\d+") && clocks[1].matches("\\d+;?")) {  // a FEN, possibly followed by operations
+            String fullmoveNumber = clocks[1].replace(";", "");
+            fen = position + " " + clocks[0] + " " + fullmoveNumber;
+            operations = "hmvc " + clocks[0] + "; fmvn " + fullmoveNumber + ";" + (clocks.length > 2 ? " " + clocks[2] : "");
+        }
+        String prefix = operations.isEmpty() ? position : position + " " + operations;
+
+        ZobristBoard board;
+        try {
+            board = new ZobristBoard(fen, zobristHashing);
+        } catch (InvalidFENException ife) {
+            return new PositionResult(prefix + " c9 \"" + ife.getMessage().replace('"', '\'') + "\";", false, true, 0, 0);
+        }
+        ChessEngine engine = engines.get();
+        engine.newGame(board);
+        engine.setOpeningBookEnabled(false);
+        engine.setDeterministic(deterministic);
+        SearchResult result = engine.search(limits, new StopToken(), null).join();
+        return new PositionResult(prefix + " " + formatAnalysis(board, result), true, false, result.nodes, result.time);
+    }
+
+    /**
+     * Formats the analysis operations of a search result
+     * @param board The position searched
+     * @param result    The result of the search
+     * @return  The acd, acn, acs, ce, pm and pv operations, leaving out pm and pv if there is no legal move
+     */
+    private static String formatAnalysis(ZobristBoard board, SearchResult result) {
+        int score = result.score;
+        if (result.bestMove == null) {
+            score = board.isInCheck(board.getCurrentPlayer()) ? -MATE_SCORE : 0;  // checkmated or stalemated
+        }
+        else if (Math.abs(score) >= ChessEngine.CHECKMATE_THRESHOLD) {
+            int ply = ChessEngine.CHECKMATE_VALUE - Math.abs(score);
+            score = score > 0 ? MATE_SCORE - ply : -MATE_SCORE + ply;
+        }
+        StringBuilder analysis = new StringBuilder("acd " + result.depth + "; acn " + result.nodes + "; acs "
+                + String.format("%.3f", result.time / 1000.0) + "; ce " + score + ";");
+        if (result.bestMove != null) {
+            analysis.append(" pm ").append(result.bestMove.getCoordinateMovetext()).append("; pv");
+            List<Move> moves = result.principalVariations.isEmpty() ? List.of(result.bestMove) : result.principalVariations.get(0).moves;
+            for (Move move : moves) {
+                analysis.append(' ').append(move.getCoordinateMovetext());
+            }
+            analysis.append(';');
+        }
+        return analysis.toString();
+    }
+
+    /**
+     * Shuts down the worker threads
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    /**
+     * A tuple of the result line of a position, with the nodes and time of its search
+     */
+    private static class PositionResult {
+        final String line;
+        final boolean analyzed;  // false for a blank or comment line, or an invalid position
+        final boolean error;  // true if the line is not a valid position
+        final long nodes;
+        final long time;  // milliseconds
+
+        /**
+         * Constructor for PositionResult
+         * @param line  The result line
+         * @param analyzed  True if the position was searched
+         * @param error True if the line is not a valid position
+         * @param nodes The nodes searched
+         * @param time  The search time in milliseconds
+         */
+        PositionResult(String line, boolean analyzed, boolean error, long nodes, long time) {
+            this.line = line;
+            this.analyzed = analyzed;
+            this.error = error;
+            this.nodes = nodes;
+            this.time = time;
+        }
+    }
+
+    /**
+     * The statistics of a batch: the positions analysed, and the nodes and time of their searches
+     */
+    public static class BatchStatistics {
+        private int positions;
+        private int errors;
+        private long nodes;
+        private long wallTime;  // milliseconds from the first position read to the last result written
+        private final List<Long> searchTimes = new ArrayList<>();  // milliseconds, by position
+
+        /**
+         * Adds the result of a position
+         * @param result    The result
+         */
+        private void add(PositionResult result) {
+            if (result.error) {
+                errors++;
+            }
+            else if (result.analyzed) {
+                positions++;
+                nodes += result.nodes;
+                searchTimes.add(result.time);
+            }
+        }
+
+        /**
+         * Gets the report of the throughput of the batch
+         * @param threads   The number of worker threads
+         * @return  The report, over several lines
+         */
+        public String getReport(int threads) {
+            List<Long> sortedTimes = new ArrayList<>(searchTimes);
+            Collections.sort(sortedTimes);
+            long totalSearchTime = sortedTimes.stream().mapToLong(Long::longValue).sum();
+            return String.format("%d positions (%d invalid) on %d threads in %d ms%n", positions, errors, threads, wallTime)
+                    + String.format("Total: %.2f positions/s  %d nodes  %d nodes/s%n", positions * 1000.0 / Math.max(1, wallTime), nodes,
+                            nodes * 1000 / Math.max(1, wallTime))
+                    + String.format("Per position: mean %.1f ms  median %d ms  max %d ms  %d nodes  %d nodes/s",
+                            (double) totalSearchTime / Math.max(1, positions), sortedTimes.isEmpty() ? 0 : sortedTimes.get(sortedTimes.size() / 2),
+                            sortedTimes.isEmpty() ? 0 : sortedTimes.get(sortedTimes.size() - 1), nodes / Math.max(1, positions),
+                            nodes * 1000 / Math.max(1, totalSearchTime));
+        }
+    }
+
+    /**
+     * Runs a batch.
+     * @param args  The input file, the output file (optional), and the options (see the class description)
+     * @throws IOException  If a file cannot be read or written
+     * @throws InterruptedException If interrupted while waiting for a result
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String inputFile = null;
+        String outputFile = null;
+        int depth = SearchLimits.UNLIMITED;
+        long nodes = SearchLimits.UNLIMITED;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int hashMegabytes = DEFAULT_HASH;
+        boolean deterministic = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-depth":
+                    depth = Integer.parseInt(args[++i]);
+                    break;
+                case "-nodes":
+                    nodes = Long.parseLong(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-hash":
+                    hashMegabytes = Integer.parseInt(args[++i]);
+                    break;
+                case "-deterministic":
+                    deterministic = true;
+                    break;
+                default:
+                    if (inputFile == null) {
+                        inputFile = args[i];
+                    }
+                    else {
+                        outputFile = args[i];
+                    }
+            }
+        }
+        if (inputFile == null) {
+            System.err.println("Usage: BatchAnalyzer <input file> [<output file>] [-depth <ply> | -nodes <count>] [-threads <workers>] [-hash <megabytes>] [-deterministic]");
+            return;
+        }
+        if (depth == SearchLimits.UNLIMITED && nodes == SearchLimits.UNLIMITED) {
+            depth = DEFAULT_DEPTH;
+        }
+
+        BatchAnalyzer analyzer = new BatchAnalyzer(new SearchLimits(depth, nodes, SearchLimits.UNLIMITED), threads, hashMegabytes, deterministic);
+        try (BufferedReader in = new BufferedReader(new FileReader(inputFile));
+                PrintWriter out = outputFile == null ? new PrintWriter(System.out) : new PrintWriter(new FileWriter(outputFile))) {
+            BatchStatistics statistics = analyzer.analyze(in, out);
+            System.err.println(statistics.getReport(threads));
+        }
+        finally {
+            analyzer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,656 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generates win/draw/loss bitbases (see Bitbases) by retrograde analysis, run from the command line with optional arguments: the
+ * signatures to generate (all of up to MAX_PIECES pieces by default), -threads followed by the number of threads, and -directory
+ * followed by the output directory.
+ * First, every position of the table is classified from its own moves: illegal positions, checkmates and stalemates are decided,
+ * and moves which leave the table (captures and promotions) are looked up in the smaller bitbases, which are generated first if
+ * missing.  A position with a move to a lost position is won, and the moves which stay in the table are counted.  Then, in passes,
+ * the predecessors of the positions decided in the last pass are found by unmaking moves: a predecessor of a lost position is won,
+ * and a predecessor of a won position loses once all of its moves in the table are known to lead to won positions.  Positions not
+ * decided when a pass decides nothing are draws.  Each pass is split over a ForkJoinPool by ranges of positions, the states and
+ * counters being updated atomically.
+ * @author Christopher Stieg
+ */
+public class BitbaseGenerator {
+    private static final int GRAIN = 1 << 14;  // positions below which a range is processed by one task
+    // generation states besides Bitbases.DRAW, WIN, LOSS and ILLEGAL
+    private static final byte UNDECIDED = 4;
+    private static final byte UNDECIDED_WITH_DRAWING_EXIT = 5;  // a draw if all of its moves in the table turn out to lose
+    // pass of undecided positions, so that a position seen decided before its pass is written in the same pass is not processed
+    private static final short NOT_DECIDED = Short.MAX_VALUE;
+    private static final int PROMOTIONS[] = { Chessboard.QUEEN, Chessboard.ROOK, Chessboard.BISHOP, Chessboard.KNIGHT };
+    private static final int KING_STEPS[][] = { { 1, 0 }, { 1, 1 }, { 0, 1 }, { -1, 1 }, { -1, 0 }, { -1, -1 }, { 0, -1 }, { 1, -1 } };
+    private static final int KNIGHT_STEPS[][] = { { 1, 2 }, { 2, 1 }, { 2, -1 }, { 1, -2 }, { -1, -2 }, { -2, -1 }, { -2, 1 }, { -1, 2 } };
+    private static final int ROOK_DIRECTIONS[][] = { { 1, 0 }, { 0, 1 }, { -1, 0 }, { 0, -1 } };
+    private static final int BISHOP_DIRECTIONS[][] = { { 1, 1 }, { -1, 1 }, { -1, -1 }, { 1, -1 } };
+    private static final long KING_ATTACKS[] = getStepAttacks(KING_STEPS);
+    private static final long KNIGHT_ATTACKS[] = getStepAttacks(KNIGHT_STEPS);
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private final ForkJoinPool pool;
+    private final Bitbases bitbases;  // the output directory, from which smaller bitbases are probed
+
+    // the table being generated
+    private String signature;
+    private int pieceTypeColors[];  // by slot, the stronger side playing white
+    private int count;
+    private byte states[];  // by index
+    private byte counters[];  // by index, the moves in the table not yet known to lead to won positions
+    private short decidedPasses[];  // by index, the pass in which the position was decided as won or lost
+    private final LongAdder decided = new LongAdder();  // positions decided in the current pass
+
+    /**
+     * Action on a range of positions
+     */
+    private interface RangeAction {
+        /**
+         * Processes a range of positions
+         * @param start The first index
+         * @param end   The index after the last
+         * @param squares   Scratch array for the squares of a position, by slot
+         */
+        void run(int start, int end, int squares[]);
+    }
+
+    /**
+     * A task splitting a range of positions in halves until it is small enough to process directly
+     */
+    private class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int start;
+        private final int end;
+        private final RangeAction action;
+
+        /**
+         * Constructor for RangeTask
+         * @param start The first index
+         * @param end   The index after the last
+         * @param action    The action on the positions
+         */
+        RangeTask(int start, int end, RangeAction action) {
+            this.start = start;
+            this.end = end;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= GRAIN) {
+                action.run(start, end, new int[count]);
+            }
+            else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new RangeTask(start, middle, action), new RangeTask(middle, end, action));
+            }
+        }
+    }
+
+    /**
+     * Constructor for BitbaseGenerator
+     * @param directory The directory in which to write the bitbase files
+     * @param threads   The number of threads
+     */
+    public BitbaseGenerator(File directory, int threads) {
+        this.pool = new ForkJoinPool(threads);
+        this.bitbases = new Bitbases(directory);
+    }
+
+    /**
+     * Calculates the squares reached from each square by single steps
+     * @param steps The steps, as file and rank differences
+     * @return  The reached squares by square
+     */
+    private static long[] getStepAttacks(int steps[][]) {
+        long attacks[] = new long[64];
+        for (int serial = 0; serial < 64; serial++) {
+            for (int step[] : steps) {
+                int file = (serial & 7) + step[0];
+                int rank = (serial >>> 3) + step[1];
+                if (file >= 0 && file < 8 && rank >= 0 && rank < 8) {
+                    attacks[serial] |= 1L << (rank * 8 + file);
+                }
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * Calculates the squares reached along rays, up to and including the first occupied square of each
+     * @param serial    The square of the piece
+     * @param occupied  The occupied squares
+     * @param directions    The directions of the rays, as file and rank differences
+     * @return  The reached squares
+     */
+    private static long getSlidingAttacks(int serial, long occupied, int directions[][]) {
+        long attacks = 0;
+        for (int direction[] : directions) {
+            int file = (serial & 7) + direction[0];
+            int rank = (serial >>> 3) + direction[1];
+            while (file >= 0 && file < 8 && rank >= 0 && rank < 8) {
+                long square = 1L << (rank * 8 + file);
+                attacks |= square;
+                if ((occupied & square) != 0) {
+                    break;
+                }
+                file += direction[0];
+                rank += direction[1];
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * Calculates the squares attacked by a piece
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard)
+     * @param serial    The square of the piece
+     * @param occupied  The occupied squares
+     * @return  The attacked squares
+     */
+    private static long getAttacks(int pieceTypeColor, int serial, long occupied) {
+        switch (Chessboard.getPieceType(pieceTypeColor)) {
+            case Chessboard.KING:
+                return KING_ATTACKS[serial];
+            case Chessboard.QUEEN:
+                return getSlidingAttacks(serial, occupied, ROOK_DIRECTIONS) | getSlidingAttacks(serial, occupied, BISHOP_DIRECTIONS);
+            case Chessboard.ROOK:
+                return getSlidingAttacks(serial, occupied, ROOK_DIRECTIONS);
+            case Chessboard.BISHOP:
+                return getSlidingAttacks(serial, occupied, BISHOP_DIRECTIONS);
+            case Chessboard.KNIGHT:
+                return KNIGHT_ATTACKS[serial];
+            default:
+                long square = 1L << serial;
+                if (Chessboard.getPieceColor(pieceTypeColor) == Chessboard.WHITE) {
+                    return ((square & ~Chessboard.FILES[0]) << 7) | ((square & ~Chessboard.FILES[7]) << 9);
+                }
+                return ((square & ~Chessboard.FILES[7]) >>> 7) | ((square & ~Chessboard.FILES[0]) >>> 9);
+        }
+    }
+
+    /**
+     * Generates a bitbase and, first, any smaller bitbases it depends on which are missing from the directory
+     * @param signature The signature, such as KQKR
+     * @throws IOException  If a file cannot be written
+     */
+    public void generate(String signature) throws IOException {
+        for (String dependency : getDependencies(signature)) {
+            if (!bitbases.getFile(dependency).isFile()) {
+                generate(dependency);
+            }
+        }
+        long startTime = System.nanoTime();
+        this.signature = signature;
+        this.pieceTypeColors = Bitbases.getPieceTypeColors(signature);
+        this.count = pieceTypeColors.length;
+        int size = Bitbases.getTableSize(count);
+        states = new byte[size];
+        counters = new byte[size];
+        decidedPasses = new short[size];
+
+        decided.reset();
+        pool.invoke(new RangeTask(0, size, this::classify));
+        int pass = 0;
+        while (decided.sum() > 0) {
+            pass++;
+            decided.reset();
+            int previousPass = pass - 1;
+            int currentPass = pass;
+            pool.invoke(new RangeTask(0, size, (start, end, squares) -> propagate(start, end, squares, previousPass, currentPass)));
+        }
+        write();
+
+        int totals[] = new int[UNDECIDED_WITH_DRAWING_EXIT + 1];
+        for (byte state : states) {
+            totals[state]++;
+        }
+        System.out.println(String.format("%-6s  wins: %9d   draws: %9d   losses: %9d   illegal: %9d   passes: %3d   time: %.1f s", signature,
+                totals[Bitbases.WIN], totals[Bitbases.DRAW] + totals[UNDECIDED] + totals[UNDECIDED_WITH_DRAWING_EXIT],
+                totals[Bitbases.LOSS], totals[Bitbases.ILLEGAL], pass, (System.nanoTime() - startTime) / 1e9));
+        states = null;
+        counters = null;
+        decidedPasses = null;
+    }
+
+    /**
+     * Gets the signatures reached from a signature by a capture, a promotion, or both
+     * @param signature The signature, such as KQKR
+     * @return  The signatures, bare kings excluded
+     */
+    public static LinkedHashSet<String> getDependencies(String signature) {
+        int pieces[] = Bitbases.getPieceTypeColors(signature);
+        LinkedHashSet<String> dependencies = new LinkedHashSet<>();
+        for (int promoted = -1; promoted < pieces.length; promoted++) {
+            if (promoted >= 0 && Chessboard.getPieceType(pieces[promoted]) != Chessboard.PAWN) {
+                continue;
+            }
+            for (int captured = -1; captured < pieces.length; captured++) {
+                if ((captured >= 0 && Chessboard.getPieceType(pieces[captured]) == Chessboard.KING) || (promoted < 0 && captured < 0)
+                        || (promoted >= 0 && captured >= 0 && Chessboard.getPieceColor(pieces[captured]) == Chessboard.getPieceColor(pieces[promoted]))) {
+                    continue;
+                }
+                for (int promotion : (promoted >= 0) ? PROMOTIONS : new int[] { Chessboard.PAWN }) {
+                    int child[] = new int[pieces.length - (captured >= 0 ? 1 : 0)];
+                    int childCount = 0;
+                    for (int slot = 0; slot < pieces.length; slot++) {
+                        if (slot != captured) {
+                            child[childCount++] = (slot == promoted) ? promotion + Chessboard.getPieceColor(pieces[slot]) : pieces[slot];
+                        }
+                    }
+                    if (childCount > 2) {
+                        dependencies.add(Bitbases.getSignature(child, childCount));
+                    }
+                }
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * Gets the color of the piece in a slot of the table being generated
+     * @param slot  The slot
+     * @return  Either the constant WHITE or BLACK
+     */
+    private int getColor(int slot) {
+        return Chessboard.getPieceColor(pieceTypeColors[slot]);
+    }
+
+    /**
+     * Decodes an index of the table being generated
+     * @param index The index
+     * @param squares   The array in which to write the square of each slot
+     * @return  The player to move, either the constant WHITE or BLACK
+     */
+    private int decode(int index, int squares[]) {
+        for (int slot = count - 1; slot > 0; slot--) {
+            squares[slot] = index & 63;
+            index >>>= 6;
+        }
+        squares[0] = ((index & 31) >>> 2) * 8 + (index & 3);
+        return index >>> 5;
+    }
+
+    /**
+     * Checks whether a square is attacked by a player
+     * @param serial    The square
+     * @param color The attacking player, either the constant WHITE or BLACK
+     * @param squares   The square of each slot
+     * @param capturedSlot  A slot whose piece has been captured, or -1
+     * @param occupied  The occupied squares
+     * @return  True if a piece of the player attacks the square
+     */
+    private boolean isAttacked(int serial, int color, int squares[], int capturedSlot, long occupied) {
+        for (int slot = 0; slot < count; slot++) {
+            if (slot != capturedSlot && getColor(slot) == color && (getAttacks(pieceTypeColors[slot], squares[slot], occupied) & (1L << serial)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the squares occupied by the pieces of a position
+     * @param squares   The square of each slot
+     * @return  The occupied squares
+     */
+    private long getOccupied(int squares[]) {
+        long occupied = 0;
+        for (int slot = 0; slot < count; slot++) {
+            occupied |= 1L << squares[slot];
+        }
+        return occupied;
+    }
+
+    /**
+     * Gets the slot of the king of a player
+     * @param color Either the constant WHITE or BLACK
+     * @return  The slot
+     */
+    private int getKingSlot(int color) {
+        for (int slot = 0; slot < count; slot++) {
+            if (pieceTypeColors[slot] == Chessboard.KING + color) {
+                return slot;
+            }
+        }
+        throw new IllegalStateException("No king in " + signature);
+    }
+
+    /**
+     * Gets the squares to which a piece may move without capturing or promoting considered: pushes for pawns, attacked squares not
+     * occupied by the mover's pieces for the others
+     * @param slot  The slot of the piece
+     * @param squares   The square of each slot
+     * @param occupied  The occupied squares
+     * @param own   The squares occupied by the mover's pieces
+     * @return  The destination squares
+     */
+    private long getDestinations(int slot, int squares[], long occupied, long own) {
+        int pieceTypeColor = pieceTypeColors[slot];
+        int serial = squares[slot];
+        if (Chessboard.getPieceType(pieceTypeColor) != Chessboard.PAWN) {
+            return getAttacks(pieceTypeColor, serial, occupied) & ~own;
+        }
+        long destinations = getAttacks(pieceTypeColor, serial, occupied) & occupied & ~own;
+        int forward = (getColor(slot) == Chessboard.WHITE) ? 8 : -8;
+        int startRank = (getColor(slot) == Chessboard.WHITE) ? 1 : 6;
+        if ((occupied & (1L << (serial + forward))) == 0) {
+            destinations |= 1L << (serial + forward);
+            if ((serial >>> 3) == startRank && (occupied & (1L << (serial + 2 * forward))) == 0) {
+                destinations |= 1L << (serial + 2 * forward);
+            }
+        }
+        return destinations;
+    }
+
+    /**
+     * Classifies positions from their own moves, for the first pass
+     * @param start The first index
+     * @param end   The index after the last
+     * @param squares   Scratch array for the squares of a position
+     */
+    private void classify(int start, int end, int squares[]) {
+        int childPieceTypeColors[] = new int[count];
+        int childSerials[] = new int[count];
+        for (int index = start; index < end; index++) {
+            int player = decode(index, squares);
+            int opponent = 1 - player;
+            long occupied = getOccupied(squares);
+            boolean legal = Long.bitCount(occupied) == count;
+            for (int slot = 0; slot < count && legal; slot++) {
+                if (Chessboard.getPieceType(pieceTypeColors[slot]) == Chessboard.PAWN && (squares[slot] < 8 || squares[slot] >= 56)) {
+                    legal = false;
+                }
+            }
+            int kingSlot = getKingSlot(player);
+            if (!legal || isAttacked(squares[getKingSlot(opponent)], player, squares, -1, occupied)) {
+                states[index] = Bitbases.ILLEGAL;
+                continue;
+            }
+
+            long own = 0;
+            for (int slot = 0; slot < count; slot++) {
+                if (getColor(slot) == player) {
+                    own |= 1L << squares[slot];
+                }
+            }
+            int legalMoves = 0;
+            int movesInTable = 0;
+            boolean winningExit = false;
+            boolean drawingExit = false;
+            for (int slot = 0; slot < count && !winningExit; slot++) {
+                if (getColor(slot) != player) {
+                    continue;
+                }
+                int origin = squares[slot];
+                long destinations = getDestinations(slot, squares, occupied, own);
+                while (destinations != 0 && !winningExit) {
+                    int destination = Long.numberOfTrailingZeros(destinations);
+                    destinations &= destinations - 1;
+                    int capturedSlot = -1;
+                    for (int other = 0; other < count; other++) {
+                        if (squares[other] == destination && getColor(other) == opponent) {
+                            capturedSlot = other;
+                        }
+                    }
+                    squares[slot] = destination;
+                    long occupiedAfterMove = (occupied & ~(1L << origin)) | (1L << destination);
+                    boolean moveIsLegal = !isAttacked(squares[kingSlot], opponent, squares, capturedSlot, occupiedAfterMove);
+                    boolean promotion = Chessboard.getPieceType(pieceTypeColors[slot]) == Chessboard.PAWN && (destination < 8 || destination >= 56);
+                    if (moveIsLegal) {
+                        legalMoves++;
+                        if (capturedSlot < 0 && !promotion) {
+                            movesInTable++;
+                        }
+                        else {
+                            // the move leaves the table: look up the resulting position in the smaller bitbase
+                            for (int promotionType : promotion ? PROMOTIONS : new int[] { Chessboard.PAWN }) {
+                                int childCount = 0;
+                                for (int other = 0; other < count; other++) {
+                                    if (other != capturedSlot) {
+                                        childPieceTypeColors[childCount] = (other == slot && promotion) ? promotionType + player : pieceTypeColors[other];
+                                        childSerials[childCount] = squares[other];
+                                        childCount++;
+                                    }
+                                }
+                                int childResult = bitbases.probe(childPieceTypeColors, childSerials, childCount, opponent);
+                                if (childResult == Bitbases.LOSS) {
+                                    winningExit = true;
+                                }
+                                else if (childResult == Bitbases.DRAW) {
+                                    drawingExit = true;
+                                }
+                                else if (childResult != Bitbases.WIN) {
+                                    throw new IllegalStateException("Cannot probe " + Bitbases.getSignature(childPieceTypeColors, childCount)
+                                                                    + " from " + signature);
+                                }
+                            }
+                        }
+                    }
+                    squares[slot] = origin;
+                }
+            }
+
+            if (winningExit) {
+                states[index] = Bitbases.WIN;
+                decided.increment();
+            }
+            else if (legalMoves == 0) {
+                if (isAttacked(squares[kingSlot], opponent, squares, -1, occupied)) {
+                    states[index] = Bitbases.LOSS;  // checkmate
+                    decided.increment();
+                }
+                else {
+                    states[index] = Bitbases.DRAW;  // stalemate
+                }
+            }
+            else if (movesInTable == 0) {
+                if (drawingExit) {
+                    states[index] = Bitbases.DRAW;
+                }
+                else {
+                    states[index] = Bitbases.LOSS;
+                    decided.increment();
+                }
+            }
+            else {
+                states[index] = drawingExit ? UNDECIDED_WITH_DRAWING_EXIT : UNDECIDED;
+                counters[index] = (byte) movesInTable;
+                decidedPasses[index] = NOT_DECIDED;
+            }
+        }
+    }
+
+    /**
+     * Decides the predecessors of the positions decided in the previous pass
+     * @param start The first index
+     * @param end   The index after the last
+     * @param squares   Scratch array for the squares of a position
+     * @param previousPass  The pass whose decided positions to process
+     * @param currentPass   The pass in which predecessors are decided
+     */
+    private void propagate(int start, int end, int squares[], int previousPass, int currentPass) {
+        for (int index = start; index < end; index++) {
+            byte state = states[index];
+            if ((state != Bitbases.WIN && state != Bitbases.LOSS) || decidedPasses[index] != previousPass) {
+                continue;
+            }
+            int mover = 1 - decode(index, squares);  // the player who made the last move
+            long occupied = getOccupied(squares);
+            for (int slot = 0; slot < count; slot++) {
+                if (getColor(slot) != mover) {
+                    continue;
+                }
+                int destination = squares[slot];
+                long origins;
+                if (Chessboard.getPieceType(pieceTypeColors[slot]) == Chessboard.PAWN) {
+                    // pawns are unmade one square back, or two from the fourth rank; a pawn cannot have come from its first rank
+                    int backward = (mover == Chessboard.WHITE) ? -8 : 8;
+                    int relativeRank = (mover == Chessboard.WHITE) ? destination >>> 3 : 7 - (destination >>> 3);
+                    origins = 0;
+                    if (relativeRank >= 2 && (occupied & (1L << (destination + backward))) == 0) {
+                        origins |= 1L << (destination + backward);
+                        if (relativeRank == 3 && (occupied & (1L << (destination + 2 * backward))) == 0) {
+                            origins |= 1L << (destination + 2 * backward);
+                        }
+                    }
+                }
+                else {
+                    origins = getAttacks(pieceTypeColors[slot], destination, occupied) & ~occupied;
+                }
+                while (origins != 0) {
+                    squares[slot] = Long.numberOfTrailingZeros(origins);
+                    origins &= origins - 1;
+                    int predecessor = Bitbases.getTableIndex(squares, count, mover);
+                    if (state == Bitbases.LOSS) {
+                        decide(predecessor, Bitbases.WIN, currentPass);
+                    }
+                    else if (states[predecessor] >= UNDECIDED && decrementCounter(predecessor) == 0) {
+                        // the last move in the table was shown to lead to a won position
+                        if (!decide(predecessor, Bitbases.LOSS, currentPass)) {
+                            BYTES.compareAndSet(states, predecessor, UNDECIDED_WITH_DRAWING_EXIT, (byte) Bitbases.DRAW);
+                        }
+                    }
+                }
+                squares[slot] = destination;
+            }
+        }
+    }
+
+    /**
+     * Atomically decrements the counter of a position.  A compare and set loop is used, since getAndAdd on byte array elements
+     * returns wrong values once compiled on some JDK 17 builds.
+     * @param index The index of the position
+     * @return  The decremented counter
+     */
+    private int decrementCounter(int index) {
+        byte counter;
+        do {
+            counter = (byte) BYTES.getVolatile(counters, index);
+        } while (!BYTES.compareAndSet(counters, index, counter, (byte) (counter - 1)));
+        return counter - 1;
+    }
+
+    /**
+     * Decides an undecided position as won or lost.  A position to be lost whose moves include a drawing exit is left undecided.
+     * @param index The index of the position
+     * @param state Either WIN or LOSS
+     * @param pass  The current pass
+     * @return  True if the position was decided
+     */
+    private boolean decide(int index, int state, int pass) {
+        if (BYTES.compareAndSet(states, index, UNDECIDED, (byte) state)
+                || (state == Bitbases.WIN && BYTES.compareAndSet(states, index, UNDECIDED_WITH_DRAWING_EXIT, (byte) state))) {
+            decidedPasses[index] = (short) pass;
+            decided.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the table being generated to its file, undecided positions as draws
+     * @throws IOException  If the file cannot be written
+     */
+    private void write() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Bitbases.HEADER_BYTES + Bitbases.getFileDataBytes(count)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(Bitbases.MAGIC).putInt(Bitbases.VERSION).putInt(count).putInt(0);
+        pool.invoke(new RangeTask(0, Bitbases.getFileDataBytes(count), (start, end, squares) -> {
+            for (int i = start; i < end; i++) {
+                int packed = 0;
+                for (int j = 0; j < 4; j++) {
+                    int state = states[i * 4 + j];
+                    packed |= ((state >= UNDECIDED) ? Bitbases.DRAW : state) << (j * 2);
+                }
+                buffer.put(Bitbases.HEADER_BYTES + i, (byte) packed);
+            }
+        }));
+        buffer.position(0);
+        File directory = bitbases.getDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File file = bitbases.getFile(signature);
+        File temporaryFile = new File(directory, signature + ".tmp");  // renamed when complete, so that a partial file is never probed
+        try (FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + temporaryFile + " to " + file);
+        }
+    }
+
+    /**
+     * Gets the signatures of all bitbases of three and four pieces
+     * @return  The signatures, smaller ones first
+     */
+    public static ArrayList<String> getAllSignatures() {
+        ArrayList<String> signatures = new ArrayList<>();
+        String pieces = "QRBNP";
+        for (int i = 0; i < pieces.length(); i++) {
+            signatures.add("K" + pieces.charAt(i) + "K");
+        }
+        for (int i = 0; i < pieces.length(); i++) {
+            for (int j = i; j < pieces.length(); j++) {
+                signatures.add("K" + pieces.charAt(i) + pieces.charAt(j) + "K");
+                signatures.add("K" + pieces.charAt(i) + "K" + pieces.charAt(j));
+            }
+        }
+        return signatures;
+    }
+
+    /**
+     * Shuts down the threads
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public static void main(String[] args) throws IOException {
+        File directory = Bitbases.DEFAULT_DIRECTORY;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> signatures = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-directory")) {
+                directory = new File(args[++i]);
+            }
+            else {
+                signatures.add(args[i].toUpperCase());
+            }
+        }
+        if (signatures.isEmpty()) {
+            signatures = getAllSignatures();
+        }
+        BitbaseGenerator generator = new BitbaseGenerator(directory, threads);
+        try {
+            for (String signature : signatures) {
+                if (!generator.bitbases.getFile(signature).isFile()) {
+                    generator.generate(signature);
+                }
+            }
+        }
+        finally {
+            generator.shutdown();
+        }
+    }
+}
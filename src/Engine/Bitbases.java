@@ -0,0 +1,290 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.ChessApplication.Square;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A directory of win/draw/loss endgame bitbases, one file per material signature, generated by BitbaseGenerator and read through
+ * memory-mapped files.  Each file is named by its signature, such as KQKR.bb: the side with the stronger pieces (see getStrongerColor)
+ * plays white in the table, its king and pieces first, then the other king and pieces.  A position is indexed by the side to move,
+ * the square of the stronger king, restricted to files a to d by mirroring the board horizontally, and the squares of the other
+ * pieces in that order; each position takes 2 bits.  Castling and en passant are not represented, so positions where either is
+ * possible are not probed.  Files are mapped on first use, and a signature without a file is remembered as missing.
+ * @author Christopher Stieg
+ */
+public class Bitbases {
+    public static final int MAX_PIECES = 4;  // the most pieces, kings included, of any signature generated
+    public static final File DEFAULT_DIRECTORY = new File("resources", "bitbases");
+    public static final String FILE_EXTENSION = ".bb";
+    // probe results, from the perspective of the player to move; DRAW, WIN, LOSS and ILLEGAL are also the 2 bit codes in the files
+    public static final int UNKNOWN = -1;
+    public static final int DRAW = 0;
+    public static final int WIN = 1;
+    public static final int LOSS = 2;
+    public static final int ILLEGAL = 3;  // the side not to move is in check, or two pieces share a square
+    static final int MAGIC = 0x31424243;  // "CBB1" in a little-endian file
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;  // magic, version, piece count, reserved
+    private static final String PIECE_LETTERS = "KQRBNP";  // by piece type / 2
+    private static final long CASTLING_ROOKS[][] = { { 0x0000000000000080L, 0x0000000000000001L },  // by color, kingside then queenside
+                                                     { 0x8000000000000000L, 0x0100000000000000L } };
+    private static final ByteBuffer MISSING = ByteBuffer.allocate(0);
+
+    private final File directory;
+    private final ConcurrentHashMap<String, ByteBuffer> tables = new ConcurrentHashMap<>();  // by signature
+
+    /**
+     * Constructor for Bitbases
+     * @param directory The directory holding the bitbase files
+     */
+    public Bitbases(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the directory holding the bitbase files
+     * @return  The directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Probes the bitbase of a board's material signature
+     * @param board The board
+     * @return  WIN, DRAW or LOSS for the player to move, or UNKNOWN if the board has too many pieces, castling or en passant is
+     *          possible, or the bitbase file is missing
+     */
+    public int probe(Chessboard board) {
+        long allPieces = board.getAllPieces();
+        int count = Long.bitCount(allPieces);
+        if (count > MAX_PIECES || board.lastMoveIsDoublePawnPush() || hasCastlingRights(board)) {
+            return UNKNOWN;
+        }
+        int pieceTypeColors[] = new int[count];
+        int serials[] = new int[count];
+        int piece = 0;
+        for (int pieceTypeColor = Chessboard.KING; pieceTypeColor <= Chessboard.PAWN + Chessboard.BLACK; pieceTypeColor++) {
+            long pieceSet = board.getPieceSet(pieceTypeColor);
+            while (pieceSet != 0) {
+                pieceTypeColors[piece] = pieceTypeColor;
+                serials[piece] = Square.toSerial(pieceSet);
+                piece++;
+                pieceSet &= pieceSet - 1;
+            }
+        }
+        return probe(pieceTypeColors, serials, count, board.getCurrentPlayer());
+    }
+
+    /**
+     * Probes the bitbase of a position given as a list of pieces
+     * @param pieceTypeColors   The piece of each entry, the sum of the constants for piece type and color (see Chessboard)
+     * @param serials   The square of each entry
+     * @param count The number of pieces, kings included
+     * @param player    The player to move, either the constant WHITE or BLACK
+     * @return  WIN, DRAW, LOSS or ILLEGAL for the player to move, or UNKNOWN if the bitbase file is missing
+     */
+    public int probe(int pieceTypeColors[], int serials[], int count, int player) {
+        if (count == 2) {
+            return DRAW;  // bare kings
+        }
+        ByteBuffer table = tables.computeIfAbsent(getSignature(pieceTypeColors, count), this::map);
+        if (table == MISSING) {
+            return UNKNOWN;
+        }
+        int index = getIndex(pieceTypeColors, serials, count, player);
+        return (table.get(HEADER_BYTES + (index >>> 2)) >>> ((index & 3) * 2)) & 3;
+    }
+
+    /**
+     * Checks whether either player may still castle, a king and rook not having moved from their squares
+     * @param board The board
+     * @return  True if castling rights remain
+     */
+    private static boolean hasCastlingRights(Chessboard board) {
+        for (int color = Chessboard.WHITE; color <= Chessboard.BLACK; color++) {
+            for (int side = 0; side < 2; side++) {
+                if (!board.castlePiecesHaveMoved(color, side) && (board.getPieceSet(Chessboard.ROOK + color) & CASTLING_ROOKS[color][side]) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Maps the bitbase file of a signature
+     * @param signature The signature, such as KQKR
+     * @return  The mapped file after checking its header and size, or MISSING if there is no valid file
+     */
+    private ByteBuffer map(String signature) {
+        File file = getFile(signature);
+        if (!file.isFile()) {
+            return MISSING;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            int count = signature.length();
+            if (buffer.limit() != HEADER_BYTES + getFileDataBytes(count) || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != count) {
+                System.err.println("Invalid bitbase file " + file);
+                return MISSING;
+            }
+            return buffer;
+        }
+        catch (IOException ioe) {
+            System.err.println("Error mapping bitbase file " + file);
+            return MISSING;
+        }
+    }
+
+    /**
+     * Gets the file of a signature
+     * @param signature The signature, such as KQKR
+     * @return  The file in the directory
+     */
+    public File getFile(String signature) {
+        return new File(directory, signature + FILE_EXTENSION);
+    }
+
+    /**
+     * Gets the color whose pieces head the signature of a position: the side with more pieces, or with the same number, the side
+     * whose pieces in order from queen to pawn first outrank the other's.  White if the pieces are the same.
+     * @param pieceTypeColors   The piece of each entry, the sum of the constants for piece type and color (see Chessboard)
+     * @param count The number of pieces
+     * @return  The stronger color, either the constant WHITE or BLACK
+     */
+    public static int getStrongerColor(int pieceTypeColors[], int count) {
+        int pieceTypeCounts[] = new int[12];
+        for (int i = 0; i < count; i++) {
+            pieceTypeCounts[pieceTypeColors[i]]++;
+        }
+        int whitePieces = 0;
+        int blackPieces = 0;
+        for (int pieceType = Chessboard.QUEEN; pieceType <= Chessboard.PAWN; pieceType += 2) {
+            whitePieces += pieceTypeCounts[pieceType + Chessboard.WHITE];
+            blackPieces += pieceTypeCounts[pieceType + Chessboard.BLACK];
+        }
+        if (whitePieces != blackPieces) {
+            return (whitePieces > blackPieces) ? Chessboard.WHITE : Chessboard.BLACK;
+        }
+        for (int pieceType = Chessboard.QUEEN; pieceType <= Chessboard.PAWN; pieceType += 2) {
+            if (pieceTypeCounts[pieceType + Chessboard.WHITE] != pieceTypeCounts[pieceType + Chessboard.BLACK]) {
+                return (pieceTypeCounts[pieceType + Chessboard.WHITE] > pieceTypeCounts[pieceType + Chessboard.BLACK]) ? Chessboard.WHITE : Chessboard.BLACK;
+            }
+        }
+        return Chessboard.WHITE;
+    }
+
+    /**
+     * Gets the signature of a position: the stronger side's pieces then the other side's, each from king to pawn
+     * @param pieceTypeColors   The piece of each entry, the sum of the constants for piece type and color (see Chessboard)
+     * @param count The number of pieces
+     * @return  The signature, such as KQKR
+     */
+    public static String getSignature(int pieceTypeColors[], int count) {
+        int strongerColor = getStrongerColor(pieceTypeColors, count);
+        StringBuilder signature = new StringBuilder();
+        for (int color : new int[] { strongerColor, 1 - strongerColor }) {
+            for (int pieceType = Chessboard.KING; pieceType <= Chessboard.PAWN; pieceType += 2) {
+                for (int i = 0; i < count; i++) {
+                    if (pieceTypeColors[i] == pieceType + color) {
+                        signature.append(PIECE_LETTERS.charAt(pieceType / 2));
+                    }
+                }
+            }
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Gets the pieces of a signature in table order, the stronger side playing white
+     * @param signature The signature, such as KQKR
+     * @return  The piece of each slot, the sum of the constants for piece type and color (see Chessboard)
+     */
+    public static int[] getPieceTypeColors(String signature) {
+        int pieceTypeColors[] = new int[signature.length()];
+        int color = Chessboard.BLACK;
+        for (int slot = 0; slot < signature.length(); slot++) {
+            int pieceType = PIECE_LETTERS.indexOf(signature.charAt(slot)) * 2;
+            if (pieceType < 0 || (slot == 0 && pieceType != Chessboard.KING)) {
+                throw new IllegalArgumentException("Invalid signature " + signature);
+            }
+            if (pieceType == Chessboard.KING) {
+                color = 1 - color;
+            }
+            pieceTypeColors[slot] = pieceType + color;
+        }
+        if (color != Chessboard.BLACK || !signature.equals(getSignature(pieceTypeColors, pieceTypeColors.length))) {
+            throw new IllegalArgumentException("Invalid signature " + signature);
+        }
+        return pieceTypeColors;
+    }
+
+    /**
+     * Gets the index of a position given as a list of pieces in its bitbase
+     * @param pieceTypeColors   The piece of each entry, the sum of the constants for piece type and color (see Chessboard)
+     * @param serials   The square of each entry
+     * @param count The number of pieces
+     * @param player    The player to move, either the constant WHITE or BLACK
+     * @return  The index
+     */
+    public static int getIndex(int pieceTypeColors[], int serials[], int count, int player) {
+        int strongerColor = getStrongerColor(pieceTypeColors, count);
+        int orientation = (strongerColor == Chessboard.WHITE) ? 0 : 56;  // the board is mirrored vertically if black is stronger
+        int slotSerials[] = new int[count];
+        int slot = 0;
+        for (int color : new int[] { strongerColor, 1 - strongerColor }) {
+            for (int pieceType = Chessboard.KING; pieceType <= Chessboard.PAWN; pieceType += 2) {
+                for (int i = 0; i < count; i++) {
+                    if (pieceTypeColors[i] == pieceType + color) {
+                        slotSerials[slot++] = serials[i] ^ orientation;
+                    }
+                }
+            }
+        }
+        return getTableIndex(slotSerials, count, (player == strongerColor) ? Chessboard.WHITE : Chessboard.BLACK);
+    }
+
+    /**
+     * Gets the index of a position in table order, the stronger side playing white
+     * @param slotSerials   The square of each slot
+     * @param count The number of pieces
+     * @param sideToMove    The player to move in the table, either the constant WHITE or BLACK
+     * @return  The index
+     */
+    static int getTableIndex(int slotSerials[], int count, int sideToMove) {
+        int mirror = (slotSerials[0] & 4) != 0 ? 7 : 0;  // mirrors the files if the stronger king is on files e to h
+        int kingSerial = slotSerials[0] ^ mirror;
+        int index = sideToMove * 32 + (kingSerial >>> 3) * 4 + (kingSerial & 3);
+        for (int slot = 1; slot < count; slot++) {
+            index = index * 64 + (slotSerials[slot] ^ mirror);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the number of positions in a bitbase
+     * @param count The number of pieces
+     * @return  The number of positions
+     */
+    static int getTableSize(int count) {
+        return 64 << (6 * (count - 1));
+    }
+
+    /**
+     * Gets the number of bytes of a bitbase file after the header
+     * @param count The number of pieces
+     * @return  The number of bytes, at 2 bits per position
+     */
+    static int getFileDataBytes(int count) {
+        return getTableSize(count) / 4;
+    }
+}
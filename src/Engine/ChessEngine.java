@@ -12,6 +12,7 @@
 
 package com.circumspectus.Engine;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import com.circumspectus.ChessApplication.*;
 import com.circumspectus.PGN.PGNGame;
@@ -20,178 +21,120 @@ import com.circumspectus.PGN.MoveResults;
 import com.circumspectus.Engine.TranspositionFields.TypeOfScore;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * A chess engine to generate optimal moves given a present board.  
  * Uses alpha beta pruning within the negamax framework (depth first).
  * Uses iterative deepening for optimal move ordering, and to return a best move at the end of a specified time period or after an interrupt
  * Utilizes killer move table and transposition tables for optimal move ordering.
- * Includes quiescence search.
+ * Includes quiescence search, and extends checks and singular moves (within a budget per search path).
+ * Searches run either synchronously through getNextMove, or asynchronously through search on the engine's own search thread, or
+ * on the shared threads of the EnginePool the engine was leased from; one search runs at a time, and a search started while
+ * another runs waits for it to finish.
+ * While the opponent thinks, the engine can ponder: search the position after the expected reply without a time limit, switching
+ * to the normal time control on a ponder hit, or being stopped on a miss.
+ * In multi-PV mode, each iteration searches the root once for each of the best N moves, excluding the moves already found, so
+ * that every line is searched with a full window and gets an exact score.
+ * In deterministic mode, searches are reproducible: each starts from empty tables and stops on its node or depth limit alone,
+ * never on the clock, so that the same position and settings give the same best move, score and node count on any machine.
+ * In infinite analysis, the engine publishes snapshots of its progress to the subscribers of a SearchProgressPublisher, after
+ * each iteration and periodically during one, until it is stopped.
+ * A trace of the search, with the score of each root move, can be written to a stream set by setTrace; it is off by default.
  * @author Christopher Stieg
  */
 public class ChessEngine {
     private boolean displaySearchBoard;
-    private final ZobristBoard board;  // the main game board
+    private PrintStream trace;  // receives the trace of the searches, or null if it is off
+    private ZobristBoard board;  // the main game board
     private ZobristBoard searchBoard; // a board on which to perform searches
+    private ZobristBoard rootBoard;  // the position at the root of the current search: the game board, or a copy of it after the expected reply when pondering
     private final static int INITIAL_DEPTH = 2;  // initial search depth in iterative deepening
     final static int DEPTH = 40; // search depth in ply
     private final static int ADDITIONAL_DEPTH_FOR_QUIESCENCE = 4; 
+    private final static int MAX_CHECK_EXTENSIONS = 4;  // maximum number of check extensions along a single search path
+    private final static int MAX_SINGULAR_EXTENSIONS = 2;  // maximum number of singular extensions along a single search path
+    private final static int SINGULAR_EXTENSION_MIN_DEPTH = 4;  // minimum remaining depth in ply at which the singular extension test is made
+    private final static int SINGULAR_EXTENSION_TT_DEPTH_MARGIN = 3;  // the transposition entry may be this many ply shallower than the remaining depth
+    private final static int SINGULAR_MARGIN_PER_PLY = 8;  // margin in centipawns per ply of remaining depth by which the best move must beat all alternatives
     private final int allowedProcessingTime = 30 * 1000;
-    private boolean interrupted;  // true causes engine to cascade down and return the next move immediately
-    private boolean running;  // true while the engine is running, used to verify that the engine is not running before it is used for idle time processing
+    private int multiPV = 1;  // number of best root moves for which a principal variation is found
+    private boolean openingBookEnabled = true;  // if false, every move is searched, even in positions of the opening book
+    private boolean deterministic;  // if true, searches start from empty tables and ignore time limits, so that their results are reproducible
+    private List<Move> searchMoves;  // the root moves to which searches are restricted, or null to search them all
+    private int rootLowerBound = Integer.MIN_VALUE + 1;  // the score a restricted search must exceed; lesser scores are only upper bounds
+    private final static int TIME_CHECK_INTERVAL_MASK = 2048 - 1;  // the clock and interrupt flag are polled once every 2048 nodes
+    private volatile StopToken stopToken = new StopToken();  // the token of the current search; stopping it causes the engine to cascade down and return the next move immediately
+    private volatile boolean running;  // true while the engine is running, used to verify that the engine is not running before it is used for idle time processing
+    private boolean stopped;  // set by the search thread when polling finds the time is up or the engine has been interrupted
+    private long nodes;  // number of nodes searched in the current search
+    private long nodeLimit;  // number of nodes after which the current search stops
+    private final static long UNLIMITED_TIME = Long.MAX_VALUE / 1000;  // time limit in milliseconds of searches without one; small enough for the arithmetic of TimeManager
+    private final Executor searchExecutor;  // runs asynchronous searches: the engine's own thread, or a thread of an EnginePool
+    private final Executor backgroundExecutor;  // runs ponder and idle time searches, which may run until stopped
+    private TimeManager timeManager;
+    private volatile TimeManager ponderTimeManager;  // the time manager of the latest ponder search, switched to the normal time control by ponderHit
+    private final static int PROGRESS_INTERVAL = 250;  // milliseconds between progress snapshots published during an iteration
+    private SearchProgressPublisher progressPublisher;  // publishes the progress of the current search, or null
+    private long lastProgressTime;  // elapsed time in milliseconds at which progress was last published
+    private int selectiveDepth;  // the greatest depth in ply reached in the current search
+    private int progressDepth;  // the depth of the last completed iteration of the current search
+    private int progressScore;  // the score of the last completed iteration of the current search
+    private List<PrincipalVariation> progressPrincipalVariations;  // the lines of the last completed iteration of the current search
     
     private final static double DRAW_MULTIPLIER = 0.45;  // the fraction of a win that a draw is considered.  If set at 0.5, a record of 10W 10L 10D would be considered just as desirable
     // as 15W 15L 0D.  The lower the multiplier is set, the more the AI plays aggressively to win while risking losses, rather than
     // playing safe.  Could be set higher to play for a win or a draw against higher ranked opponents, or set lower against
     // lower ranked opponents.
+    final static int CHECKMATE_VALUE = 1000000;  // the score of being checkmated is -CHECKMATE_VALUE plus the ply from the root at which it occurs
+    final static int CHECKMATE_THRESHOLD = CHECKMATE_VALUE - 1000;  // scores beyond this magnitude are checkmate scores (more than the greatest possible search depth)
     private final static int DRAW_VALUE = -400;  // the relative evaluation of a draw.  Set below 0 to encourage aggressive play, possibly set above 0 when playing against a higher rated opponent, or 
                                                  // in a match when only a draw is needed
-    private final static int MOBILITY_MULTIPLIER = 5; // value in centipawns per number of possibles moves
-    private final static int CONNECTIVITY_MULTIPLIER = 4;  // additional value for defending one's own pieces
-    private final static int ATTACK_MULTIPLIER = 5;  // additional value for attacking enemy pieces
-    private final static int CENTER4_MULTIPLIER = 4; // bonus per square for controlling center 4 squares
-    private final static int CENTER16_MULTIPLIER = 2; // bonus per square for controlling center 16 squares
+    private final static int BITBASE_WIN_VALUE = 100000;  // the score of a position won according to the bitbases, before the static evaluation is added to make progress
+    final static int MOBILITY_MULTIPLIER = 5; // value in centipawns per number of possibles moves
+    final static int KING_SAFETY_WEIGHT = 6;  // multiplier of the king safety terms
+    private final static int WEIGHT_SCALE = 1000000;  // fractional weights are given in millionths of a centipawn
+    // additional value per supported piece, by piece type: 4 centipawns times (1 + log10(pieceType + 2)), so lesser value pieces have higher bonuses for supporting
+    private final static int CONNECTIVITY_WEIGHTS[] = { 5204120, 6408240, 7112605, 7612360, 8000000, 8316725 };
+    // additional value per attacked enemy piece, by piece type: 5 centipawns times (1 + log10(pieceType + 2))
+    private final static int ATTACK_WEIGHTS[] = { 6505150, 8010300, 8890756, 9515450, 10000000, 10395906 };
+    final static int CENTER4_MULTIPLIER = 4; // bonus per square for controlling center 4 squares
+    final static int CENTER16_MULTIPLIER = 2; // bonus per square for controlling center 16 squares
+    private final static int LAZY_EVALUATION_MARGIN = 1000; // the most that the terms after the cheap terms of evaluateBoard are assumed to move the score; under 900 in the checks of EvaluationBenchmark
     private BoardRenderer searchBoardRenderer;  // a renderer to draw the search board for debugging purposes
     private final KillerMoveHistoryTable killerMoveHistoryTable;  // keeps a count of how many times each moves causes a cutoff in alpha-beta
     private final MoveComparator moveComparator;  
     private final MoveComparator moveComparatorNoHistory;  // comparator used for move ordering in quiescence, which doesn't take into account killer moves, since captures are not included in the killer move table
-    private final TranspositionTable transpositionTable;  // stores results of each board position generated by search
+    private TranspositionTable transpositionTable;  // stores results of each board position generated by search
+    private final PawnHashTable pawnHashTable;  // stores pawn structure evaluations by the pawn hash value of the board
+    private EvaluationCache evaluationCache;  // stores static evaluations by the hash value of the board
+    private NeuralNetwork neuralNetwork;  // evaluates the search board instead of evaluateBoard if not null
+    private Bitbases bitbases;  // decides endings of few pieces in the search, if not null
     private TranspositionFields transpositionFields;  // return tuple for transposition table
     private final static int ACCEPTABLE_LOSS_OF_DEPTH_IN_TRANSPOSITION = 0;
     
-    private static final int DOUBLE_BISHOP_BONUS = 50; 
-    private static final int DOUBLED_PAWN_PENALTY = 47;
-    private static final int ISOLATED_PAWN_PENALTY = 24;
-    private static final int PASSED_PAWN_BONUS = 150;
-    private static final int PAWN_SHIELD_BONUS = 15;
-    private static final int SQUARE_ADJACENT_TO_KING_ATTACKED_PENALTY = 10;
-    private static final int BOTH_CASTLING_RIGHTS_VALUE = 25;
-    private static final int ONE_CASTLING_RIGHTS_VALUE = 20;
-
-    // bonuses by piece/square to encourage good piece placement and pawn advancement
-    private static final int WHITE_PAWN_BONUSES[] =  {  0,  0,  0,  0,  0,  0,  0,  0,
-                                                        5,  10, 10, -20,-20,10, 10, 5,
-                                                        0,  -5, -10,0,  0,  -10,-5, 0,
-                                                        0,  0,  7,  20, 20, 7,  0,  0,
-                                                        25, 25, 30, 50, 50, 30, 25, 25,
-                                                        75, 75, 100,125,125,100,75, 75,
-                                                        230,230,230,230,230,230,230,230,
-                                                        0,  0,  0,  0,  0,  0,  0,  0 };
-                                                        
-    private static final int BLACK_PAWN_BONUSES[] =  {  0,  0,  0,  0,  0,  0,  0,  0,
-                                                        230,230,230,230,230,230,230,230,
-                                                        75, 75, 100,125,125,100,75, 75,
-                                                        25, 25, 30, 50, 50, 30, 25, 25,
-                                                        0,  0,  7,  20, 20, 7,  0,  0,
-                                                        0,  -5, -10,0,  0,  -10,-5, 0,
-                                                        5,  10, 10, -20,-20,10, 10, 5,
-                                                        0,  0,  0,  0,  0,  0,  0,  0 };
+    static final int DOUBLE_BISHOP_BONUS = 50; 
+    static final int DOUBLED_PAWN_PENALTY = 47;
+    static final int ISOLATED_PAWN_PENALTY = 24;
+    static final int PASSED_PAWN_BONUS = 150;
+    static final int PAWN_SHIELD_BONUS = 15;
+    static final long ADJACENT_FILES[] = { 0x0202020202020202L, 0x0505050505050505L, 0x0A0A0A0A0A0A0A0AL, 0x1414141414141414L,
+                                                   0x2828282828282828L, 0x5050505050505050L, 0xA0A0A0A0A0A0A0A0L, 0x4040404040404040L };
+    static final int SQUARE_ADJACENT_TO_KING_ATTACKED_PENALTY = 10;
+    static final int BOTH_CASTLING_RIGHTS_VALUE = 25;
+    static final int ONE_CASTLING_RIGHTS_VALUE = 20;
     
-    private static final int WHITE_KNIGHT_BONUSES[] = { -50,-40,-30,-30,-30,-30,-40,-50,
-                                                        -40,-20,0,  5,  5,  0,  -20,-40,
-                                                        -30,5,  10, 15, 15, 10, 5,  -30,
-                                                        -30,0,  15, 20, 20, 15, 0,  -30,
-                                                        -30,5,  15, 20, 20, 15, 5,  -30,
-                                                        -30,0,  10, 15, 15, 10, 0,  -30,
-                                                        -40,-20,0,  0,  0,  0,  -20,-40,
-                                                        -50,-40,-30,-30,-30,-30,-40,-50 };
-    
-    private static final int BLACK_KNIGHT_BONUSES[] = { -50,-40,-30,-30,-30,-30,-40,-50,
-                                                        -40,-20,0,  0,  0,  0,  -20,-40,
-                                                        -30,0,  10, 15, 15, 10, 0,  -30,
-                                                        -30,5,  15, 20, 20, 15, 5,  -30,
-                                                        -30,0,  15, 20, 20, 15, 0,  -30,
-                                                        -30,5,  10, 15, 15, 10, 5,  -30,
-                                                        -40,-20,0,  5,  5,  0,  -20,-40,
-                                                        -50,-40,-30,-30,-30,-30,-40,-50 };
-                                                    
-    private static final int WHITE_BISHOP_BONUSES[] = { -20,-15,-15,-15,-15,-15,-15,-20,
-                                                        -10,  5,  0,  0,  0,  0,  5,-10,
-                                                        -10, 10, 10, 10, 10, 10, 10,-10,
-                                                        -10,  0, 10, 10, 10, 10,  0,-10,
-                                                        -10,  5,  5, 10, 10,  5,  5,-10,
-                                                        -10,  0,  5, 10, 10,  5,  0,-10,
-                                                        -10,  0,  0,  0,  0,  0,  0,-10,
-                                                        -20,-15,-10,-10,-10,-10,-10,-20 };
-    
-    private static final int BLACK_BISHOP_BONUSES[] = { -20,-10,-10,-10,-10,-10,-10,-20,
-                                                        -10,  0,  0,  0,  0,  0,  0,-10,
-                                                        -10,  0,  5, 10, 10,  5,  0,-10,
-                                                        -10,  5,  5, 10, 10,  5,  5,-10,
-                                                        -10,  0, 10, 10, 10, 10,  0,-10,
-                                                        -10, 10, 10, 10, 10, 10, 10,-10,
-                                                        -10,  5,  0,  0,  0,  0,  5,-10,
-                                                        -20,-15,-15,-15,-15,-15,-15,-20 };
-    
-    private static final int WHITE_ROOK_BONUSES[] = {   0,  0,  0,  5,  5,  0,  0,  0, 
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                       5, 10, 10, 10, 10, 10, 10,  5,
-                                                       0,  0,  0,  0,  0,  0,  0,  0 } ;
-    
-    private static final int BLACK_ROOK_BONUSES[] = {   0,  0,  0,  0,  0,  0,  0,  0,
-                                                        5, 10, 10, 10, 10, 10, 10,  5,
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                       -5,  0,  0,  0,  0,  0,  0, -5,
-                                                        0,  0,  0,  5,  5,  0,  0,  0 };
-    
-    private static final int WHITE_QUEEN_BONUSES[] = {  -20,-10,-10, -5, -5,-10,-10,-20,
-                                                        -10, 0,  5,  0,  0,  0,  0,-10,
-                                                        -10, 5,  5,  5,  5,  5,  0,-10,
-                                                        0,   0,  5,  5,  5,  5,  0, -5,
-                                                        -5,  0,  5,  5,  5,  5,  0, -5,
-                                                        -10,  0,  5,  5,  5,  5,  0,-10,
-                                                        -10,  0,  0,  0,  0,  0,  0,-10,
-                                                        -20,-10,-10, -5, -5,-10,-10,-20  };
-    
-    private static final int BLACK_QUEEN_BONUSES[] = {  -20,-10,-10, -5, -5,-10,-10,-20,
-                                                        -10,  0,  0,  0,  0,  0,  0,-10,
-                                                        -10,  0,  5,  5,  5,  5,  0,-10,
-                                                         -5,  0,  5,  5,  5,  5,  0, -5,
-                                                          0,  0,  5,  5,  5,  5,  0, -5,
-                                                        -10,  5,  5,  5,  5,  5,  0,-10,
-                                                        -10,  0,  5,  0,  0,  0,  0,-10,
-                                                        -20,-10,-10, -5, -5,-10,-10,-20 };
-
-    private static final int WHITE_KING_BONUSES[] = {   15, 30, 10,  0,  0, 30, 20, 15,
-                                                        20, 20,  0,  0,  0,  0, 20, 20,
-                                                        -10,-20,-20,-20,-20,-20,-20,-10,
-                                                        -20,-30,-30,-40,-40,-30,-30,-20,
-                                                        -30,-40,-40,-50,-50,-40,-40,-30,
-                                                        -30,-40,-40,-50,-50,-40,-40,-30,
-                                                        -30,-40,-40,-50,-50,-40,-40,-30,
-                                                        -30,-40,-40,-50,-50,-40,-40,-30 };
- 
-    private static final int BLACK_KING_BONUSES[] = {   -30,-40,-40,-50,-50,-40,-40,-30,
-                                                        -30,-40,-40,-50,-50,-40,-40,-30,
-                                                        -30,-40,-40,-50,-50,-40,-40,-30,
-                                                        -30,-40,-40,-50,-50,-40,-40,-30,
-                                                        -20,-30,-30,-40,-40,-30,-30,-20,
-                                                        -10,-20,-20,-20,-20,-20,-20,-10,
-                                                         20, 20,  0,  0,  0,  0, 20, 20,
-                                                         15, 30, 10,  0,  0, 30, 20, 15 };
-    
-    // usage: PIECE_SQUARE_BONUSES[pieceTypeColor][squareSerial]
-    private static final int PIECE_SQUARE_BONUSES[][] = { WHITE_KING_BONUSES,   BLACK_KING_BONUSES,
-                                                          WHITE_QUEEN_BONUSES,  BLACK_QUEEN_BONUSES,
-                                                          WHITE_ROOK_BONUSES,   BLACK_ROOK_BONUSES,
-                                                          WHITE_BISHOP_BONUSES, BLACK_BISHOP_BONUSES,
-                                                          WHITE_KNIGHT_BONUSES, BLACK_KNIGHT_BONUSES,
-                                                          WHITE_PAWN_BONUSES,   BLACK_PAWN_BONUSES };
-    
-    private static final long CASTLED_KING = 0x4600000000000046L;   // castled king for purposes of king safety calculation
+    static final long CASTLED_KING = 0x4600000000000046L;   // castled king for purposes of king safety calculation
                                                                     // includes b rank, though this requires an additional king step.
                                                                     // no need to differentiate between black and white since it would be exceedingly rare for white king to be on the 8th rank behind a still
                                                                     // intact black pawn shield, and vice versa
     
     // by castled king position
-    private static final long PAWN_SHIELD[] = { 0x0000000000000000L, 0x0000000000070700L, 0x00000000000E0E00L, 0x0000000000000000L,
+    static final long PAWN_SHIELD[] = { 0x0000000000000000L, 0x0000000000070700L, 0x00000000000E0E00L, 0x0000000000000000L,
                                                 0x0000000000000000L, 0x0000000000000000L, 0x0000000000E0E000L, 0x0000000000000000L,
                                                 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L,
                                                 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L, 0x0000000000000000L,
@@ -216,12 +159,57 @@ public class ChessEngine {
      * @param searchBoard   An additional Chessboard on which to perform searches
      */
     public ChessEngine(ZobristBoard board, ZobristBoard searchBoard) {
+        this(board, searchBoard, new TranspositionTable());
+    }
+
+    /**
+     * Constructor for ChessEngine
+     * @param board The current Chessboard for which to generate move
+     * @param searchBoard   An additional Chessboard on which to perform searches
+     * @param transpositionTable    The transposition table in which to store search results, sized for the memory available
+     */
+    public ChessEngine(ZobristBoard board, ZobristBoard searchBoard, TranspositionTable transpositionTable) {
+        this(board, searchBoard, transpositionTable, Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Engine search");
+            thread.setDaemon(true);  // an idle engine does not keep the application running
+            return thread;
+        }));
+    }
+
+    /**
+     * Constructor for ChessEngine
+     * @param board The current Chessboard for which to generate move
+     * @param searchBoard   An additional Chessboard on which to perform searches
+     * @param transpositionTable    The transposition table in which to store search results, sized for the memory available
+     * @param searchExecutor    The executor of asynchronous searches, which must run them one at a time in the order started
+     */
+    public ChessEngine(ZobristBoard board, ZobristBoard searchBoard, TranspositionTable transpositionTable, Executor searchExecutor) {
+        this(board, searchBoard, transpositionTable, searchExecutor, searchExecutor);
+    }
+
+    /**
+     * Constructor for ChessEngine, running the searches started by ponder and searchInBackground, which may run until stopped,
+     * apart from the others, such as off a limited number of threads shared with other engines
+     * @param board The current Chessboard for which to generate move
+     * @param searchBoard   An additional Chessboard on which to perform searches
+     * @param transpositionTable    The transposition table in which to store search results, sized for the memory available
+     * @param searchExecutor    The executor of the other asynchronous searches
+     * @param backgroundExecutor    The executor of ponder and background searches.  Together the two executors must run the
+     *                              searches one at a time in the order started.
+     */
+    public ChessEngine(ZobristBoard board, ZobristBoard searchBoard, TranspositionTable transpositionTable, Executor searchExecutor,
+            Executor backgroundExecutor) {
         this.board = board;
         this.searchBoard = searchBoard;
         this.killerMoveHistoryTable = new KillerMoveHistoryTable();
         this.moveComparator = new MoveComparator(killerMoveHistoryTable, true);
         this.moveComparatorNoHistory = new MoveComparator(killerMoveHistoryTable, false);
-        this.transpositionTable = new TranspositionTable();
+        this.transpositionTable = transpositionTable;
+        this.pawnHashTable = new PawnHashTable();
+        this.evaluationCache = new EvaluationCache();
+        this.bitbases = new Bitbases(Bitbases.DEFAULT_DIRECTORY);
+        this.searchExecutor = searchExecutor;
+        this.backgroundExecutor = backgroundExecutor;
         this.running = false;
         this.displaySearchBoard = false;
     }
@@ -243,7 +231,7 @@ public class ChessEngine {
      * Interrupt the board from searching and induce it to return the next move immediately
      */
     public void interrupt() {
-        interrupted = true;
+        stopToken.stop();
     }
     
     /**
@@ -261,59 +249,244 @@ public class ChessEngine {
      * @return A Move object containing the optimal next move
      */
     public Move getNextMove(int allowedProcessingTime) {
-        interrupted = false;
-        running = true;
-        
-        // if guidance from opening database exists, use it
-        Move nextMoveFromDatabase = nextMoveFromDatabase();
-        if (nextMoveFromDatabase != null) {
-            running = false;
-            return nextMoveFromDatabase;
+        SearchLimits limits = SearchLimits.ofTime(allowedProcessingTime);
+        return runSearch(board, createTimeManager(limits, false), limits, new StopToken(), null, null).bestMove;
+    }
+
+    /**
+     * Starts a search of the current board on the engine's search thread.  If a search is running, the new search starts when it
+     * finishes; stop its token first to start promptly.  Cancelling the returned future does not stop the search, the token does.
+     * @param limits    The limits of the search
+     * @param stopToken The token by which the search may be stopped, returning the best move found so far
+     * @param progressCallback  Called on the search thread after each completed iteration, or null
+     * @return  A future completed with the result of the search
+     */
+    public CompletableFuture<SearchResult> search(SearchLimits limits, StopToken stopToken, Consumer<SearchResult> progressCallback) {
+        return CompletableFuture.supplyAsync(() -> runSearch(board, createTimeManager(limits, false), limits, stopToken, progressCallback, null), searchExecutor);
+    }
+
+    /**
+     * Starts a search of a copy of the current board, such as one to fill the transposition table while the user thinks, on the
+     * executor of background searches.  Since the search does not use the game board, the board may change while the search
+     * is stopping.  The opening book is not consulted, and the best move returned is bound to the copy (see ponder).
+     * @param limits    The limits of the search
+     * @param stopToken The token by which the search may be stopped
+     * @param progressCallback  Called on the search thread after each completed iteration, or null
+     * @return  A future completed with the result of the search
+     */
+    public CompletableFuture<SearchResult> searchInBackground(SearchLimits limits, StopToken stopToken, Consumer<SearchResult> progressCallback) {
+        ZobristBoard backgroundBoard = board.getClone();
+        return CompletableFuture.supplyAsync(() -> runSearch(backgroundBoard, createTimeManager(limits, false), limits, stopToken, progressCallback, null), backgroundExecutor);
+    }
+
+    /**
+     * Starts an infinite analysis of the current board on the engine's search thread, which runs until the token is stopped, a
+     * forced mate is found, or the maximum depth is reached.  The opening book is not consulted.  Progress snapshots are published
+     * after each completed iteration, and every PROGRESS_INTERVAL milliseconds during one; the publisher is closed when the
+     * analysis ends, so subscribe to it before calling this.
+     * @param stopToken The token by which the analysis is stopped
+     * @param progressPublisher The publisher of the progress snapshots
+     * @return  A future completed with the result of the analysis
+     */
+    public CompletableFuture<SearchResult> analyze(StopToken stopToken, SearchProgressPublisher progressPublisher) {
+        SearchLimits limits = new SearchLimits(SearchLimits.UNLIMITED, SearchLimits.UNLIMITED, SearchLimits.UNLIMITED);
+        return CompletableFuture.supplyAsync(() -> runSearch(board, createTimeManager(limits, false), limits, stopToken, null, progressPublisher), searchExecutor);
+    }
+
+    /**
+     * Starts pondering on the executor of background searches: searching the position after the expected reply to the engine's last move
+     * while the opponent thinks, with no time limit.  If the opponent plays the expected reply, call ponderHit and the search
+     * carries on under the time limit of the given limits, counted from the ponder hit; otherwise stop the token, and the search
+     * returns at once.  The best move returned is bound to a copy of the game board, so it must be rebound with Move.setBoard
+     * before it is made on the game board.
+     * @param expectedReply The expected reply of the opponent, such as the ponder move of the last search result
+     * @param limits    The limits of the search, the time limit taking effect on a ponder hit
+     * @param stopToken The token by which the search is stopped on a ponder miss
+     * @param progressCallback  Called on the search thread after each completed iteration, or null
+     * @return  A future completed with the result of the search
+     * @throws IllegalArgumentException If the expected reply is not a legal move on the game board
+     */
+    public CompletableFuture<SearchResult> ponder(Move expectedReply, SearchLimits limits, StopToken stopToken, Consumer<SearchResult> progressCallback) {
+        ZobristBoard ponderBoard = board.getClone();
+        Move reply = findLegalMove(ponderBoard, expectedReply);
+        if (reply == null) {
+            throw new IllegalArgumentException("Expected reply " + expectedReply + " is not a legal move");
         }
-        
-        searchBoard = board.getClone();
-        //searchBoardRenderer.setChessboard(searchBoard);
-        if (displaySearchBoard) repaint();
+        ponderBoard.move(reply);
+        TimeManager ponderTimeManager = createTimeManager(limits, true);  // created now, so that a ponder hit before the search starts is not lost
+        this.ponderTimeManager = ponderTimeManager;
+        return CompletableFuture.supplyAsync(() -> runSearch(ponderBoard, ponderTimeManager, limits, stopToken, progressCallback, null), backgroundExecutor);
+    }
 
-        // update the ply of the killer move history table
-        for (int i = 0; i < (board.getPly() - killerMoveHistoryTable.getCurrentPly()); i++) {
-            killerMoveHistoryTable.incrementPly();
+    /**
+     * Signals that the opponent played the expected reply of the latest ponder search, which then continues under the normal
+     * time control
+     */
+    public void ponderHit() {
+        TimeManager ponderTimeManager = this.ponderTimeManager;
+        if (ponderTimeManager != null) {
+            ponderTimeManager.ponderHit();
         }
-        
-        long startTime = java.lang.System.currentTimeMillis();
-        long quitTime = startTime + allowedProcessingTime;
-        
-        Move bestMove = null;
-        for (int iteration = INITIAL_DEPTH; iteration <= DEPTH; iteration++) {
-            System.out.println("****" + iteration + "*****");
-            Move returnedMove = initialMoveGenerator(iteration, quitTime);
-           
-            if (java.lang.System.currentTimeMillis() > quitTime || interrupted) {
-                // if a move has been found better than that marked as the best move at the previous level, return it
-                if (returnedMove != null) {
-                    running = false;
-                    return returnedMove;
+    }
+
+    /**
+     * Creates the time manager of a search
+     * @param limits    The limits of the search
+     * @param pondering True if the search ponders
+     * @return  A time manager with the time limit of the search, or an effectively unlimited one if it has none or the engine
+     *          is in deterministic mode
+     */
+    private TimeManager createTimeManager(SearchLimits limits, boolean pondering) {
+        return new TimeManager(limits.time == SearchLimits.UNLIMITED || deterministic ? UNLIMITED_TIME : limits.time, pondering);
+    }
+
+    /**
+     * Searches the current board by iterative deepening.  Synchronized so that only one search runs at a time: a caller waits for
+     * the search in progress to return.
+     * @param rootBoard The position to search: the game board, or a copy of it after the expected reply when pondering
+     * @param timeManager   The time manager of the search, already started
+     * @param limits    The limits of the search
+     * @param stopToken The token by which the search may be stopped
+     * @param progressCallback  Called after each completed iteration, or null
+     * @param progressPublisher Publishes the progress of an infinite analysis, which does not consult the opening book, and is
+     *                          closed when the search ends; or null
+     * @return  The result of the search
+     */
+    private synchronized SearchResult runSearch(ZobristBoard rootBoard, TimeManager timeManager, SearchLimits limits, StopToken stopToken,
+            Consumer<SearchResult> progressCallback, SearchProgressPublisher progressPublisher) {
+        this.rootBoard = rootBoard;
+        this.timeManager = timeManager;
+        this.stopToken = stopToken;
+        this.progressPublisher = progressPublisher;
+        running = true;
+        try {
+            // if guidance from opening database exists, use it; it is looked up by the moves of the game board, which a copy lacks
+            Move nextMoveFromDatabase = openingBookEnabled && rootBoard == board && progressPublisher == null && searchMoves == null
+                    ? nextMoveFromDatabase() : null;
+            if (nextMoveFromDatabase != null) {
+                return new SearchResult(nextMoveFromDatabase, 0, 0, 0, 0);
+            }
+
+            if (deterministic) {
+                // entries left by earlier searches change move ordering and cutoffs, and a cached exact evaluation may stand in
+                // for the bound lazy evaluation would return; the pawn hash table holds nothing but exact pawn structure terms
+                transpositionTable.clear();
+                killerMoveHistoryTable.clear();
+                evaluationCache.clear();
+            }
+            searchBoard = rootBoard.getClone();
+            searchBoard.setNeuralNetwork(neuralNetwork);
+            //searchBoardRenderer.setChessboard(searchBoard);
+            if (displaySearchBoard) repaint();
+
+            // update the ply of the killer move history table
+            killerMoveHistoryTable.setCurrentPly(rootBoard.getPly());
+
+            nodeLimit = limits.nodes == SearchLimits.UNLIMITED ? Long.MAX_VALUE : limits.nodes;
+            int maxDepth = limits.depth == SearchLimits.UNLIMITED ? DEPTH : Integer.min(limits.depth, DEPTH);
+            int startDepth = limits.startDepth == SearchLimits.UNLIMITED ? INITIAL_DEPTH : limits.startDepth;
+            stopped = false;
+            nodes = 0;
+            selectiveDepth = 0;
+            lastProgressTime = 0;
+            progressDepth = 0;
+            progressScore = 0;
+            progressPrincipalVariations = Collections.emptyList();
+            pawnHashTable.clearStatistics();
+
+            Move bestMove = null;
+            int score = Integer.MIN_VALUE + 1;
+            int completedDepth = 0;
+            List<PrincipalVariation> principalVariations = Collections.emptyList();
+            for (int iteration = Integer.min(startDepth, maxDepth); iteration <= maxDepth; iteration++) {
+                if (trace != null) trace.println("****" + iteration + "*****");
+                timeManager.startIteration();
+                ArrayList<Move> rootMoves = new ArrayList<>();  // the best root moves of this iteration, best first
+                Move returnedMove = null;
+                while (rootMoves.size() < multiPV) {
+                    returnedMove = initialMoveGenerator(iteration, rootMoves);
+                    if (returnedMove == null || stopped) {
+                        break;  // no root moves left, or out of time
+                    }
+                    rootMoves.add(returnedMove);
+                }
+
+                if (stopped) {
+                    // if a move has been found better than that marked as the best move at the previous level, return it
+                    // else, return the move marked as the best move at the previous level
+                    if (rootMoves.isEmpty() && returnedMove != null) {
+                        rootMoves.add(returnedMove);
+                    }
+                    if (!rootMoves.isEmpty()) {
+                        bestMove = rootMoves.get(0);
+                        score = bestMove.getEvaluation();
+                        principalVariations = getPrincipalVariations(rootMoves, iteration, principalVariations);
+                    }
+                    break;
+                }
+                bestMove = rootMoves.isEmpty() ? null : rootMoves.get(0);
+                completedDepth = iteration;
+                principalVariations = getPrincipalVariations(rootMoves, iteration, principalVariations);
+
+                score = bestMove == null ? Integer.MIN_VALUE + 1 : bestMove.getEvaluation();
+                timeManager.endIteration(bestMove, score);
+                if (progressCallback != null) {
+                    progressCallback.accept(new SearchResult(bestMove, score, completedDepth, nodes, timeManager.getElapsedTime(), null, principalVariations));
+                }
+                progressDepth = completedDepth;
+                progressScore = score;
+                progressPrincipalVariations = principalVariations;
+                publishProgress();
+                if (Math.abs(score) >= CHECKMATE_THRESHOLD || !timeManager.canStartNextIteration()) {
+                    break;  // checkmate found, or not enough time for another iteration
                 }
-                // else, return the move marked as the best move at the previous level
-                running = false;
-                return bestMove;
             }
-            bestMove = returnedMove;
+
+            progressDepth = completedDepth;  // published when the search ends, including the lines of an interrupted iteration
+            progressScore = score;
+            progressPrincipalVariations = principalVariations;
+            if (trace != null) trace.println("Total time in milliseconds: " + timeManager.getElapsedTime() + "   Nodes: " + nodes);
+            return new SearchResult(bestMove, score, completedDepth, nodes, timeManager.getElapsedTime(), getExpectedReply(bestMove), principalVariations);
+        }
+        finally {
+            if (progressPublisher != null) {
+                publishProgress();
+                progressPublisher.close();
+                this.progressPublisher = null;
+            }
+            running = false;
+        }
+    }
+
+    /**
+     * Publishes a snapshot of the progress of the current search, with the lines of the last completed iteration, if anyone is
+     * subscribed to the publisher
+     */
+    private void publishProgress() {
+        lastProgressTime = timeManager.getElapsedTime();
+        if (progressPublisher != null && progressPublisher.hasSubscribers()) {
+            progressPublisher.publish(new SearchProgress(progressDepth, selectiveDepth, progressScore, nodes, lastProgressTime,
+                    transpositionTable.getHashfull(), progressPrincipalVariations));
         }
-        
-        long endTime = java.lang.System.currentTimeMillis();
-        System.out.println("Total time in milliseconds: " + (endTime - startTime));
-        running = false;
-        return bestMove;
     }
 
     /**
      * Search function at the initial level
      * @param targetDepth   Depth to search in ply
-     * @param quitTime      Time of the system clock to return
      * @return              The best move
      */
-    public Move initialMoveGenerator(int targetDepth, long quitTime) {
+    public Move initialMoveGenerator(int targetDepth) {
+        return initialMoveGenerator(targetDepth, Collections.emptyList());
+    }
+
+    /**
+     * Search function at the initial level, leaving out root moves already found by earlier searches of a multi-PV iteration,
+     * and those not among the search moves if searches are restricted
+     * @param targetDepth   Depth to search in ply
+     * @param excludedMoves Root moves not to search
+     * @return              The best of the remaining moves, or null if no legal move remains
+     */
+    private Move initialMoveGenerator(int targetDepth, List<Move> excludedMoves) {
         long startTime = java.lang.System.currentTimeMillis();
 
         // get list of possible moves
@@ -322,36 +495,46 @@ public class ChessEngine {
         transpositionFields = transpositionTable.get(searchBoard.hashValue);
         putBestMoveFirst(possibleMoves, transpositionFields);
         
-        int max = Integer.MIN_VALUE + 1;
+        int max = searchMoves == null ? Integer.MIN_VALUE + 1 : rootLowerBound;
         Move bestMove = null;
         for (Move nextMove : possibleMoves) {
-            System.out.print(nextMove.toString() + "   ");
+            if (isMoveInList(nextMove, excludedMoves) || (searchMoves != null && !isMoveInList(nextMove, searchMoves))) {
+                continue;
+            }
             searchBoard.move(nextMove);
-            int searchNodeVal = -searchNode(nextMove, Integer.MIN_VALUE + 1, -max, targetDepth, quitTime);
-            nextMove.setEvaluation(searchNodeVal);
+            if (searchBoard.isInCheck(searchBoard.getOpposingPlayer())) {
+                searchBoard.undoLastMove();  // illegal move
+                continue;
+            }
+            int searchNodeVal = -searchNode(nextMove, Integer.MIN_VALUE + 1, -max, targetDepth, 0, 0);
             searchBoard.undoLastMove();
-            System.out.println(searchNodeVal);
+            if (trace != null) trace.println(nextMove.toString() + "   " + searchNodeVal);
+            if (stopped) {
+                break;  // the search of this move was cut short, so its score is meaningless
+            }
+            nextMove.setEvaluation(searchNodeVal);
             if (searchNodeVal > max) {
                 max = searchNodeVal;
                 bestMove = nextMove;
             }
-            if (java.lang.System.currentTimeMillis() > quitTime || interrupted) {
-                break;
+            else if (bestMove == null && searchMoves != null) {
+                bestMove = nextMove;  // failed low against the lower bound of a restricted search; kept unless another move exceeds it
             }
         }
         
-        // only update transposition table if search wasn't cut short
-        if (java.lang.System.currentTimeMillis() < quitTime && !interrupted) {
+        // only update transposition table if search wasn't cut short, and searched all root moves
+        if (!stopped && excludedMoves.isEmpty() && searchMoves == null) {
             updateTranspositionTable(max, DEPTH, bestMove, TypeOfScore.EXACT);
         }
         
         if (bestMove != null) {
-            bestMove.setBoard(board);  // must make move on original board, not search board
+            bestMove.setBoard(rootBoard);  // must make move on original board, not search board
         }
         
-        System.out.println("--------------------------------------");
-        long endTime = java.lang.System.currentTimeMillis();
-        System.out.println("Total time in milliseconds: " + (endTime - startTime));
+        if (trace != null) {
+            trace.println("--------------------------------------");
+            trace.println("Total time in milliseconds: " + (java.lang.System.currentTimeMillis() - startTime));
+        }
         return bestMove;
     }
     
@@ -367,49 +550,68 @@ public class ChessEngine {
      * @param alpha The previous max that the current player can obtain from previous moves
      * @param beta  The previous min that the opposing player can obtain from previous moves
      * @param targetDepth   The target search depth in ply
-     * @param quitTime  The system time to quit and return
+     * @param checkExtensions   The number of check extensions already made along the current search path
+     * @param singularExtensions    The number of singular extensions already made along the current search path
      * @return The evaluation score for the move being searched to the given depth
      */
     
-    private int searchNode(Move searchMove, int alpha, int beta, int targetDepth, long quitTime) {
+    private int searchNode(Move searchMove, int alpha, int beta, int targetDepth, int checkExtensions, int singularExtensions) {
         if (displaySearchBoard) repaint();
-        int originalAlpha = alpha;
+        countNode();
         int currentPlayer = searchBoard.getCurrentPlayer();
-        int currentDepth = searchBoard.getPly() - board.getPly();        
+        int currentDepth = searchBoard.getPly() - rootBoard.getPly();        
+        if (currentDepth > selectiveDepth) {
+            selectiveDepth = currentDepth;
+        }
+
+        // mate distance pruning - no score can be better than mating on the next move, or worse than being mated on this move
+        alpha = Integer.max(alpha, -CHECKMATE_VALUE + currentDepth);
+        beta = Integer.min(beta, CHECKMATE_VALUE - currentDepth - 1);
+        if (alpha >= beta) {
+            return alpha;
+        }
+        
+        int originalAlpha = alpha;
+
+        // if the player to move can return to an earlier position for the third time, the score is at least a draw
+        boolean drawAvailable = alpha < DRAW_VALUE && searchBoard.hasUpcomingRepetition();
+        if (drawAvailable) {
+            alpha = DRAW_VALUE;
+            if (alpha >= beta) {
+                return alpha;
+            }
+        }
 
         // check whether board has already been evaluated to the proper depth; if so, skip evaluation process
         transpositionFields = transpositionTable.get(searchBoard.hashValue);
         if (transpositionFields != null && transpositionFields.depth >= targetDepth - currentDepth - ACCEPTABLE_LOSS_OF_DEPTH_IN_TRANSPOSITION) {
+            int transpositionScore = scoreFromTranspositionTable(transpositionFields.score, currentDepth);
             if (transpositionFields.typeOfScore == TypeOfScore.EXACT) {
-                return transpositionFields.score;
+                return transpositionScore;
             }
             else if (transpositionFields.typeOfScore == TypeOfScore.FAIL_LOW) {
-                alpha = Integer.max(alpha, transpositionFields.score);
+                alpha = Integer.max(alpha, transpositionScore);
             }
             else if (transpositionFields.typeOfScore == TypeOfScore.FAIL_HIGH) {
-                beta = Integer.min(beta, transpositionFields.score);
+                beta = Integer.min(beta, transpositionScore);
             }
             if (alpha >= beta) {
                 if (!searchMove.isCapture()) {
                      killerMoveHistoryTable.addMove(searchMove);
                  }
-                return transpositionFields.score;
+                return transpositionScore;
             }
         }           
-        
-        if (searchBoard.getPieceSet(currentPlayer + Chessboard.KING) == 0) {
-            return Integer.MIN_VALUE + 2 + currentDepth;  // farther checkmate is preferable to near checkmate  
-        }
 
-        // threefold repetition is draw
-        if (searchBoard.isRepetition(3)) {
+        // threefold repetition and the fifty-move rule are draws
+        if (searchBoard.isRepetition(3) || searchBoard.isFiftyMoveDraw()) {
             return DRAW_VALUE;
         }
 
         // null move pruning
         /*if (!searchBoard.isInCheck(currentPlayer)) {
             // check whether null move is enough for alpha pruning
-            int nullMoveScore = evaluateBoard(searchBoard);
+            int nullMoveScore = evaluateSearchBoard(alpha, beta);
             if (nullMoveScore >= beta) {
                 return beta;
             }
@@ -417,28 +619,75 @@ public class ChessEngine {
         } */
 
 
-        if (currentDepth >= targetDepth) {
-            if (searchMove.isCapture() || searchBoard.isInCheck(currentPlayer)  ) {
-               return quiescence(alpha, beta, targetDepth + ADDITIONAL_DEPTH_FOR_QUIESCENCE, quitTime);
+        boolean inCheck = searchBoard.isInCheck(currentPlayer);
+
+        // endings in the bitbases are decided exactly; positions in check are searched, so that checkmates score as such
+        if (bitbases != null && !inCheck && Long.bitCount(searchBoard.getAllPieces()) <= Bitbases.MAX_PIECES) {
+            int bitbaseResult = bitbases.probe(searchBoard);
+            if (bitbaseResult == Bitbases.DRAW) {
+                return DRAW_VALUE;
+            }
+            else if (bitbaseResult == Bitbases.WIN) {
+                return BITBASE_WIN_VALUE + evaluateSearchBoard(Integer.MIN_VALUE + 1, Integer.MAX_VALUE);
+            }
+            else if (bitbaseResult == Bitbases.LOSS) {
+                return drawAvailable ? DRAW_VALUE : -BITBASE_WIN_VALUE + evaluateSearchBoard(Integer.MIN_VALUE + 1, Integer.MAX_VALUE);
             }
-            return evaluateBoard(searchBoard);
+        }
+
+        if (currentDepth >= targetDepth) {
+            int leafValue = searchMove.isCapture() || inCheck
+                    ? quiescence(alpha, beta, targetDepth + ADDITIONAL_DEPTH_FOR_QUIESCENCE) : evaluateSearchBoard(alpha, beta);
+            return drawAvailable ? Integer.max(leafValue, DRAW_VALUE) : leafValue;
         }
         
+        TranspositionFields ttEntry = transpositionFields;  // the field is overwritten by deeper searches
         ArrayList<Move> possibleMoves = searchBoard.getPossibleMoves(currentPlayer);
         Collections.sort(possibleMoves, moveComparator);
-        putBestMoveFirst(possibleMoves, transpositionFields);
+        putBestMoveFirst(possibleMoves, ttEntry);
         
-        Move bestMove = possibleMoves.get(0);
+        // singular extension - extend the best move from the transposition table if it is much better than every alternative
+        boolean ttMoveIsSingular = false;
+        int remainingDepth = targetDepth - currentDepth;
+        if (singularExtensions < MAX_SINGULAR_EXTENSIONS && remainingDepth >= SINGULAR_EXTENSION_MIN_DEPTH 
+                && ttEntry != null && ttEntry.bestMove != null && ttEntry.typeOfScore != TypeOfScore.FAIL_HIGH 
+                && ttEntry.depth >= remainingDepth - SINGULAR_EXTENSION_TT_DEPTH_MARGIN && !possibleMoves.isEmpty() && possibleMoves.get(0).equals(ttEntry.bestMove)
+                && Math.abs(scoreFromTranspositionTable(ttEntry.score, currentDepth)) < CHECKMATE_THRESHOLD) {
+            int singularBeta = scoreFromTranspositionTable(ttEntry.score, currentDepth) - SINGULAR_MARGIN_PER_PLY * remainingDepth;
+            ttMoveIsSingular = isSingular(possibleMoves, singularBeta, currentDepth + remainingDepth / 2, checkExtensions, singularExtensions);
+        }
+        
+        Move bestMove = null;  // set by the first legal move; there may be no move at all, as when hemmed in by blocked pawns
         int bestValue = Integer.MIN_VALUE + 1;
+        int legalMoveCount = 0;
         
         for (Move nextMove : possibleMoves) {
             searchBoard.move(nextMove);
+            if (searchBoard.isInCheck(currentPlayer)) {
+                searchBoard.undoLastMove();  // illegal move
+                continue;
+            }
+            legalMoveCount++;
             if (displaySearchBoard) repaint();
-            int searchNodeVal = -searchNode(nextMove, -beta, -alpha, targetDepth, quitTime);
+            
+            // extend forcing moves by one ply, within the budget for the current search path
+            int childCheckExtensions = checkExtensions;
+            int childSingularExtensions = singularExtensions;
+            int extension = 0;
+            if (ttMoveIsSingular && nextMove == possibleMoves.get(0)) {
+                extension = 1;
+                childSingularExtensions++;
+            }
+            else if (checkExtensions < MAX_CHECK_EXTENSIONS && searchBoard.isInCheck(searchBoard.getCurrentPlayer())) {
+                extension = 1;
+                childCheckExtensions++;
+            }
+            
+            int searchNodeVal = -searchNode(nextMove, -beta, -alpha, targetDepth + extension, childCheckExtensions, childSingularExtensions);
             searchBoard.undoLastMove();
             if (displaySearchBoard) repaint();
             
-            if (java.lang.System.currentTimeMillis() > quitTime || interrupted) {
+            if (stopped) {
                 return Integer.MIN_VALUE;
             }
         
@@ -456,6 +705,17 @@ public class ChessEngine {
             }
         }
         
+        // the repetition is found by the search too, unless a table score hides it; the draw counts either way
+        if (drawAvailable && bestValue < DRAW_VALUE) {
+            bestValue = DRAW_VALUE;
+        }
+
+        // no legal move - checkmate or stalemate
+        if (legalMoveCount == 0) {
+            bestValue = inCheck ? -CHECKMATE_VALUE + currentDepth : DRAW_VALUE;  // farther checkmate is preferable to near checkmate
+            bestMove = null;
+        }
+        
         // update transposition table
         TypeOfScore typeOfScore = TypeOfScore.EXACT;
         if (bestValue <= originalAlpha) {
@@ -468,52 +728,85 @@ public class ChessEngine {
         return bestValue;
     }
     
+    /**
+     * Tests whether the first move in the list (the best move from the transposition table) is singular, that is,
+     * whether every alternative fails low against a window lowered by a margin from the transposition table score.
+     * The alternatives are searched to a reduced depth, and the first move is excluded from the search.
+     * @param possibleMoves The possible moves from the current position, with the transposition table move first; not empty
+     * @param singularBeta  The score that every alternative must fail to reach for the first move to be singular
+     * @param reducedTargetDepth    The reduced target depth in ply for the exclusion search
+     * @param checkExtensions   The number of check extensions already made along the current search path
+     * @param singularExtensions    The number of singular extensions already made along the current search path
+     * @return  True if no alternative reaches singularBeta; false if one does, or if the search was cut short
+     */
+    private boolean isSingular(ArrayList<Move> possibleMoves, int singularBeta, int reducedTargetDepth, int checkExtensions, int singularExtensions) {
+        for (int i = 1; i < possibleMoves.size(); i++) {
+            Move nextMove = possibleMoves.get(i);
+            searchBoard.move(nextMove);
+            if (searchBoard.isInCheck(searchBoard.getOpposingPlayer())) {
+                searchBoard.undoLastMove();  // illegal move
+                continue;
+            }
+            int searchNodeVal = -searchNode(nextMove, -singularBeta, -(singularBeta - 1), reducedTargetDepth, checkExtensions, singularExtensions);
+            searchBoard.undoLastMove();
+            
+            if (stopped) {
+                return false;
+            }
+            if (searchNodeVal >= singularBeta) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * Keeps searching until quiet (non capture, check) moves are found.
      * @param alpha The previous max that the current player can obtain from previous moves
      * @param beta  The previous min that the opposing player can obtain from previous moves
      * @param targetDepth   The target search depth in ply
-     * @param quitTime  The system time to quit and return
      * @return The evaluation score for the move being searched to the given depth
      */
-    private int quiescence(int alpha, int beta, int targetDepth, long quitTime) {
+    private int quiescence(int alpha, int beta, int targetDepth) {
         if (displaySearchBoard) repaint();
+        countNode();
        
         int originalAlpha = alpha;
         int currentPlayer = searchBoard.getCurrentPlayer();
-        int currentDepth = searchBoard.getPly() - board.getPly();        
+        int currentDepth = searchBoard.getPly() - rootBoard.getPly();        
+        if (currentDepth > selectiveDepth) {
+            selectiveDepth = currentDepth;
+        }
 
         // check whether board has already been evaluated to the proper depth; if so, skip evaluation process
         transpositionFields = transpositionTable.get(searchBoard.hashValue);
         if (transpositionFields != null && transpositionFields.depth >= targetDepth - currentDepth - ACCEPTABLE_LOSS_OF_DEPTH_IN_TRANSPOSITION) {
+            int transpositionScore = scoreFromTranspositionTable(transpositionFields.score, currentDepth);
             if (transpositionFields.typeOfScore == TypeOfScore.EXACT) {
-                return transpositionFields.score;
+                return transpositionScore;
             }
             else if (transpositionFields.typeOfScore == TypeOfScore.FAIL_LOW) {
-                alpha = Integer.max(alpha, transpositionFields.score);
+                alpha = Integer.max(alpha, transpositionScore);
             }
             else if (transpositionFields.typeOfScore == TypeOfScore.FAIL_HIGH) {
-                beta = Integer.min(beta, transpositionFields.score);
+                beta = Integer.min(beta, transpositionScore);
             }
         }
         
-        if (searchBoard.getPieceSet(currentPlayer + Chessboard.KING) == 0) {
-            return Integer.MIN_VALUE + 2 + currentDepth;  // farther checkmate is preferable to near checkmate  
-        }
-        
-        // threefold repetition is draw
-        if (searchBoard.isRepetition(3)) {
+        // threefold repetition and the fifty-move rule are draws
+        if (searchBoard.isRepetition(3) || searchBoard.isFiftyMoveDraw()) {
             return DRAW_VALUE;
         }
        
-        int nullMoveScore = evaluateBoard(searchBoard);
+        int nullMoveScore = evaluateSearchBoard(alpha, beta);
         
         // base case
         if (currentDepth >= targetDepth) {
             return nullMoveScore;
         }
         
-        if (!searchBoard.isInCheck(currentPlayer)) {
+        boolean inCheck = searchBoard.isInCheck(currentPlayer);
+        if (!inCheck) {
             // check whether null move is enough for alpha pruning
             if (nullMoveScore >= beta) {
                 return beta;
@@ -524,23 +817,29 @@ public class ChessEngine {
         ArrayList<Move> possibleMoves = searchBoard.getPossibleMoves(currentPlayer);
         Collections.sort(possibleMoves, moveComparatorNoHistory);   
         putBestMoveFirst(possibleMoves, transpositionFields);
-        Move bestMove = possibleMoves.get(0);
+        Move bestMove = null;  // null unless a capture or evasion improves on the static evaluation
         int bestValue = nullMoveScore;
+        int legalMoveCount = 0;
 
         for (Move nextMove : possibleMoves) {
             // evaluate only captures
-            if (!nextMove.isCapture() && !searchBoard.isInCheck(currentPlayer) ) {
+            if (!nextMove.isCapture() && !inCheck) {
                 continue;
             }
             
             searchBoard.move(nextMove);
+            if (searchBoard.isInCheck(currentPlayer)) {
+                searchBoard.undoLastMove();  // illegal move
+                continue;
+            }
+            legalMoveCount++;
             if (displaySearchBoard) repaint();
 
-            int searchNodeVal = -quiescence(-beta, -alpha, targetDepth, quitTime);
+            int searchNodeVal = -quiescence(-beta, -alpha, targetDepth);
             searchBoard.undoLastMove();
             if (displaySearchBoard) repaint();
             
-            if (java.lang.System.currentTimeMillis() > quitTime || interrupted) {
+            if (stopped) {
                 return Integer.MIN_VALUE;
             }
             
@@ -555,6 +854,12 @@ public class ChessEngine {
             }
         }
         
+        // in check with no legal evasion is checkmate
+        if (inCheck && legalMoveCount == 0) {
+            bestValue = -CHECKMATE_VALUE + currentDepth;
+            bestMove = null;
+        }
+        
         // update transposition table
         TypeOfScore typeOfScore = TypeOfScore.EXACT;
         if (bestValue <= originalAlpha) {
@@ -570,6 +875,122 @@ public class ChessEngine {
     }
   
     
+    /**
+     * Counts a searched node, stopping the search at the node limit, and every TIME_CHECK_INTERVAL_MASK + 1 nodes polls the clock
+     * and the stop token, stopping the search if the time is up or the engine has been interrupted, and otherwise publishing the
+     * progress of an infinite analysis if PROGRESS_INTERVAL has passed since it was last published
+     */
+    private void countNode() {
+        nodes++;
+        if (nodes >= nodeLimit || ((nodes & TIME_CHECK_INTERVAL_MASK) == 0 && (stopToken.isStopped() || timeManager.isHardLimitReached()))) {
+            stopped = true;
+        }
+        else if ((nodes & TIME_CHECK_INTERVAL_MASK) == 0 && progressPublisher != null && timeManager.getElapsedTime() - lastProgressTime >= PROGRESS_INTERVAL) {
+            publishProgress();
+        }
+    }
+    
+    /**
+     * Gets the expected reply to the best move from the transposition table entry of the position after it
+     * @param bestMove  The best move at the root, or null
+     * @return  The expected reply, bound to the search board, or null if the best move is null or no legal reply is stored
+     */
+    private Move getExpectedReply(Move bestMove) {
+        if (bestMove == null || searchBoard.getPly() != rootBoard.getPly()) {
+            return null;
+        }
+        List<Move> moves = getPrincipalVariation(bestMove, 2).moves;
+        return moves.size() > 1 ? moves.get(1) : null;
+    }
+
+    /**
+     * Gets the principal variation of a root move by following the best moves stored in the transposition table
+     * @param rootMove  The root move, its evaluation the score of the line
+     * @param depth     The depth in ply to which the root move was searched, and the greatest length of the line
+     * @return  The principal variation, the moves after the root move bound to the search board
+     */
+    private PrincipalVariation getPrincipalVariation(Move rootMove, int depth) {
+        ArrayList<Move> moves = new ArrayList<>();
+        moves.add(rootMove);
+        Move move = rootMove.getClone();
+        move.setBoard(searchBoard);
+        searchBoard.move(move);
+        int movesMade = 1;
+        while (moves.size() < depth) {
+            TranspositionFields fields = transpositionTable.get(searchBoard.hashValue);
+            move = fields == null || fields.bestMove == null ? null : findLegalMove(searchBoard, fields.bestMove);
+            if (move == null) {
+                break;
+            }
+            moves.add(move);
+            searchBoard.move(move);
+            movesMade++;
+        }
+        for (int i = 0; i < movesMade; i++) {
+            searchBoard.undoLastMove();
+        }
+        return new PrincipalVariation(rootMove.getEvaluation(), depth, moves);
+    }
+
+    /**
+     * Gets the principal variations of the root moves of an iteration.  If the iteration was cut short, the lines of the
+     * previous iteration for other root moves fill up the remaining lines.
+     * @param rootMoves The best root moves of the iteration, best first
+     * @param depth     The depth of the iteration in ply
+     * @param previousPrincipalVariations   The lines of the previous iteration
+     * @return  The principal variations, best first
+     */
+    private List<PrincipalVariation> getPrincipalVariations(List<Move> rootMoves, int depth, List<PrincipalVariation> previousPrincipalVariations) {
+        ArrayList<PrincipalVariation> principalVariations = new ArrayList<>();
+        for (Move rootMove : rootMoves) {
+            principalVariations.add(getPrincipalVariation(rootMove, depth));
+        }
+        for (PrincipalVariation previousPrincipalVariation : previousPrincipalVariations) {
+            if (principalVariations.size() >= multiPV) {
+                break;
+            }
+            if (!isMoveInList(previousPrincipalVariation.getMove(), rootMoves)) {
+                principalVariations.add(previousPrincipalVariation);
+            }
+        }
+        return principalVariations;
+    }
+
+    /**
+     * Checks whether a move is one of a list of moves, by origin and destination
+     * @param move  The move to check
+     * @param moves The list of moves
+     * @return  True if the move is in the list
+     */
+    private static boolean isMoveInList(Move move, List<Move> moves) {
+        for (Move excludedMove : moves) {
+            if (move.equals(excludedMove)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds a legal move on a board with the same origin and destination as a given move
+     * @param board The board on which to find the move
+     * @param move  The move to find, possibly bound to another board
+     * @return  The legal move bound to the board, or null if there is none
+     */
+    private static Move findLegalMove(ZobristBoard board, Move move) {
+        for (Move possibleMove : board.getPossibleMoves(board.getCurrentPlayer())) {
+            if (possibleMove.equals(move)) {
+                board.move(possibleMove);
+                boolean legal = !board.isInCheck(board.getOpposingPlayer());
+                board.undoLastMove();
+                if (legal) {
+                    return possibleMove;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Gets the board for searching potential moves
      * @return the searchboard
@@ -594,7 +1015,7 @@ public class ChessEngine {
     private Move nextMoveFromDatabase() {
         String movetext = "";
         PGNGameTreeLookup lookup = new PGNGameTreeLookup();
-        if (lookup.lookup(new PGNGame(board.getMoves()))) {
+        if (lookup.lookup(new PGNGame(rootBoard.getMoves()))) {
             double bestScore = 0;
             ArrayList<MoveResults> moveResults = lookup.getChildrensResults();
             for (MoveResults result : moveResults) {
@@ -605,97 +1026,380 @@ public class ChessEngine {
                 // also could do weighted random to avoid always making same response
                 double score = result.wins * ratioWins * ratioWins * ratioWins;
 
-                System.out.println(result.movetext + " - wins: " + result.wins + " losses: " + result.losses + " draws: " + result.draws);
-                System.out.println("      Total games: " + totalGames + " ratio wins: " + ratioWins + "  Score: " + score);
+                if (trace != null) {
+                    trace.println(result.movetext + " - wins: " + result.wins + " losses: " + result.losses + " draws: " + result.draws);
+                    trace.println("      Total games: " + totalGames + " ratio wins: " + ratioWins + "  Score: " + score);
+                }
                 if (score > bestScore) {
                     bestScore = score;
                     movetext = result.movetext;
                 }
             }
-            System.out.println("----------------------------------------------------");
+            if (trace != null) trace.println("----------------------------------------------------");
         } else {
             return null;
         }
 
         try {
-            return new Move(this.board.getPly(), movetext, this.board);
+            return new Move(rootBoard.getPly(), movetext, rootBoard);
         } catch (InvalidMoveException ime) {
             return null;
         }
     }
 
+    /**
+     * Evaluates the search board, looking up the evaluation in the evaluation cache first.
+     * Only exact evaluations are stored: a bound returned early by lazy evaluation is valid for its window alone.
+     * If a neural network is set, it evaluates the board instead of evaluateBoard.
+     * @param alpha The score which the player to move can already obtain
+     * @param beta  The score which the opponent can already hold the player to move to
+     * @return  The evaluation of the search board from the perspective of the player to move, or a bound on it outside the window (see evaluateBoard)
+     */
+    private int evaluateSearchBoard(int alpha, int beta) {
+        int evaluation = evaluationCache.probe(searchBoard.hashValue);
+        if (evaluation == EvaluationCache.NOT_FOUND) {
+            if (neuralNetwork != null) {
+                evaluation = searchBoard.evaluateNeuralNetwork();
+            }
+            else {
+                evaluation = evaluateBoard(searchBoard, pawnHashTable, alpha, beta);
+            }
+            if (evaluation > alpha && evaluation < beta) {
+                evaluationCache.store(searchBoard.hashValue, evaluation);
+            }
+        }
+        return evaluation;
+    }
+
+    /**
+     * Replaces the evaluation cache, to change its size or to share one cache between engines.  The engine never clears the
+     * statistics of the cache, so that those of a shared cache count the searches of all its engines until its owner clears them.
+     * @param evaluationCache   The evaluation cache to use
+     * @throws IllegalStateException    If the engine is in deterministic mode, in which it keeps an evaluation cache of its own
+     */
+    public void setEvaluationCache(EvaluationCache evaluationCache) {
+        if (deterministic) {
+            throw new IllegalStateException("A deterministic engine keeps an evaluation cache of its own");
+        }
+        this.evaluationCache = evaluationCache;
+    }
+
+    /**
+     * Prepares the engine for a new game, clearing the transposition table and the killer moves, and restoring the default
+     * options and evaluator.  Waits for a search in progress to return, so stop it first.
+     * @param board The game board of the new game
+     */
+    public synchronized void newGame(ZobristBoard board) {
+        this.board = board;
+        transpositionTable.clear();
+        killerMoveHistoryTable.clear();
+        multiPV = 1;
+        openingBookEnabled = true;
+        deterministic = false;
+        searchMoves = null;
+        rootLowerBound = Integer.MIN_VALUE + 1;
+        if (neuralNetwork != null) {
+            setNeuralNetwork(null);
+        }
+    }
+
+    /**
+     * Sets the game board for which the following searches generate moves, such as a new position set up by a front-end.
+     * A search in progress continues on its own root board.
+     * @param board The game board
+     */
+    public void setBoard(ZobristBoard board) {
+        this.board = board;
+    }
+
+    /**
+     * Replaces the transposition table, such as to resize it or to clear it for a new game.  Must not be called while a search runs.
+     * @param transpositionTable    The new transposition table
+     */
+    public void setTranspositionTable(TranspositionTable transpositionTable) {
+        this.transpositionTable = transpositionTable;
+        transpositionTable.setTrace(trace);
+    }
+
+    /**
+     * Sets the stream receiving the trace of the searches and of the transposition table: the iterations, the score of each root
+     * move, the opening book statistics and the times.  A search in progress may carry on writing to the previous stream.
+     * @param trace The stream, such as System.err in a debug mode, or null to turn the trace off
+     */
+    public void setTrace(PrintStream trace) {
+        this.trace = trace;
+        transpositionTable.setTrace(trace);
+    }
+
+    /**
+     * Sets the number of best root moves for which searches find a principal variation with an exact score
+     * @param multiPV   The number of lines; 1 for a normal search
+     * @throws IllegalArgumentException If the number of lines is less than 1
+     */
+    public void setMultiPV(int multiPV) {
+        if (multiPV < 1) {
+            throw new IllegalArgumentException("MultiPV must be at least 1: " + multiPV);
+        }
+        this.multiPV = multiPV;
+    }
+
+    /**
+     * Sets whether moves are taken from the opening book when the game is in it
+     * @param openingBookEnabled    False to search every move
+     */
+    public void setOpeningBookEnabled(boolean openingBookEnabled) {
+        this.openingBookEnabled = openingBookEnabled;
+    }
+
+    /**
+     * Restricts the following searches to some of the root moves, as the searchmoves of the UCI go command do, such as to split
+     * the root moves between the workers of a cluster search.  The opening book is not consulted while searches are restricted.
+     * @param searchMoves   The root moves to search, matched by origin and destination; null or empty to search all moves
+     */
+    public void setSearchMoves(List<Move> searchMoves) {
+        this.searchMoves = searchMoves == null || searchMoves.isEmpty() ? null : new ArrayList<>(searchMoves);
+    }
+
+    /**
+     * Sets the score which the best move of a restricted search must exceed, such as the score of a root move already searched
+     * by another worker.  If no search move exceeds it, the first searched is returned with a score no greater than the bound.
+     * @param rootLowerBound    The lower bound, or Integer.MIN_VALUE + 1 for none; ignored unless searches are restricted
+     */
+    public void setRootLowerBound(int rootLowerBound) {
+        this.rootLowerBound = rootLowerBound;
+    }
+
+    /**
+     * Gets the transposition table, such as to share its entries with other engines
+     * @return  The transposition table
+     */
+    public TranspositionTable getTranspositionTable() {
+        return transpositionTable;
+    }
+
+    /**
+     * Sets whether searches are reproducible.  In deterministic mode each search clears the transposition table, killer moves and
+     * evaluation cache before it starts, and ignores its time limit, stopping only at its node or depth limit (or when its token
+     * is stopped), so that the same position and settings give bit-identical best moves, scores and node counts from run to run
+     * and machine to machine.  Give such searches a node or depth limit.  Entering deterministic mode replaces the evaluation
+     * cache by an empty one of the same size, since a cache shared with engines searching at the same time changes under the
+     * search, and clearing it would clear it for them too.  The bitbases probed must be the same as well.
+     * @param deterministic True for reproducible searches
+     */
+    public void setDeterministic(boolean deterministic) {
+        if (deterministic && !this.deterministic) {
+            evaluationCache = new EvaluationCache(evaluationCache.getSize());
+        }
+        this.deterministic = deterministic;
+    }
+
+    /**
+     * Replaces the bitbases probed in the search, by default those in Bitbases.DEFAULT_DIRECTORY
+     * @param bitbases  The bitbases to probe, or null to search endings of few pieces like any other position
+     */
+    public void setBitbases(Bitbases bitbases) {
+        this.bitbases = bitbases;
+    }
+
+    /**
+     * Replaces the evaluator of the search with a neural network.  The evaluation cache is replaced by an empty one of the same size,
+     * since it holds the evaluations of the previous evaluator.
+     * @param neuralNetwork The network to evaluate with, or null to evaluate with evaluateBoard
+     */
+    public void setNeuralNetwork(NeuralNetwork neuralNetwork) {
+        this.neuralNetwork = neuralNetwork;
+        this.evaluationCache = new EvaluationCache(evaluationCache.getSize());
+    }
+
     /**
      * Evaluates the relative strength of a player on the board.
-     * @param board The Chessboard to evaluate
+     * Known draws and endings with specialized evaluators are found in the material table by the material key of the board.
+     * Material and piece-square bonuses are read from the running totals kept by the board.
+     * Terms which matter only in the middlegame (king safety) or the endgame (king activity) are kept apart from the rest, and blended
+     * by the game phase: the middlegame score counts fully in the opening, and the endgame score once only kings and pawns are left.
+     * The squares attacked by every piece are generated once, and combined into an attack map for each side from which king safety is scored.
+     * @param board The ZobristBoard to evaluate
+     * @param pawnHashTable The pawn hash table in which to find or store the pawn structure of the board
      * @return A relative evaluation of the board from player's perspective.
      * Positive values indicate player's advantage, negative indicate opponent's advantage.
      */
-    public static int evaluateBoard(Chessboard board) {
-        int evaluation = 0;
+    public static int evaluateBoard(ZobristBoard board, PawnHashTable pawnHashTable) {
+        return evaluateBoard(board, pawnHashTable, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Evaluates the relative strength of a player on the board, returning early when the cheap terms alone show that the score
+     * is outside the window from alpha to beta.  The cheap terms are material, piece-square bonuses, the bishop pair and the pawn
+     * structure; the remaining terms (mobility, center control, support, attacks and king safety) are assumed never to move the
+     * score by more than LAZY_EVALUATION_MARGIN.  EvaluationBenchmark checks this assumption when run with the argument "lazy".
+     * @param board The ZobristBoard to evaluate
+     * @param pawnHashTable The pawn hash table in which to find or store the pawn structure of the board
+     * @param alpha The score which the player to move can already obtain
+     * @param beta  The score which the opponent can already hold the player to move to
+     * @return The exact evaluation from player's perspective if it is strictly between alpha and beta.  Otherwise, a score no higher
+     * than alpha which is at least the exact evaluation, or a score no lower than beta which is at most the exact evaluation.
+     */
+    public static int evaluateBoard(ZobristBoard board, PawnHashTable pawnHashTable, int alpha, int beta) {
         int player = board.getCurrentPlayer();
+        int opponent = 1 - player;
         
-        if (!board.sufficientMaterialToCheckmate()) {
-            return DRAW_VALUE;
+        // endings known from the material alone skip the general evaluation
+        MaterialEntry materialEntry = MaterialTable.probe(board.getMaterialKey());
+        if (isKnownFromMaterial(board, materialEntry)) {
+            return evaluateFromMaterial(board, materialEntry);
         }
         
-        if (Long.bitCount(board.getPieceSet(Chessboard.BISHOP + player)) >= 2) {
-            evaluation += DOUBLE_BISHOP_BONUS;
+        int evaluation = evaluateMaterialAndPawns(board, pawnHashTable);
+        int middlegameEvaluation = board.getMiddlegameBonuses(player) - board.getMiddlegameBonuses(opponent);
+        int endgameEvaluation = board.getEndgameBonuses(player) - board.getEndgameBonuses(opponent);
+        int phase = board.getPhase();
+        
+        // lazy evaluation: skip the piece loop when its terms cannot bring the score back into the window
+        int lazyEvaluation = scale(evaluation + taper(middlegameEvaluation, endgameEvaluation, phase), materialEntry);
+        if (lazyEvaluation + LAZY_EVALUATION_MARGIN <= alpha) {
+            return lazyEvaluation + LAZY_EVALUATION_MARGIN;
         }
-        if (Long.bitCount(board.getPieceSet(Chessboard.BISHOP + 1 - player)) >= 2) {
-            evaluation -= DOUBLE_BISHOP_BONUS;
+        if (lazyEvaluation - LAZY_EVALUATION_MARGIN >= beta) {
+            return lazyEvaluation - LAZY_EVALUATION_MARGIN;
         }
         
-        evaluation += evaluatePawnStructure(board, player);
-        
-        // evaluate each piece type
+        // add points for mobility, connectivity and center control for every piece, and build the attack map of each side
+        long playersPieces = board.getPiecesOfColor(player);
+        long opponentsPieces = board.getPiecesOfColor(opponent);
+        long attackMaps[] = new long[2];
+        long weightedCounts = 0;  // supported and attacked pieces, in millionths of a centipawn
         for (int pieceType = Chessboard.KING; pieceType <= Chessboard.PAWN; pieceType += 2) {
-            // add piece values for player, subtract piece values for opponent
-            Long playersPieceSet = board.getPieceSet(pieceType + player);
-            Long opponentsPieceSet = board.getPieceSet(pieceType + 1 - player);
-            int playersPieces = Long.bitCount(playersPieceSet);
-            int opponentsPieces = Long.bitCount(opponentsPieceSet);
-            evaluation += playersPieces * Piece.getValue(pieceType);
-            evaluation -= opponentsPieces * Piece.getValue(pieceType);
-
-            // add points for mobility and connectivity
-            if (pieceType >= Chessboard.ROOK || board.getPly() > 20) {  // consider removing this condition
-                for (int i = 0; i < playersPieces; i++) {
-                    long currentPosition = Long.lowestOneBit(playersPieceSet);
-                    int currentPositionSerial = Square.toSerial(currentPosition);
-                    long potentialMovesExcludingCastle = Piece.getPotentialMovesExcludingCastle(pieceType + player, currentPositionSerial, board);
-                    long possibleMovesExcludingCastle = Piece.getPossibleMovesExcludingCastle(pieceType + player, currentPositionSerial, board, potentialMovesExcludingCastle);
-                    evaluation += Long.bitCount(possibleMovesExcludingCastle) * MOBILITY_MULTIPLIER;
-                    // lesser value pieces have higher bonuses for attacking and supporting
-                    evaluation += Long.bitCount(Piece.getPotentialSupportingMoves(potentialMovesExcludingCastle, board)) * CONNECTIVITY_MULTIPLIER * (Math.log10(pieceType + 2) + 1);
-                    evaluation += Long.bitCount(Piece.getPossibleAttackingMoves(potentialMovesExcludingCastle, board)) * ATTACK_MULTIPLIER * (Math.log10(pieceType + 2) + 1);
-                    evaluation += Long.bitCount(possibleMovesExcludingCastle & Chessboard.CENTER4) * CENTER4_MULTIPLIER;
-                    evaluation += Long.bitCount(possibleMovesExcludingCastle & Chessboard.CENTER16) * CENTER16_MULTIPLIER;
-                    evaluation += PIECE_SQUARE_BONUSES[pieceType + player][currentPositionSerial];
-
-                    playersPieceSet -= currentPosition;
-                }
-                for (int i = 0; i < opponentsPieces; i++) {
-                    long currentPosition = Long.lowestOneBit(opponentsPieceSet);
-                    int currentPositionSerial = Square.toSerial(currentPosition);
-                    long potentialMovesExcludingCastle = Piece.getPotentialMovesExcludingCastle(pieceType + 1 - player, currentPositionSerial, board);
-                    long possibleMovesExcludingCastle = Piece.getPossibleMovesExcludingCastle(pieceType + 1 - player, currentPositionSerial, board, potentialMovesExcludingCastle);
-                    evaluation -= Long.bitCount(possibleMovesExcludingCastle) * MOBILITY_MULTIPLIER;
-                    evaluation -= Long.bitCount(Piece.getPotentialSupportingMoves(potentialMovesExcludingCastle, board)) * CONNECTIVITY_MULTIPLIER * (Math.log10(pieceType + 2) + 1);
-                    evaluation -= Long.bitCount(Piece.getPossibleAttackingMoves(potentialMovesExcludingCastle, board)) * ATTACK_MULTIPLIER * (Math.log10(pieceType + 2) + 1);
-                    evaluation -= Long.bitCount(possibleMovesExcludingCastle & Chessboard.CENTER4) * CENTER4_MULTIPLIER;
-                    evaluation -= Long.bitCount(possibleMovesExcludingCastle & Chessboard.CENTER16) * CENTER16_MULTIPLIER;
-                    evaluation -= PIECE_SQUARE_BONUSES[pieceType + 1 - player][currentPositionSerial];
-
-                    opponentsPieceSet -= currentPosition;
+            for (int side = 0; side < 2; side++) {
+                int color = (side == 0) ? player : opponent;
+                int sign = (side == 0) ? 1 : -1;
+                long pieceSet = board.getPieceSet(pieceType + color);
+                while (pieceSet != 0) {
+                    int currentPositionSerial = Square.toSerial(pieceSet);
+                    long attacks = Piece.getAttackedSquares(pieceType + color, currentPositionSerial, board);
+                    attackMaps[color] |= attacks;
+                    pieceSet &= pieceSet - 1;
+                    
+                    long potentialMovesExcludingCastle = Piece.getPotentialMovesExcludingCastle(pieceType + color, currentPositionSerial, board);
+                    long possibleMovesExcludingCastle;
+                    if (pieceType == Chessboard.PAWN) {
+                        possibleMovesExcludingCastle = Piece.getPossibleMovesExcludingCastle(pieceType + color, currentPositionSerial, board, potentialMovesExcludingCastle);
+                    }
+                    else {
+                        possibleMovesExcludingCastle = attacks & ~board.getPiecesOfColor(color);
+                    }
+                    int activity = Long.bitCount(possibleMovesExcludingCastle) * MOBILITY_MULTIPLIER
+                                 + Long.bitCount(possibleMovesExcludingCastle & Chessboard.CENTER4) * CENTER4_MULTIPLIER
+                                 + Long.bitCount(possibleMovesExcludingCastle & Chessboard.CENTER16) * CENTER16_MULTIPLIER;
+                    if (pieceType == Chessboard.KING) {
+                        endgameEvaluation += sign * activity;  // an active king is a liability until the endgame
+                    }
+                    else {
+                        evaluation += sign * activity;
+                    }
+                    // supporting and attacking are counted on the potential moves, and relative to the player to move, for either side's pieces
+                    weightedCounts += sign * Long.bitCount(potentialMovesExcludingCastle & playersPieces) * (long) CONNECTIVITY_WEIGHTS[pieceType / 2];
+                    weightedCounts += sign * Long.bitCount(potentialMovesExcludingCastle & opponentsPieces) * (long) ATTACK_WEIGHTS[pieceType / 2];
                 }
             }
+        }
+        evaluation += (int) (weightedCounts / WEIGHT_SCALE);
+        
+        int kingSafety = evaluateKingSafety(board, player, attackMaps[opponent]) - evaluateKingSafety(board, opponent, attackMaps[player]);
+        middlegameEvaluation += kingSafety * KING_SAFETY_WEIGHT;
+        
+        return scale(evaluation + taper(middlegameEvaluation, endgameEvaluation, phase), materialEntry);
+    }
 
-            // king safety
-            evaluation += evaluateKingSafety(board, player);
-            evaluation -= evaluateKingSafety(board, 1 - player);
+    /**
+     * Evaluates only the cheap terms of evaluateBoard, which decide whether the evaluation may stop early.
+     * Used to measure how far the remaining terms move the score, for choosing LAZY_EVALUATION_MARGIN.
+     * @param board The ZobristBoard to evaluate
+     * @param pawnHashTable The pawn hash table in which to find or store the pawn structure of the board
+     * @return The evaluation of material, piece-square bonuses, the bishop pair and the pawn structure from player's perspective,
+     * or the full evaluation if the position is known from its material
+     */
+    static int evaluateLazily(ZobristBoard board, PawnHashTable pawnHashTable) {
+        int player = board.getCurrentPlayer();
+        int opponent = 1 - player;
+        MaterialEntry materialEntry = MaterialTable.probe(board.getMaterialKey());
+        if (isKnownFromMaterial(board, materialEntry)) {
+            return evaluateFromMaterial(board, materialEntry);
+        }
+        int middlegameEvaluation = board.getMiddlegameBonuses(player) - board.getMiddlegameBonuses(opponent);
+        int endgameEvaluation = board.getEndgameBonuses(player) - board.getEndgameBonuses(opponent);
+        return scale(evaluateMaterialAndPawns(board, pawnHashTable) + taper(middlegameEvaluation, endgameEvaluation, board.getPhase()), materialEntry);
+    }
 
+    /**
+     * Checks whether a board is a known draw or has a specialized evaluator, so that the general evaluation is skipped
+     * @param board The board to evaluate
+     * @param materialEntry The material table entry of the board, or null
+     * @return  True if evaluateFromMaterial gives the evaluation of the board
+     */
+    private static boolean isKnownFromMaterial(ZobristBoard board, MaterialEntry materialEntry) {
+        if (materialEntry != null) {
+            return materialEntry.typeOfEntry != MaterialEntry.TypeOfEntry.SCALED;
         }
-        return evaluation;
+        // more minor pieces than the table covers, which only promotions can give
+        return MaterialTable.hasOnlyMinorPieces(board.getMaterialKey()) && !board.sufficientMaterialToCheckmate();
+    }
+
+    /**
+     * Evaluates a board which is a known draw or has a specialized evaluator
+     * @param board The board to evaluate
+     * @param materialEntry The material table entry of the board, or null for a draw by insufficient material
+     * @return  The evaluation from the perspective of the player to move
+     */
+    private static int evaluateFromMaterial(ZobristBoard board, MaterialEntry materialEntry) {
+        if (materialEntry == null || materialEntry.typeOfEntry == MaterialEntry.TypeOfEntry.DRAW) {
+            return DRAW_VALUE;
+        }
+        int evaluation = EndgameEvaluator.evaluate(materialEntry.endgame, board, materialEntry.strongerColor);
+        if (evaluation == EndgameEvaluator.KNOWN_DRAW) {
+            return DRAW_VALUE;
+        }
+        return (board.getCurrentPlayer() == materialEntry.strongerColor) ? evaluation : -evaluation;
+    }
+
+    /**
+     * Evaluates material, the bishop pair and the pawn structure
+     * @param board The board to evaluate
+     * @param pawnHashTable The pawn hash table in which to find or store the pawn structure of the board
+     * @return  The evaluation from the perspective of the player to move
+     */
+    private static int evaluateMaterialAndPawns(ZobristBoard board, PawnHashTable pawnHashTable) {
+        int player = board.getCurrentPlayer();
+        int opponent = 1 - player;
+        int evaluation = board.getMaterial(player) - board.getMaterial(opponent);
+        if (Long.bitCount(board.getPieceSet(Chessboard.BISHOP + player)) >= 2) {
+            evaluation += DOUBLE_BISHOP_BONUS;
+        }
+        if (Long.bitCount(board.getPieceSet(Chessboard.BISHOP + opponent)) >= 2) {
+            evaluation -= DOUBLE_BISHOP_BONUS;
+        }
+        int pawnStructure = probePawnStructure(board, pawnHashTable);
+        return evaluation + pawnHashTable.getScore(pawnStructure, player) - pawnHashTable.getScore(pawnStructure, opponent);
+    }
+
+    /**
+     * Blends middlegame and endgame scores by the game phase
+     * @param middlegameEvaluation  The score of the terms which matter in the middlegame
+     * @param endgameEvaluation The score of the terms which matter in the endgame
+     * @param phase The game phase, from 0 (only kings and pawns) to ZobristBoard.MAX_PHASE (all pieces)
+     * @return  The blended score
+     */
+    private static int taper(int middlegameEvaluation, int endgameEvaluation, int phase) {
+        return (middlegameEvaluation * phase + endgameEvaluation * (ZobristBoard.MAX_PHASE - phase)) / ZobristBoard.MAX_PHASE;
+    }
+
+    /**
+     * Scales down the evaluation of drawish endings
+     * @param evaluation    The evaluation
+     * @param materialEntry The material table entry of the board, or null
+     * @return  The evaluation scaled by the scale factor of the entry, or unchanged if there is no entry
+     */
+    private static int scale(int evaluation, MaterialEntry materialEntry) {
+        return (materialEntry == null) ? evaluation : evaluation * materialEntry.scaleFactor / MaterialEntry.FULL_SCALE;
     }
 
     /**
@@ -703,9 +1407,10 @@ public class ChessEngine {
      * @param board The Chessboard on which to evaluate the safety of the king
      * @param player The player whose king safety to evaluate (a positive
      * score indicates a relative advantage for this player)
+     * @param opponentsAttackMap The squares attacked by the pieces of player's opponent
      * @return A bonus or penalty for king safety measured in centipawns
      */
-    public static int evaluateKingSafety(Chessboard board, int player) {
+    public static int evaluateKingSafety(Chessboard board, int player, long opponentsAttackMap) {
         int evaluation = 0;
         long kingPosition = board.getPieceSet(Chessboard.KING + player);
         int kingPositionSerial = Square.toSerial(kingPosition);
@@ -721,75 +1426,75 @@ public class ChessEngine {
                 evaluation += ONE_CASTLING_RIGHTS_VALUE;
             }
         }
-        long squaresAdjacentToKing = Chessboard.ADJACENT_SQUARE_BLOCK[kingPositionSerial];
-        while (squaresAdjacentToKing != 0) {
-            int squareSerial = Square.toSerial(squaresAdjacentToKing);
-            if (Square.isAttacked(squareSerial, board, player)) {
-                evaluation -= SQUARE_ADJACENT_TO_KING_ATTACKED_PENALTY;
-            }
-            squaresAdjacentToKing -= Square.toBitwise(squareSerial);
-        }
+        evaluation -= Long.bitCount(Chessboard.ADJACENT_SQUARE_BLOCK[kingPositionSerial] & opponentsAttackMap) * SQUARE_ADJACENT_TO_KING_ATTACKED_PENALTY;
         return evaluation;
     }
     
     
     /**
-     * Calculate relative penalties or bonuses for both players' pawn structure, including passed pawns, doubled and isolated pawns
-     * @param board The board on which to evaluate pawn structure
-     * @param player    The player from whose perspective to evaluate (a positive score indicates a relative advantage for this player)
-     * @return  Relative penalty or bonus for player in centipawns
+     * Finds the pawn structure of a board in the pawn hash table, evaluating it and storing it if it is not there
+     * @param board The board whose pawn structure to find
+     * @param pawnHashTable The pawn hash table
+     * @return  The index of the pawn hash table entry
      */
-    public static int evaluatePawnStructure(Chessboard board, int player) {
-        int score = 0;
-        long playerPawnSet = board.getPieceSet(Chessboard.PAWN + player);
-        long opponentPawnSet = board.getPieceSet(Chessboard.PAWN + 1 - player);
-        
-        long playersPawnsByFile[] = new long[8];
-        long opponentsPawnsByFile[] = new long[8];
-        
-        for (int file = 0; file < 8; file++) {
-            playersPawnsByFile[file] = playerPawnSet & Chessboard.FILES[file];
-            opponentsPawnsByFile[file] = opponentPawnSet & Chessboard.FILES[file];
+    private static int probePawnStructure(ZobristBoard board, PawnHashTable pawnHashTable) {
+        long pawnKey = board.getPawnHashValue();
+        int index = pawnHashTable.probe(pawnKey);
+        if (index != PawnHashTable.NOT_FOUND) {
+            return index;
         }
-        
+        long whitePawns = board.getPieceSet(Chessboard.PAWN + Chessboard.WHITE);
+        long blackPawns = board.getPieceSet(Chessboard.PAWN + Chessboard.BLACK);
+        return pawnHashTable.store(pawnKey, evaluatePawnStructure(whitePawns, getPassedPawns(whitePawns, blackPawns, Chessboard.WHITE)),
+                                   evaluatePawnStructure(blackPawns, getPassedPawns(blackPawns, whitePawns, Chessboard.BLACK)));
+    }
+    
+    /**
+     * Calculates penalties and bonuses for one side's pawn structure, including passed pawns, doubled and isolated pawns
+     * @param pawns The side's pawns
+     * @param passedPawns   The side's passed pawns
+     * @return  Penalty or bonus in centipawns
+     */
+    public static int evaluatePawnStructure(long pawns, long passedPawns) {
+        int score = 0;
         for (int file = 0; file < 8; file++) {
+            int pawnsOnFile = Long.bitCount(pawns & Chessboard.FILES[file]);
+            if (pawnsOnFile == 0) {
+                continue;
+            }
             // penalty for doubled pawns
-            score -= Math.max(Long.bitCount(playersPawnsByFile[file]) - 1, 0) * DOUBLED_PAWN_PENALTY;
-            score += Math.max(Long.bitCount(opponentsPawnsByFile[file]) - 1, 0) * DOUBLED_PAWN_PENALTY;
-
-            // penalty for isolated pawns
-            if ((file == 0 || Long.bitCount(playersPawnsByFile[file - 1]) == 0) && 
-                              Long.bitCount(playersPawnsByFile[file])     >  0 && 
-                (file == 7 || Long.bitCount(playersPawnsByFile[file + 1]) == 0)) {
+            score -= (pawnsOnFile - 1) * DOUBLED_PAWN_PENALTY;
+            // penalty for isolated pawns, once per file
+            if ((pawns & ADJACENT_FILES[file]) == 0) {
                 score -= ISOLATED_PAWN_PENALTY;
             }
-            if ((file == 0 || Long.bitCount(opponentsPawnsByFile[file - 1]) == 0) && 
-                              Long.bitCount(opponentsPawnsByFile[file])     >  0 && 
-                (file == 7 || Long.bitCount(opponentsPawnsByFile[file + 1]) == 0)) {
-                score += ISOLATED_PAWN_PENALTY;
-            }
-       
-            // bonus for passed pawns
-            if (Long.bitCount(playersPawnsByFile[file]) > 0) {
-                int pawnRank = Square.getRank(Square.toSerial(playersPawnsByFile[file]));
-                if ((file == 0 || Long.bitCount(opponentsPawnsByFile[file - 1] & Chessboard.RANKS_AHEAD[player][pawnRank]) == 0) && 
-                                  Long.bitCount(opponentsPawnsByFile[file]     & Chessboard.RANKS_AHEAD[player][pawnRank]) == 0  &&
-                    (file == 7 || Long.bitCount(opponentsPawnsByFile[file + 1] & Chessboard.RANKS_AHEAD[player][pawnRank]) == 0)) {
-                    score += PASSED_PAWN_BONUS;
-                }
-            }
-            if (Long.bitCount(opponentsPawnsByFile[file]) > 0) {
-                int pawnRank = Square.getRank(Square.toSerial(opponentsPawnsByFile[file]));
-                if ((file == 0 || Long.bitCount(playersPawnsByFile[file - 1] & Chessboard.RANKS_AHEAD[1 - player][pawnRank]) == 0) && 
-                                  Long.bitCount(playersPawnsByFile[file]     & Chessboard.RANKS_AHEAD[1 - player][pawnRank]) == 0  &&
-                    (file == 7 || Long.bitCount(playersPawnsByFile[file + 1] & Chessboard.RANKS_AHEAD[1 - player][pawnRank]) == 0)) {
-                    score += PASSED_PAWN_BONUS;
-                }
-            }
         }
-        
+        // bonus for passed pawns
+        score += Long.bitCount(passedPawns) * PASSED_PAWN_BONUS;
         return score;
     }
+    
+    /**
+     * Finds the passed pawns of one side: those with no opposing pawns ahead on the same or adjacent files, and no pawn of the same side ahead on the same file
+     * @param pawns The side's pawns
+     * @param opposingPawns The other side's pawns
+     * @param color The color of the side, either the constant WHITE or BLACK
+     * @return  Bitboard of the passed pawns
+     */
+    public static long getPassedPawns(long pawns, long opposingPawns, int color) {
+        long passedPawns = 0;
+        long remainingPawns = pawns;
+        while (remainingPawns != 0) {
+            int pawnSerial = Square.toSerial(remainingPawns);
+            int file = Square.getFile(pawnSerial);
+            long ranksAhead = Chessboard.RANKS_AHEAD[color][Square.getRank(pawnSerial)];
+            if ((opposingPawns & (Chessboard.FILES[file] | ADJACENT_FILES[file]) & ranksAhead) == 0 && (pawns & Chessboard.FILES[file] & ranksAhead) == 0) {
+                passedPawns |= Long.lowestOneBit(remainingPawns);
+            }
+            remainingPawns &= remainingPawns - 1;
+        }
+        return passedPawns;
+    }
 
     /**
      * Repaints the search board.
@@ -804,7 +1509,7 @@ public class ChessEngine {
      * @param transpositionFields   The results of a transposition table search of the current position
      */
     private void putBestMoveFirst(ArrayList<Move> possibleMoves, TranspositionFields transpositionFields) {
-        if (transpositionFields != null) {
+        if (transpositionFields != null && transpositionFields.bestMove != null) {
             Move bestMove = transpositionFields.bestMove;
             for (Move move : possibleMoves) {
                 if (move.equals(bestMove)) {
@@ -827,8 +1532,42 @@ public class ChessEngine {
     private void updateTranspositionTable(int moveValue, int depth, Move bestMove, TypeOfScore typeOfScore) { 
         transpositionFields = transpositionTable.get(searchBoard.hashValue);
         if (transpositionFields == null || transpositionFields.depth <= depth) {
-            transpositionTable.put(searchBoard.hashValue, new TranspositionFields(moveValue, depth, bestMove, transpositionTable.getSerial(), typeOfScore));
+            int score = scoreToTranspositionTable(moveValue, searchBoard.getPly() - rootBoard.getPly());
+            transpositionTable.put(searchBoard.hashValue, new TranspositionFields(score, depth, bestMove, transpositionTable.getSerial(), typeOfScore));
+        }
+    }
+    
+    /**
+     * Converts a checkmate score relative to the search root into a score relative to the current position, so that it is
+     * independent of the ply at which the position is reached when stored in the transposition table.  Other scores are unchanged.
+     * @param score The score relative to the search root
+     * @param currentDepth  The depth in ply of the current position from the search root
+     * @return  The score relative to the current position
+     */
+    private static int scoreToTranspositionTable(int score, int currentDepth) {
+        if (score >= CHECKMATE_THRESHOLD) {
+            return score + currentDepth;
+        }
+        if (score <= -CHECKMATE_THRESHOLD) {
+            return score - currentDepth;
         }
+        return score;
+    }
+    
+    /**
+     * Converts a checkmate score read from the transposition table back into a score relative to the search root.  Other scores are unchanged.
+     * @param score The score relative to the position, as stored in the transposition table
+     * @param currentDepth  The depth in ply of the current position from the search root
+     * @return  The score relative to the search root
+     */
+    private static int scoreFromTranspositionTable(int score, int currentDepth) {
+        if (score >= CHECKMATE_THRESHOLD) {
+            return score - currentDepth;
+        }
+        if (score <= -CHECKMATE_THRESHOLD) {
+            return score + currentDepth;
+        }
+        return score;
     }
 }
 
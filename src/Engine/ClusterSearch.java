@@ -0,0 +1,519 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.InvalidFENException;
+import com.circumspectus.ChessApplication.InvalidMoveException;
+import com.circumspectus.ChessApplication.Move;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * The coordinator of a search split between worker processes (see ClusterWorker), on one host or several.  Each iteration of
+ * the iterative deepening first searches the best move of the last iteration on one worker, then divides the other root moves
+ * between the workers, the best in the last iteration first and dealt round-robin, and searches each share to the iteration's
+ * depth on its worker at the same time, only as far as needed to show that they are no better than the first move (as Young
+ * Brothers Wait splits a node once its eldest move is searched).  The best move is the best of the moves returned, with the nodes
+ * being the sum over the workers.  After each iteration the entries each worker stored at its export depth or deeper are sent to
+ * all the other workers in one batch, so that a worker reaching a position already searched by another reuses the result.
+ * Running main with -spawn starts the workers as processes on this host, and -scaling measures the speedup of one worker to all.
+ * @author Christopher Stieg
+ */
+public class ClusterSearch implements Closeable {
+    private static final int DEFAULT_DEPTH = 6;
+    private static final int DEFAULT_HASH = 64;  // megabytes of transposition table of each spawned worker
+    private static final String DEFAULT_FEN = "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP3PPP/R2QKB1R w KQ - 0 8";
+    private final List<WorkerConnection> workers = new ArrayList<>();
+    private final ExecutorService dispatchThreads;  // one thread per worker, waiting for its reply
+    private final ZobristHashing zobristHashing = new ZobristHashing();
+
+    /**
+     * Constructor for ClusterSearch, connecting to running workers
+     * @param addresses The addresses of the workers
+     * @throws IOException  If a worker cannot be reached
+     */
+    public ClusterSearch(List<? extends SocketAddress> addresses) throws IOException {
+        try {
+            for (SocketAddress address : addresses) {
+                workers.add(new WorkerConnection(address));
+            }
+        } catch (IOException ioe) {
+            for (WorkerConnection worker : workers) {
+                worker.close();
+            }
+            throw ioe;
+        }
+        dispatchThreads = Executors.newFixedThreadPool(Math.max(1, workers.size()), runnable -> {
+            Thread thread = new Thread(runnable, "Cluster dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the number of workers connected
+     * @return  The number of workers
+     */
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * Clears the tables of every worker, so that the next search does not reuse the results of the last
+     * @throws IOException  If a worker fails
+     */
+    public void newGame() throws IOException {
+        for (WorkerConnection worker : workers) {
+            worker.expect("newgame", "ok");
+        }
+    }
+
+    /**
+     * Searches a position by iterative deepening with the first workers
+     * @param fen   The position in Forsyth-Edwards notation
+     * @param moves The moves played from the position in coordinate notation, to search the position they lead to
+     * @param maxDepth  The depth in ply of the last iteration
+     * @param workerCount   The number of workers to use, from the first connected; at most getWorkerCount()
+     * @param iterationListener Receives the result of each completed iteration, with the time and nodes since the start; may be null
+     * @return  The result of the last iteration; the best move is null if there is no legal move
+     * @throws IOException  If a worker fails
+     * @throws InvalidFENException  If the position is not valid
+     * @throws InvalidMoveException If a move is not legal
+     */
+    public SearchResult search(String fen, List<String> moves, int maxDepth, int workerCount, Consumer<SearchResult> iterationListener)
+            throws IOException, InvalidFENException, InvalidMoveException {
+        if (workerCount < 1 || workerCount > workers.size()) {
+            throw new IllegalArgumentException("Between 1 and " + workers.size() + " workers may be used: " + workerCount);
+        }
+        ZobristBoard board = new ZobristBoard(fen, zobristHashing);
+        for (String move : moves) {
+            board.move(UCIDriver.parseMove(board, move));
+        }
+        List<String> rootMoves = new ArrayList<>();
+        for (Move move : board.getLegalMoves(board.getCurrentPlayer())) {
+            rootMoves.add(move.getCoordinateMovetext());
+        }
+        String position = "position fen " + fen + (moves.isEmpty() ? "" : " moves " + String.join(" ", moves));
+        List<WorkerConnection> active = workers.subList(0, workerCount);
+        for (WorkerConnection worker : active) {
+            worker.expect(position, "ok");
+        }
+
+        long startTime = System.currentTimeMillis();
+        long nodes = 0;
+        SearchResult result = new SearchResult(null, board.isInCheck(board.getCurrentPlayer()) ? -ChessEngine.CHECKMATE_VALUE : 0, 0, 0, 0);
+        for (int depth = 1; depth <= maxDepth && !rootMoves.isEmpty(); depth++) {
+            // the likeliest best move is searched first, alone, and its score bounds the searches of the rest
+            List<WorkerResult> workerResults = new ArrayList<>(dispatch(active.subList(0, 1), List.of(rootMoves.subList(0, 1)), depth, null));
+            List<String> remainingMoves = rootMoves.subList(1, rootMoves.size());
+            if (!remainingMoves.isEmpty()) {
+                List<List<String>> shares = new ArrayList<>();
+                for (int i = 0; i < Math.min(workerCount, remainingMoves.size()); i++) {
+                    shares.add(new ArrayList<>());
+                }
+                for (int i = 0; i < remainingMoves.size(); i++) {
+                    shares.get(i % shares.size()).add(remainingMoves.get(i));
+                }
+                workerResults.addAll(dispatch(active.subList(0, shares.size()), shares, depth, workerResults.get(0).score));
+            }
+
+            // the sort is stable, so the first move stays best against moves which failed low at its score
+            workerResults.sort(Comparator.comparingInt((WorkerResult workerResult) -> workerResult.score).reversed());
+            for (WorkerResult workerResult : workerResults) {
+                nodes += workerResult.nodes;
+            }
+            WorkerResult best = workerResults.get(0);
+            exchangeEntries(active, workerResults);
+
+            List<String> ordered = new ArrayList<>();  // the best move of each share, best first, then the rest in the last order
+            for (WorkerResult workerResult : workerResults) {
+                if (rootMoves.contains(workerResult.bestMove)) {
+                    ordered.add(workerResult.bestMove);
+                }
+            }
+            for (String move : rootMoves) {
+                if (!ordered.contains(move)) {
+                    ordered.add(move);
+                }
+            }
+            rootMoves = ordered;
+            result = new SearchResult(UCIDriver.parseMove(board, best.bestMove), best.score, depth, nodes, System.currentTimeMillis() - startTime);
+            if (iterationListener != null) {
+                iterationListener.accept(result);
+            }
+            if (Math.abs(best.score) >= ChessEngine.CHECKMATE_THRESHOLD) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends each share of the root moves to its worker and waits for all the results
+     * @param active    The workers, one per share
+     * @param shares    The root moves of each worker in coordinate notation
+     * @param depth The depth of the iteration in ply
+     * @param lowerBound    The score the moves must exceed to be exact, or null for none
+     * @return  The result of each worker, in the order of the shares
+     * @throws IOException  If a worker fails
+     */
+    private List<WorkerResult> dispatch(List<WorkerConnection> active, List<List<String>> shares, int depth, Integer lowerBound) throws IOException {
+        List<Future<WorkerResult>> futures = new ArrayList<>();
+        for (int i = 0; i < shares.size(); i++) {
+            WorkerConnection worker = active.get(i);
+            String command = "search depth " + depth + (lowerBound == null ? "" : " above " + lowerBound) + " moves " + String.join(" ", shares.get(i));
+            futures.add(dispatchThreads.submit(() -> worker.search(command)));
+        }
+        List<WorkerResult> results = new ArrayList<>();
+        for (Future<WorkerResult> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    /**
+     * Sends every worker the entries exported by the other workers in the last iteration
+     * @param active    The workers of the search
+     * @param workerResults The results of the last iteration, holding the exported entries
+     * @throws IOException  If a worker fails
+     */
+    private void exchangeEntries(List<WorkerConnection> active, List<WorkerResult> workerResults) throws IOException {
+        List<Future<WorkerResult>> futures = new ArrayList<>();
+        for (WorkerConnection worker : active) {
+            List<String> batch = new ArrayList<>();
+            for (WorkerResult workerResult : workerResults) {
+                if (workerResult.worker != worker) {
+                    batch.addAll(workerResult.entries);
+                }
+            }
+            if (!batch.isEmpty()) {
+                futures.add(dispatchThreads.submit(() -> {
+                    worker.sendEntries(batch);
+                    return null;
+                }));
+            }
+        }
+        for (Future<WorkerResult> future : futures) {
+            await(future);
+        }
+    }
+
+    /**
+     * Waits for a reply from a worker
+     * @param future    The task waiting for the reply
+     * @return  The result of the task
+     * @throws IOException  If the worker failed
+     */
+    private static WorkerResult await(Future<WorkerResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            throw ee.getCause() instanceof IOException ? (IOException) ee.getCause() : new IOException(ee.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a worker", ie);
+        }
+    }
+
+    /**
+     * Tells the workers to close their connections, and closes them
+     */
+    @Override
+    public void close() {
+        for (WorkerConnection worker : workers) {
+            worker.close();
+        }
+        dispatchThreads.shutdownNow();
+    }
+
+    /**
+     * Starts worker processes on this host, with the Java runtime and class path of this process, and waits for their ports
+     * @param count The number of workers
+     * @param hashMegabytes The memory budget in megabytes of the transposition table of each worker
+     * @param processes Receives the processes started, to destroy when done
+     * @return  The loopback addresses of the workers
+     * @throws IOException  If a worker fails to start
+     */
+    public static List<InetSocketAddress> spawnWorkers(int count, int hashMegabytes, List<Process> processes) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), ClusterWorker.class.getName(),
+                    "-port", "0", "-hash", Integer.toString(hashMegabytes)).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            processes.add(process);
+            String line = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+            if (line == null || !line.startsWith("port ")) {
+                throw new IOException("Worker " + (i + 1) + " did not start: " + line);
+            }
+            addresses.add(new InetSocketAddress("127.0.0.1", Integer.parseInt(line.substring(5).trim())));
+        }
+        return addresses;
+    }
+
+    /**
+     * Runs a cluster search, printing the depth, best move, score, nodes, time and nodes per second of each iteration.  With
+     * -scaling, the search is repeated with 1 worker up to all of them, each from cleared tables, and the time to each depth and
+     * the nodes per second are compared.
+     * Run with the arguments: (-spawn &lt;count&gt; | -workers &lt;host:port&gt;[,&lt;host:port&gt;...]) [-depth &lt;ply&gt;] [-hash &lt;megabytes&gt;]
+     * [-fen "&lt;FEN&gt;"] [-moves "&lt;move&gt; ..."] [-scaling]
+     * @param args  The command line arguments (see above)
+     * @throws Exception    If a worker fails, or the position or a move is not valid
+     */
+    public static void main(String[] args) throws Exception {
+        int spawn = 0;
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        int maxDepth = DEFAULT_DEPTH;
+        int hashMegabytes = DEFAULT_HASH;
+        String fen = DEFAULT_FEN;
+        List<String> moves = new ArrayList<>();
+        boolean scaling = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-spawn":
+                    spawn = Integer.parseInt(args[++i]);
+                    break;
+                case "-workers":
+                    for (String worker : args[++i].split(",")) {
+                        int colon = worker.lastIndexOf(':');
+                        addresses.add(new InetSocketAddress(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1))));
+                    }
+                    break;
+                case "-depth":
+                    maxDepth = Integer.parseInt(args[++i]);
+                    break;
+                case "-hash":
+                    hashMegabytes = Integer.parseInt(args[++i]);
+                    break;
+                case "-fen":
+                    fen = args[++i];
+                    break;
+                case "-moves":
+                    moves = List.of(args[++i].trim().split("\\s+"));
+                    break;
+                case "-scaling":
+                    scaling = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        List<Process> processes = new ArrayList<>();
+        try {
+            addresses.addAll(spawnWorkers(spawn, hashMegabytes, processes));
+            if (addresses.isEmpty()) {
+                throw new IllegalArgumentException("No workers: give -spawn <count> or -workers <host:port>,...");
+            }
+            try (ClusterSearch cluster = new ClusterSearch(addresses)) {
+                int workerCount = cluster.getWorkerCount();
+                List<long[]> timesToDepth = new ArrayList<>();  // by number of workers, the time in milliseconds to complete each depth
+                List<SearchResult> results = new ArrayList<>();
+                for (int count = scaling ? 1 : workerCount; count <= workerCount; count++) {
+                    cluster.newGame();
+                    long[] times = new long[maxDepth + 1];
+                    System.out.println(count + (count == 1 ? " worker" : " workers"));
+                    SearchResult result = cluster.search(fen, moves, maxDepth, count, iteration -> {
+                        times[iteration.depth] = iteration.time;
+                        System.out.println(String.format("  depth %2d  %-6s score %-10s nodes %10d  time %7d ms  %8d nps",
+                                iteration.depth, iteration.bestMove.getCoordinateMovetext(), UCIDriver.formatScore(iteration.score),
+                                iteration.nodes, iteration.time, nodesPerSecond(iteration)));
+                    });
+                    timesToDepth.add(times);
+                    results.add(result);
+                }
+                if (scaling) {
+                    printScaling(timesToDepth, results);
+                }
+            }
+        }
+        finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Prints the time to each depth and the speedup for each number of workers, relative to one worker
+     * @param timesToDepth  By number of workers from 1, the time in milliseconds to complete each depth
+     * @param results   By number of workers from 1, the result of the search
+     */
+    private static void printScaling(List<long[]> timesToDepth, List<SearchResult> results) {
+        System.out.println("Time to depth in ms");
+        StringBuilder header = new StringBuilder("  depth");
+        for (int count = 1; count <= results.size(); count++) {
+            header.append(String.format(" %9s", count + "w"));
+        }
+        System.out.println(header);
+        int maxDepth = timesToDepth.get(0).length - 1;
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            StringBuilder row = new StringBuilder(String.format("  %5d", depth));
+            for (long[] times : timesToDepth) {
+                row.append(String.format(" %9s", times[depth] == 0 && depth > 1 ? "-" : Long.toString(times[depth])));
+            }
+            System.out.println(row);
+        }
+        SearchResult single = results.get(0);
+        System.out.println("workers  depth  nodes/s     nodes/s speedup  time-to-depth speedup");
+        for (int count = 1; count <= results.size(); count++) {
+            SearchResult result = results.get(count - 1);
+            System.out.println(String.format("%7d  %5d  %10d  %15.2f  %21.2f", count, result.depth, nodesPerSecond(result),
+                    (double) nodesPerSecond(result) / Math.max(1, nodesPerSecond(single)),
+                    result.depth == single.depth ? (double) single.time / Math.max(1, result.time) : Double.NaN));
+        }
+    }
+
+    /**
+     * Gets the rate of search of a result
+     * @param result    The result
+     * @return  The nodes searched per second over all workers
+     */
+    private static long nodesPerSecond(SearchResult result) {
+        return result.nodes * 1000 / Math.max(1, result.time);
+    }
+
+    /**
+     * A tuple of the reply of a worker to a search command
+     */
+    private static class WorkerResult {
+        final WorkerConnection worker;
+        final String bestMove;  // in coordinate notation
+        final int score;
+        final long nodes;
+        final List<String> entries;  // the entry lines exported by the worker
+
+        /**
+         * Constructor for WorkerResult
+         * @param worker    The worker which searched
+         * @param bestMove  The best of the moves searched, in coordinate notation
+         * @param score The score of the best move
+         * @param nodes The nodes searched
+         * @param entries   The entry lines exported by the worker
+         */
+        WorkerResult(WorkerConnection worker, String bestMove, int score, long nodes, List<String> entries) {
+            this.worker = worker;
+            this.bestMove = bestMove;
+            this.score = score;
+            this.nodes = nodes;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * The connection to a worker, used by one thread at a time
+     */
+    private static class WorkerConnection implements Closeable {
+        private final SocketAddress address;
+        private final SocketChannel channel;
+        private final BufferedReader in;
+        private final PrintWriter out;
+
+        /**
+         * Constructor for WorkerConnection
+         * @param address   The address of the worker
+         * @throws IOException  If the worker cannot be reached
+         */
+        WorkerConnection(SocketAddress address) throws IOException {
+            this.address = address;
+            channel = SocketChannel.open(address);
+            in = new BufferedReader(Channels.newReader(channel, StandardCharsets.US_ASCII));
+            out = new PrintWriter(Channels.newWriter(channel, StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * Sends a command and checks its reply
+         * @param command   The command
+         * @param expectedReply The reply of success
+         * @throws IOException  If the connection fails or the reply is another
+         */
+        void expect(String command, String expectedReply) throws IOException {
+            out.println(command);
+            out.flush();
+            String reply = readLine();
+            if (!reply.equals(expectedReply)) {
+                throw new IOException("Worker " + address + " replied to \"" + command + "\": " + reply);
+            }
+        }
+
+        /**
+         * Sends a search command and reads the result and exported entries
+         * @param command   The search command
+         * @return  The result
+         * @throws IOException  If the connection fails or the worker replies with an error
+         */
+        WorkerResult search(String command) throws IOException {
+            out.println(command);
+            out.flush();
+            String reply = readLine();
+            String[] tokens = reply.split(" ");
+            if (!tokens[0].equals("result")) {
+                throw new IOException("Worker " + address + " replied to \"" + command + "\": " + reply);
+            }
+            String header = readLine();
+            int count = Integer.parseInt(header.substring("tt ".length()));
+            List<String> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(readLine());
+            }
+            return new WorkerResult(this, tokens[1], Integer.parseInt(tokens[2]), Long.parseLong(tokens[3]), entries);
+        }
+
+        /**
+         * Sends a batch of entries for the worker to import
+         * @param entries   The entry lines
+         * @throws IOException  If the connection fails or the worker replies with an error
+         */
+        void sendEntries(List<String> entries) throws IOException {
+            out.println("tt " + entries.size());
+            for (String entry : entries) {
+                out.println(entry);
+            }
+            out.flush();
+            String reply = readLine();
+            if (!reply.equals("ok")) {
+                throw new IOException("Worker " + address + " replied to a batch of entries: " + reply);
+            }
+        }
+
+        /**
+         * Reads a line from the worker
+         * @return  The line
+         * @throws IOException  If the connection fails or the worker closed it
+         */
+        private String readLine() throws IOException {
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("Worker " + address + " closed the connection");
+            }
+            return line;
+        }
+
+        /**
+         * Sends quit and closes the connection, ignoring failures
+         */
+        @Override
+        public void close() {
+            out.println("quit");
+            out.flush();
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // the connection is being abandoned
+            }
+        }
+    }
+}
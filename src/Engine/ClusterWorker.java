@@ -0,0 +1,254 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.ChessApplication.InvalidFENException;
+import com.circumspectus.ChessApplication.InvalidMoveException;
+import com.circumspectus.ChessApplication.Move;
+import com.circumspectus.Engine.TranspositionFields.TypeOfScore;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A worker process of a cluster search (see ClusterSearch), which searches the root moves given to it by the coordinator on an
+ * engine of its own, and exchanges its deep transposition table entries with the other workers through the coordinator.
+ * It serves one coordinator connection at a time over TCP, with one command per line:
+ * <pre>
+ *     newgame                                          clears the engine's tables; answered with ok
+ *     position (startpos | fen &lt;FEN&gt;) [moves &lt;move&gt;...]   sets the root position; answered with ok or error
+ *     tt &lt;count&gt;                                      followed by count entry lines to import; answered with ok
+ *     search depth &lt;ply&gt; [nodes &lt;count&gt;] [above &lt;score&gt;] moves &lt;move&gt;...   searches the given root moves
+ *     quit
+ * </pre>
+ * A search is answered with "result &lt;best move&gt; &lt;score&gt; &lt;nodes&gt; &lt;milliseconds&gt;", followed by "tt &lt;count&gt;" and the
+ * entry lines stored at no less than the export depth during the search.  With above, the score is only exact if it exceeds the
+ * given score, as for ChessEngine.setRootLowerBound.  A search runs the single iteration of the given depth, since the coordinator
+ * has the shallower ones searched before it.  Moves are in coordinate notation.  An entry line holds
+ * the hash value, depth, score, type of score and best move of an entry (see formatEntry); since the Zobrist keys are generated
+ * from a fixed seed, hash values are the same in every process.
+ * @author Christopher Stieg
+ */
+public class ClusterWorker {
+    private static final int DEFAULT_HASH = 256;  // megabytes of transposition table
+    private static final int DEFAULT_EXPORT_DEPTH = 3;  // the least remaining depth in ply of the entries shared
+    private static final Chessboard IMPORT_BOARD = new Chessboard();  // the board to which the best moves of imported entries are bound; only their squares are used
+    private final ZobristHashing hasher = new ZobristHashing();
+    private final ChessEngine engine;
+    private ZobristBoard board;  // the root position
+
+    /**
+     * Constructor for ClusterWorker
+     * @param hashMegabytes The memory budget in megabytes of the transposition table
+     * @param exportDepth   The least remaining depth in ply of the entries sent to the coordinator after a search
+     */
+    public ClusterWorker(int hashMegabytes, int exportDepth) {
+        board = new ZobristBoard(hasher);
+        engine = new ChessEngine(board, board.getClone(), new TranspositionTable(TranspositionTable.getEntriesForMegabytes(hashMegabytes)), Runnable::run);
+        engine.setOpeningBookEnabled(false);
+        engine.getTranspositionTable().setExportDepth(exportDepth);
+    }
+
+    /**
+     * Answers the commands of a coordinator connection until it quits or disconnects
+     * @param channel   The channel of the connection
+     * @throws IOException  If the connection fails
+     */
+    public void serve(SocketChannel channel) throws IOException {
+        try (channel;
+                BufferedReader in = new BufferedReader(Channels.newReader(channel, StandardCharsets.US_ASCII));
+                PrintWriter out = new PrintWriter(Channels.newWriter(channel, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                switch (tokens[0]) {
+                    case "newgame":
+                        engine.newGame(board);
+                        engine.setOpeningBookEnabled(false);
+                        out.println("ok");
+                        break;
+                    case "position":
+                        out.println(setPosition(tokens));
+                        break;
+                    case "tt":
+                        importEntries(in, Integer.parseInt(tokens[1]));
+                        out.println("ok");
+                        break;
+                    case "search":
+                        search(tokens, out);
+                        break;
+                    case "quit":
+                        return;
+                    default:
+                        out.println("error Unknown command " + tokens[0]);
+                }
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Executes the position command
+     * @param tokens    The tokens of the command
+     * @return  The reply: ok, or error followed by a message
+     */
+    private String setPosition(String[] tokens) {
+        List<String> tokenList = Arrays.asList(tokens);
+        int movesIndex = tokenList.indexOf("moves");
+        int end = movesIndex < 0 ? tokens.length : movesIndex;
+        try {
+            ZobristBoard newBoard;
+            if (tokens.length > 1 && tokens[1].equals("startpos")) {
+                newBoard = new ZobristBoard(hasher);
+            }
+            else if (tokens.length > 2 && tokens[1].equals("fen")) {
+                newBoard = new ZobristBoard(String.join(" ", tokenList.subList(2, end)), hasher);
+            }
+            else {
+                return "error Expected: position (startpos | fen <FEN>) [moves <move>...]";
+            }
+            for (int i = end + 1; i < tokens.length; i++) {
+                newBoard.move(UCIDriver.parseMove(newBoard, tokens[i]));
+            }
+            board = newBoard;
+            engine.setBoard(board);
+            return "ok";
+        } catch (InvalidFENException | InvalidMoveException e) {
+            return "error " + e.getMessage();
+        }
+    }
+
+    /**
+     * Executes the search command, searching the given root moves and sending the result and the entries to share
+     * @param tokens    The tokens of the command
+     * @param out   The writer of the reply
+     */
+    private void search(String[] tokens, PrintWriter out) {
+        int depth = SearchLimits.UNLIMITED;
+        long nodes = SearchLimits.UNLIMITED;
+        int lowerBound = Integer.MIN_VALUE + 1;
+        List<Move> searchMoves = new ArrayList<>();
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                if (tokens[i].equals("depth")) {
+                    depth = Integer.parseInt(tokens[++i]);
+                }
+                else if (tokens[i].equals("above")) {
+                    lowerBound = Integer.parseInt(tokens[++i]);
+                }
+                else if (tokens[i].equals("nodes")) {
+                    nodes = Long.parseLong(tokens[++i]);
+                }
+                else if (tokens[i].equals("moves")) {
+                    while (i + 1 < tokens.length) {
+                        searchMoves.add(UCIDriver.parseMove(board, tokens[++i]));
+                    }
+                }
+            }
+        } catch (InvalidMoveException | NumberFormatException e) {
+            out.println("error " + e.getMessage());
+            return;
+        }
+        engine.setSearchMoves(searchMoves);
+        engine.setRootLowerBound(lowerBound);
+        // the coordinator deepens iteration by iteration, so only the requested depth is searched, ordered by the table entries of the shallower ones
+        SearchResult result = engine.search(new SearchLimits(depth, depth, nodes, SearchLimits.UNLIMITED), new StopToken(), null).join();
+        out.println("result " + (result.bestMove == null ? "0000" : result.bestMove.getCoordinateMovetext()) + " " + result.score
+                + " " + result.nodes + " " + result.time);
+        Map<Long, TranspositionFields> exports = engine.getTranspositionTable().drainExports();
+        out.println("tt " + exports.size());
+        for (Map.Entry<Long, TranspositionFields> entry : exports.entrySet()) {
+            out.println(formatEntry(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * Reads entry lines and imports them into the transposition table
+     * @param in    The reader of the connection
+     * @param count The number of entry lines
+     * @throws IOException  If the connection fails or closes
+     */
+    private void importEntries(BufferedReader in, int count) throws IOException {
+        TranspositionTable transpositionTable = engine.getTranspositionTable();
+        for (int i = 0; i < count; i++) {
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("Connection closed in a batch of entries");
+            }
+            String[] fields = line.split(" ");
+            Move bestMove = null;
+            int pieceTypeColor = Integer.parseInt(fields[4]);
+            if (pieceTypeColor >= 0) {
+                bestMove = new Move(Integer.parseInt(fields[7]), Integer.parseInt(fields[5]), Integer.parseInt(fields[6]), pieceTypeColor, IMPORT_BOARD);
+            }
+            transpositionTable.importEntry(Long.parseLong(fields[0]), new TranspositionFields(Integer.parseInt(fields[2]), Integer.parseInt(fields[1]),
+                    bestMove, 0, TypeOfScore.values()[Integer.parseInt(fields[3])]));
+        }
+    }
+
+    /**
+     * Formats a transposition table entry as an entry line: hash value, depth, score, type of score (ordinal), and the piece type
+     * and color, origin, destination and ply of the best move, the piece type and color being -1 if there is none
+     * @param hashValue The hash value of the position
+     * @param fields    The entry
+     * @return  The entry line
+     */
+    static String formatEntry(long hashValue, TranspositionFields fields) {
+        Move bestMove = fields.bestMove;
+        return hashValue + " " + fields.depth + " " + fields.score + " " + fields.typeOfScore.ordinal() + " "
+                + (bestMove == null ? "-1 0 0 0" : bestMove.getPieceTypeColor() + " " + bestMove.getOriginSerial() + " "
+                        + bestMove.getDestinationSerial() + " " + bestMove.getPly());
+    }
+
+    /**
+     * Runs a worker on the loopback address or all interfaces, serving one coordinator at a time.  The port is written to
+     * standard output as "port &lt;port&gt;" once the socket is bound.
+     * @param args  [-port &lt;port, 0 for any&gt;] [-bind &lt;address&gt;] [-hash &lt;megabytes&gt;] [-exportdepth &lt;ply&gt;]
+     * @throws IOException  If the socket cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 0;
+        String bindAddress = "127.0.0.1";
+        int hashMegabytes = DEFAULT_HASH;
+        int exportDepth = DEFAULT_EXPORT_DEPTH;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "-bind":
+                    bindAddress = args[++i];
+                    break;
+                case "-hash":
+                    hashMegabytes = Integer.parseInt(args[++i]);
+                    break;
+                case "-exportdepth":
+                    exportDepth = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        ClusterWorker worker = new ClusterWorker(hashMegabytes, exportDepth);
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(bindAddress, port));
+            System.out.println("port " + ((InetSocketAddress) serverChannel.getLocalAddress()).getPort());
+            System.out.flush();
+            while (true) {
+                try {
+                    worker.serve(serverChannel.accept());
+                } catch (IOException ioe) {
+                    System.err.println("Coordinator connection failed: " + ioe);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.ChessApplication.Piece;
+import com.circumspectus.ChessApplication.Square;
+
+/**
+ * A cuckoo hash table of the Zobrist keys of all reversible moves (moves of kings, queens, rooks, bishops and knights between two squares,
+ * on an empty board), used to detect in constant time whether the player to move can return to an earlier position with one move.
+ * The key of a move is the XOR of the piece-square hash values of its origin and destination and of the turn to move hash value,
+ * so the XOR of the hash values of two positions which differ by one reversible move is the key of that move.
+ * A move and its reverse have the same key, and are stored once.
+ * Each key is stored in one of two slots given by two hash functions, and displaces the previous occupant to its alternate slot when inserted.
+ * @author Christopher Stieg
+ */
+public class CuckooTable {
+    private static final int SIZE = 8192;  // must be a power of 2, more than twice the 3668 reversible moves
+    private static final int INDEX_MASK = SIZE - 1;
+    private static final int NO_MOVE = -1;
+
+    private final long keys[];
+    private final int originSerials[];
+    private final int destinationSerials[];
+    private final long squaresBetween[];  // squares which must be empty for the move to be possible
+
+    /**
+     * Constructor for CuckooTable which inserts every reversible move
+     * @param hasher    Hash value generator object whose hash values to use
+     */
+    public CuckooTable(ZobristHashing hasher) {
+        keys = new long[SIZE];
+        originSerials = new int[SIZE];
+        destinationSerials = new int[SIZE];
+        squaresBetween = new long[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            originSerials[i] = NO_MOVE;
+        }
+
+        Chessboard emptyBoard = new Chessboard();  // the board is only consulted for pawns, which are not included
+        for (int pieceTypeColor = Chessboard.KING; pieceTypeColor < Chessboard.PAWN; pieceTypeColor++) {
+            for (int origin = 0; origin < 64; origin++) {
+                long destinations = Piece.getPotentialMovesExcludingCastle(pieceTypeColor, origin, emptyBoard);
+                for (int destination = origin + 1; destination < 64; destination++) {
+                    if ((destinations & Square.toBitwise(destination)) != 0) {
+                        long key = hasher.getPieceSquareHash(pieceTypeColor, origin) ^ hasher.getPieceSquareHash(pieceTypeColor, destination) ^ hasher.getTurnToMoveHash();
+                        insert(key, origin, destination, getSquaresBetween(origin, destination));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts a move, displacing the occupants of its slots in turn until an empty slot is found
+     * @param key   The Zobrist key of the move
+     * @param originSerial  The lower of the two squares of the move
+     * @param destinationSerial The higher of the two squares of the move
+     * @param between   The squares between the origin and destination
+     */
+    private void insert(long key, int originSerial, int destinationSerial, long between) {
+        int index = firstIndex(key);
+        while (true) {
+            long displacedKey = keys[index];
+            int displacedOrigin = originSerials[index];
+            int displacedDestination = destinationSerials[index];
+            long displacedBetween = squaresBetween[index];
+            keys[index] = key;
+            originSerials[index] = originSerial;
+            destinationSerials[index] = destinationSerial;
+            squaresBetween[index] = between;
+            if (displacedOrigin == NO_MOVE) {
+                return;
+            }
+            key = displacedKey;
+            originSerial = displacedOrigin;
+            destinationSerial = displacedDestination;
+            between = displacedBetween;
+            index = (index == firstIndex(key)) ? secondIndex(key) : firstIndex(key);
+        }
+    }
+
+    /**
+     * Finds the slot containing a move key
+     * @param key   The key to find
+     * @return  The index of the slot containing the key, or -1 if the key is not a reversible move
+     */
+    public int find(long key) {
+        int index = firstIndex(key);
+        if (keys[index] == key && originSerials[index] != NO_MOVE) {
+            return index;
+        }
+        index = secondIndex(key);
+        if (keys[index] == key && originSerials[index] != NO_MOVE) {
+            return index;
+        }
+        return NO_MOVE;
+    }
+
+    /**
+     * Gets the lower of the two squares of the move in a slot
+     * @param index The index of the slot
+     * @return  The square serial
+     */
+    public int getOriginSerial(int index) {
+        return originSerials[index];
+    }
+
+    /**
+     * Gets the higher of the two squares of the move in a slot
+     * @param index The index of the slot
+     * @return  The square serial
+     */
+    public int getDestinationSerial(int index) {
+        return destinationSerials[index];
+    }
+
+    /**
+     * Gets the squares that must be empty for the move in a slot to be possible
+     * @param index The index of the slot
+     * @return  A bitboard of the squares between the two squares of the move
+     */
+    public long getSquaresBetween(int index) {
+        return squaresBetween[index];
+    }
+
+    /**
+     * First hash function, taken from the low bits of the key
+     * @param key   The move key
+     * @return  Index of the first slot for the key
+     */
+    private static int firstIndex(long key) {
+        return (int) (key & INDEX_MASK);
+    }
+
+    /**
+     * Second hash function, taken from higher bits of the key
+     * @param key   The move key
+     * @return  Index of the second slot for the key
+     */
+    private static int secondIndex(long key) {
+        return (int) ((key >>> 16) & INDEX_MASK);
+    }
+
+    /**
+     * Calculates the squares strictly between two squares on the same rank, file or diagonal
+     * @param originSerial  The first square
+     * @param destinationSerial The second square
+     * @return  A bitboard of the squares between, or 0 if the squares are adjacent or not on a common line
+     */
+    private static long getSquaresBetween(int originSerial, int destinationSerial) {
+        int fileStep = Integer.signum(Square.getFile(destinationSerial) - Square.getFile(originSerial));
+        int rankStep = Integer.signum(Square.getRank(destinationSerial) - Square.getRank(originSerial));
+        int fileDistance = Math.abs(Square.getFile(destinationSerial) - Square.getFile(originSerial));
+        int rankDistance = Math.abs(Square.getRank(destinationSerial) - Square.getRank(originSerial));
+        if (fileDistance != 0 && rankDistance != 0 && fileDistance != rankDistance) {
+            return 0;  // knight move
+        }
+        long between = 0;
+        int file = Square.getFile(originSerial) + fileStep;
+        int rank = Square.getRank(originSerial) + rankStep;
+        while (file != Square.getFile(destinationSerial) || rank != Square.getRank(destinationSerial)) {
+            between |= Square.toBitwise(rank * 8 + file);
+            file += fileStep;
+            rank += rankStep;
+        }
+        return between;
+    }
+}
@@ -0,0 +1,134 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.ChessApplication.Piece;
+import com.circumspectus.ChessApplication.Square;
+
+/**
+ * Specialized evaluators for endgames whose outcome is known from the material, selected by the material table.
+ * Scores are from the perspective of the side with the extra material.  The mating evaluators add a large bonus to the material,
+ * so that the search prefers these endings to keeping more material, and then drive the defending king to the edge (or to the
+ * corner of the bishop's color) and bring the attacking king closer, so that the search finds the mate.
+ * @author Christopher Stieg
+ */
+public class EndgameEvaluator {
+    public static final int KNOWN_DRAW = Integer.MIN_VALUE;  // returned when the position is a draw
+    private static final int KNOWN_WIN_BONUS = 2000;
+    private static final int EDGE_MULTIPLIER = 20;  // per step of the defending king away from the center
+    private static final int CORNER_MULTIPLIER = 40;  // per step of the defending king toward the corner of the bishop's color
+    private static final int KING_PROXIMITY_MULTIPLIER = 10;  // per step of the kings toward each other
+    private static final int PAWN_ADVANCE_MULTIPLIER = 20;  // per rank of advancement of the pawn
+    private static final int BLOCKADE_DIVISOR = 4;  // reduction of the evaluation when the defending king stands in front of the pawn
+    private static final long DARK_CORNERS = 0x8000000000000001L;  // a1, h8
+    private static final long LIGHT_CORNERS = 0x0100000000000080L;  // a8, h1
+
+    /**
+     * Evaluates an endgame with a specialized evaluator
+     * @param endgame   The specialized evaluator to use
+     * @param board     The board to evaluate
+     * @param strongerColor The color of the side with the extra material
+     * @return  The evaluation from the perspective of strongerColor, or KNOWN_DRAW
+     */
+    public static int evaluate(MaterialEntry.Endgame endgame, ZobristBoard board, int strongerColor) {
+        switch (endgame) {
+            case KQK:
+            case KRK:
+                return evaluateMate(board, strongerColor);
+            case KBNK:
+                return evaluateBishopKnightMate(board, strongerColor);
+            case KPK:
+                return evaluateKingPawnKing(board, strongerColor);
+            default:
+                throw new IllegalArgumentException("No evaluator for " + endgame);
+        }
+    }
+
+    /**
+     * Evaluates a mate with a queen or rook, driving the defending king to the edge
+     * @param board     The board to evaluate
+     * @param strongerColor The color of the side with the queen or rook
+     * @return  The evaluation from the perspective of strongerColor
+     */
+    private static int evaluateMate(ZobristBoard board, int strongerColor) {
+        int strongerKingSerial = Square.toSerial(board.getPieceSet(Chessboard.KING + strongerColor));
+        int weakerKingSerial = Square.toSerial(board.getPieceSet(Chessboard.KING + 1 - strongerColor));
+        return KNOWN_WIN_BONUS + board.getMaterial(strongerColor) - board.getMaterial(1 - strongerColor)
+               + Chessboard.DISTANCE_FROM_CENTER[weakerKingSerial] * EDGE_MULTIPLIER
+               + (14 - getManhattanDistance(strongerKingSerial, weakerKingSerial)) * KING_PROXIMITY_MULTIPLIER;
+    }
+
+    /**
+     * Evaluates a mate with a bishop and knight, driving the defending king to a corner of the bishop's color
+     * @param board     The board to evaluate
+     * @param strongerColor The color of the side with the bishop and knight
+     * @return  The evaluation from the perspective of strongerColor
+     */
+    private static int evaluateBishopKnightMate(ZobristBoard board, int strongerColor) {
+        int strongerKingSerial = Square.toSerial(board.getPieceSet(Chessboard.KING + strongerColor));
+        int weakerKingSerial = Square.toSerial(board.getPieceSet(Chessboard.KING + 1 - strongerColor));
+        long corners = (board.getPieceSet(Chessboard.BISHOP + strongerColor) & Chessboard.BLACK_SQUARES) != 0 ? DARK_CORNERS : LIGHT_CORNERS;
+        int cornerDistance = Math.min(getDistance(weakerKingSerial, Square.toSerial(corners)), getDistance(weakerKingSerial, Square.toSerial(Long.highestOneBit(corners))));
+        return KNOWN_WIN_BONUS + board.getMaterial(strongerColor) - board.getMaterial(1 - strongerColor)
+               + (7 - cornerDistance) * CORNER_MULTIPLIER
+               + (14 - getManhattanDistance(strongerKingSerial, weakerKingSerial)) * KING_PROXIMITY_MULTIPLIER;
+    }
+
+    /**
+     * Evaluates king and pawn against king.  The pawn wins outright if the defending king is outside its square, and the position is
+     * drawn if the defending king holds the promotion corner of a rook pawn.  The evaluation is reduced if the defending king stands
+     * in front of the pawn while the attacking king is not ahead of it.
+     * @param board     The board to evaluate
+     * @param strongerColor The color of the side with the pawn
+     * @return  The evaluation from the perspective of strongerColor, or KNOWN_DRAW
+     */
+    private static int evaluateKingPawnKing(ZobristBoard board, int strongerColor) {
+        int weakerColor = 1 - strongerColor;
+        int strongerKingSerial = Square.toSerial(board.getPieceSet(Chessboard.KING + strongerColor));
+        int weakerKingSerial = Square.toSerial(board.getPieceSet(Chessboard.KING + weakerColor));
+        long pawn = board.getPieceSet(Chessboard.PAWN + strongerColor);
+        int pawnSerial = Square.toSerial(pawn);
+        int pawnFile = Square.getFile(pawnSerial);
+        int pawnRank = Square.getRank(pawnSerial);
+        int promotionRank = (strongerColor == Chessboard.WHITE) ? 7 : 0;
+        int promotionSerial = promotionRank * 8 + pawnFile;
+        int pawnDistance = Math.min(5, Math.abs(promotionRank - pawnRank));  // a pawn on its initial rank can advance two squares
+        int weakerKingDistance = getDistance(weakerKingSerial, promotionSerial) - (board.getCurrentPlayer() == weakerColor ? 1 : 0);
+        int advance = Math.abs(pawnRank - (promotionRank == 7 ? 1 : 6));
+        int pawnValue = Piece.getValue(Chessboard.PAWN);
+
+        boolean pawnBlockedByOwnKing = (Chessboard.FILES[pawnFile] & Chessboard.RANKS_AHEAD[strongerColor][pawnRank] & Square.toBitwise(strongerKingSerial)) != 0;
+        if (pawnDistance < weakerKingDistance && !pawnBlockedByOwnKing) {
+            return KNOWN_WIN_BONUS + pawnValue + advance * PAWN_ADVANCE_MULTIPLIER;  // the defending king cannot catch the pawn
+        }
+        if ((pawnFile == 0 || pawnFile == 7) && getDistance(weakerKingSerial, promotionSerial) <= 1) {
+            return KNOWN_DRAW;  // the defending king holds the corner in front of a rook pawn
+        }
+        int evaluation = pawnValue + advance * PAWN_ADVANCE_MULTIPLIER
+                         + (getDistance(weakerKingSerial, pawnSerial) - getDistance(strongerKingSerial, pawnSerial)) * KING_PROXIMITY_MULTIPLIER;
+        boolean strongerKingAhead = (Chessboard.RANKS_AHEAD[strongerColor][pawnRank] & Square.toBitwise(strongerKingSerial)) != 0;
+        if (!strongerKingAhead && (Chessboard.FILES[pawnFile] & Chessboard.RANKS_AHEAD[strongerColor][pawnRank] & Square.toBitwise(weakerKingSerial)) != 0) {
+            return evaluation / BLOCKADE_DIVISOR;  // the defending king blockades the pawn, which is usually a draw
+        }
+        return evaluation;
+    }
+
+    /**
+     * Gets the number of king moves between two squares
+     * @param firstSerial   The first square
+     * @param secondSerial  The second square
+     * @return  The larger of the file and rank distances
+     */
+    private static int getDistance(int firstSerial, int secondSerial) {
+        return Math.max(Math.abs(Square.getFile(firstSerial) - Square.getFile(secondSerial)), Math.abs(Square.getRank(firstSerial) - Square.getRank(secondSerial)));
+    }
+
+    /**
+     * Gets the sum of the file and rank distances between two squares
+     * @param firstSerial   The first square
+     * @param secondSerial  The second square
+     * @return  The Manhattan distance
+     */
+    private static int getManhattanDistance(int firstSerial, int secondSerial) {
+        return Math.abs(Square.getFile(firstSerial) - Square.getFile(secondSerial)) + Math.abs(Square.getRank(firstSerial) - Square.getRank(secondSerial));
+    }
+}
@@ -0,0 +1,224 @@
+package com.circumspectus.Engine;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of chess engines for hosting many games in one JVM.  The data which does not depend on the game is created once and
+ * shared by every engine: the Zobrist keys (with the cuckoo table of repetition detection), the bitbases with their cache of
+ * loaded files, and the evaluation cache, which is keyed by position alone and may be shared by search threads.  The attack
+ * tables are static, and the opening book is read from disk, so they are shared already.
+ * Each leased engine keeps the search state of its game: the transposition table, the killer moves and the pawn hash table.
+ * The memory of the transposition tables is a fixed budget divided evenly between the maximum number of games, so heap use
+ * does not grow with the number of games played.  Released engines are reused, keeping the memory of their tables.
+ * Searches of all engines run on a fixed number of shared threads, by default one per core; a search started while all are busy
+ * waits for one to become free, and the searches of each engine still run one at a time in the order started.  Ponder and
+ * background searches, which run until their game stops them, run on threads of low priority apart from the shared ones, so
+ * that they never hold up the move searches of other games.
+ * @author Christopher Stieg
+ */
+public class EnginePool {
+    private final ZobristHashing zobristHashing;
+    private final Bitbases bitbases;
+    private final EvaluationCache evaluationCache;
+    private final int maxGames;
+    private final int transpositionTableEntries;  // the entries of the transposition table of each engine
+    private final ExecutorService searchThreads;  // the threads on which the searches of all engines run
+    private final ExecutorService backgroundThreads;  // the threads on which ponder and background searches run, as many as needed
+    private final ArrayDeque<ChessEngine> idleEngines = new ArrayDeque<>();  // released engines, reused before new ones are created
+    private final Set<ChessEngine> leasedEngines = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Constructor for EnginePool, with a search thread for each core
+     * @param maxGames  The greatest number of engines leased at once
+     * @param transpositionTableMegabytes   The memory budget in megabytes of the transposition tables of all engines
+     */
+    public EnginePool(int maxGames, int transpositionTableMegabytes) {
+        this(maxGames, transpositionTableMegabytes, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor for EnginePool
+     * @param maxGames  The greatest number of engines leased at once
+     * @param transpositionTableMegabytes   The memory budget in megabytes of the transposition tables of all engines
+     * @param searchThreads The greatest number of searches running at once, over all engines
+     * @throws IllegalArgumentException If the number of games or search threads is less than 1
+     */
+    public EnginePool(int maxGames, int transpositionTableMegabytes, int searchThreads) {
+        if (maxGames < 1 || searchThreads < 1) {
+            throw new IllegalArgumentException("An engine pool needs at least one game and one search thread: " + maxGames + ", " + searchThreads);
+        }
+        this.maxGames = maxGames;
+        this.transpositionTableEntries = Math.max(1, TranspositionTable.getEntriesForMegabytes(transpositionTableMegabytes) / maxGames);
+        this.zobristHashing = new ZobristHashing();
+        this.bitbases = new Bitbases(Bitbases.DEFAULT_DIRECTORY);
+        this.evaluationCache = new EvaluationCache();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.searchThreads = Executors.newFixedThreadPool(searchThreads, runnable -> {
+            Thread thread = new Thread(runnable, "Engine pool search " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);  // an idle pool does not keep the application running
+            return thread;
+        });
+        AtomicInteger backgroundThreadNumber = new AtomicInteger();
+        this.backgroundThreads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Engine pool background search " + backgroundThreadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the Zobrist keys shared by the engines of the pool
+     * @return  The Zobrist hashing
+     */
+    public ZobristHashing getZobristHashing() {
+        return zobristHashing;
+    }
+
+    /**
+     * Gets the evaluation cache shared by the engines of the pool, whose statistics count the searches of all of them until
+     * cleared with EvaluationCache.clearStatistics
+     * @return  The evaluation cache
+     */
+    public EvaluationCache getEvaluationCache() {
+        return evaluationCache;
+    }
+
+    /**
+     * Creates a board in the starting position hashed with the shared Zobrist keys, as the game board of a leased engine
+     * @return  The new board
+     */
+    public ZobristBoard newBoard() {
+        return new ZobristBoard(zobristHashing);
+    }
+
+    /**
+     * Leases an engine for a new game, reusing a released engine if there is one.  A reused engine is prepared with
+     * ChessEngine.newGame, waiting for any search it was still running to return.
+     * @param board The game board, such as one created by newBoard
+     * @return  The engine, to be returned to the pool with release when the game ends
+     * @throws IllegalStateException    If the maximum number of engines is leased
+     */
+    public ChessEngine lease(ZobristBoard board) {
+        ChessEngine engine;
+        synchronized (this) {
+            if (leasedEngines.size() >= maxGames) {
+                throw new IllegalStateException("All " + maxGames + " engines of the pool are leased");
+            }
+            engine = idleEngines.poll();
+            if (engine == null) {
+                SearchQueue searchQueue = new SearchQueue();
+                engine = new ChessEngine(board, board.getClone(), new TranspositionTable(transpositionTableEntries),
+                        searchQueue.on(searchThreads), searchQueue.on(backgroundThreads));
+            }
+            leasedEngines.add(engine);
+        }
+        engine.newGame(board);
+        engine.setBitbases(bitbases);
+        engine.setEvaluationCache(evaluationCache);
+        engine.setTrace(null);  // turned off, whatever the previous lessee set
+        return engine;
+    }
+
+    /**
+     * Returns a leased engine to the pool, interrupting its search in progress.  Stop the tokens of any searches it has queued
+     * as well, since they would otherwise run before the engine is leased again.
+     * @param engine    The engine to return
+     * @throws IllegalArgumentException If the engine is not leased from this pool
+     */
+    public void release(ChessEngine engine) {
+        engine.interrupt();
+        synchronized (this) {
+            if (!leasedEngines.remove(engine)) {
+                throw new IllegalArgumentException("The engine is not leased from this pool");
+            }
+            idleEngines.push(engine);
+        }
+    }
+
+    /**
+     * Gets the number of engines leased
+     * @return  The number of engines leased and not yet released
+     */
+    public synchronized int getLeasedCount() {
+        return leasedEngines.size();
+    }
+
+    /**
+     * Gets the greatest number of engines leased at once
+     * @return  The maximum number of games
+     */
+    public int getMaxGames() {
+        return maxGames;
+    }
+
+    /**
+     * Gets the size of the transposition table of each engine
+     * @return  The number of entries, the share of each game of the memory budget
+     */
+    public int getTranspositionTableEntries() {
+        return transpositionTableEntries;
+    }
+
+    /**
+     * Shuts down the search threads once the searches started are done
+     */
+    public void shutdown() {
+        searchThreads.shutdown();
+        backgroundThreads.shutdown();
+    }
+
+    /**
+     * Runs the searches of one engine one at a time, in order, each on the executor it was queued for, so that each engine keeps
+     * the behaviour of its own single search thread while holding a thread only while it searches
+     */
+    private static class SearchQueue {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();  // each hands its search to its executor
+        private Runnable active;  // the task running or waiting for a thread of its executor; null if none
+
+        /**
+         * Gets an executor which queues tasks to run on another executor
+         * @param executor  The executor on which the tasks run
+         * @return  The executor queueing the tasks
+         */
+        Executor on(Executor executor) {
+            return task -> execute(task, executor);
+        }
+
+        /**
+         * Queues a task, to run after those queued before it
+         * @param task  The task
+         * @param executor  The executor on which the task runs
+         */
+        private synchronized void execute(Runnable task, Executor executor) {
+            tasks.add(() -> executor.execute(() -> {
+                try {
+                    task.run();
+                }
+                finally {
+                    scheduleNext();
+                }
+            }));
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        /**
+         * Hands the next queued task, if any, to its executor
+         */
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                active.run();
+            }
+        }
+    }
+}
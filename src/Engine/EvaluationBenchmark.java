@@ -0,0 +1,117 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Move;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Benchmark for board evaluation.  Collects positions from games of pseudo-random legal moves, and measures the number of
+ * evaluations per second of ChessEngine.evaluateBoard over the whole set.  A checksum of the scores is printed, so that
+ * changes to the evaluator which are meant to preserve its scores can be checked against an earlier run.
+ * Run with the argument "lazy" to check lazy evaluation instead: the largest difference between the cheap terms and the full
+ * evaluation is measured over a larger set, and the bounds returned for windows around every position are checked against the full evaluation.
+ * @author Christopher Stieg
+ */
+public class EvaluationBenchmark {
+    private static final int POSITIONS = 10000;
+    private static final int MAX_GAME_LENGTH = 120;  // ply after which a new game is started
+    private static final long SEED = 42;
+    private static final int ROUNDS = 20;  // the whole set is evaluated in each round, and the fastest round is reported, to filter out JIT compilation
+    private static final int LAZY_CHECK_POSITIONS = 200000;
+    private static final int LAZY_CHECK_WINDOWS = 8;  // windows checked per position
+    private static final int LAZY_CHECK_WINDOW_SPREAD = 1500;  // windows are placed within this many centipawns of the full evaluation
+
+    /**
+     * Collects positions from games of pseudo-random legal moves, one position after each move
+     * @param count The number of positions to collect
+     * @param seed  The seed of the random move choices, so that the same positions are collected on every run
+     * @return  The positions, each on its own board
+     */
+    public static ArrayList<ZobristBoard> generatePositions(int count, long seed) {
+        ZobristHashing hasher = new ZobristHashing();
+        Random random = new Random(seed);
+        ArrayList<ZobristBoard> positions = new ArrayList<>(count);
+        ZobristBoard board = new ZobristBoard(hasher);
+        while (positions.size() < count) {
+            ArrayList<Move> legalMoves = board.getLegalMoves(board.getCurrentPlayer());
+            if (legalMoves.isEmpty() || board.getPly() >= MAX_GAME_LENGTH) {
+                board = new ZobristBoard(hasher);
+                continue;
+            }
+            board.move(legalMoves.get(random.nextInt(legalMoves.size())));
+            positions.add(board.getClone());
+        }
+        return positions;
+    }
+
+    /**
+     * Checks that lazy evaluation is sound.  For every position, the full evaluation is compared with the cheap terms alone,
+     * and with the results of evaluateBoard for random windows: a result strictly inside the window must be exact, a result at
+     * or below alpha must be an upper bound, and a result at or above beta must be a lower bound.
+     * @param positions The positions to check
+     * @param seed  The seed of the random windows
+     */
+    private static void checkLazyEvaluation(ArrayList<ZobristBoard> positions, long seed) {
+        PawnHashTable pawnHashTable = new PawnHashTable();
+        Random random = new Random(seed);
+        int largestSwing = 0;
+        long lazyExits = 0;
+        long unsoundBounds = 0;
+        for (ZobristBoard position : positions) {
+            int fullEvaluation = ChessEngine.evaluateBoard(position, pawnHashTable);
+            largestSwing = Math.max(largestSwing, Math.abs(fullEvaluation - ChessEngine.evaluateLazily(position, pawnHashTable)));
+            for (int window = 0; window < LAZY_CHECK_WINDOWS; window++) {
+                int alpha = fullEvaluation + random.nextInt(2 * LAZY_CHECK_WINDOW_SPREAD) - LAZY_CHECK_WINDOW_SPREAD;
+                int beta = alpha + 1 + random.nextInt(LAZY_CHECK_WINDOW_SPREAD);
+                int evaluation = ChessEngine.evaluateBoard(position, pawnHashTable, alpha, beta);
+                boolean sound;
+                if (evaluation <= alpha) {
+                    sound = evaluation >= fullEvaluation;
+                }
+                else if (evaluation >= beta) {
+                    sound = evaluation <= fullEvaluation;
+                }
+                else {
+                    sound = evaluation == fullEvaluation;
+                }
+                if (evaluation != fullEvaluation) {
+                    lazyExits++;
+                }
+                if (!sound) {
+                    unsoundBounds++;
+                }
+            }
+        }
+        System.out.println("Positions: " + positions.size());
+        System.out.println("Largest difference between cheap terms and full evaluation: " + largestSwing);
+        System.out.println(String.format("Inexact results: %d of %d windows", lazyExits, (long) positions.size() * LAZY_CHECK_WINDOWS));
+        System.out.println("Unsound bounds: " + unsoundBounds);
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("lazy")) {
+            checkLazyEvaluation(generatePositions(LAZY_CHECK_POSITIONS, SEED), SEED);
+            return;
+        }
+        ArrayList<ZobristBoard> positions = generatePositions(POSITIONS, SEED);
+        PawnHashTable pawnHashTable = new PawnHashTable();
+        long checksum = 0;
+        long fastestRound = Long.MAX_VALUE;
+        double firstRoundHitRate = 0;  // later rounds find every pawn structure stored by the first
+        for (int round = 0; round < ROUNDS; round++) {
+            checksum = 0;
+            long startTime = System.nanoTime();
+            for (ZobristBoard position : positions) {
+                checksum = checksum * 31 + ChessEngine.evaluateBoard(position, pawnHashTable);
+            }
+            fastestRound = Math.min(fastestRound, System.nanoTime() - startTime);
+            if (round == 0) {
+                firstRoundHitRate = pawnHashTable.getHitRate();
+            }
+        }
+        System.out.println("Positions: " + positions.size());
+        System.out.println(String.format("Evaluations per second: %.0f", positions.size() * 1e9 / fastestRound));
+        System.out.println("Score checksum: " + Long.toHexString(checksum));
+        System.out.println(String.format("Pawn hash hit rate (first round): %.1f%%", firstRoundHitRate * 100));
+    }
+}
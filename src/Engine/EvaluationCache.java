@@ -0,0 +1,127 @@
+package com.circumspectus.Engine;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, always-replace cache of static evaluations indexed by the Zobrist hash value of the board, separate from the transposition table.
+ * The cache may be shared by several search threads without locking: each entry is written as two longs, the key XORed with the data
+ * and the data itself, so an entry torn by two threads writing at once fails the key check and is treated as a miss.
+ * Counts hits, misses and overwrites (stores replacing an entry for a different position), for sizing the cache.  The counts
+ * are kept from the creation of the cache until its owner calls clearStatistics, over all the engines sharing it.
+ * @author Christopher Stieg
+ */
+public class EvaluationCache {
+    public static final int DEFAULT_ENTRIES = 1 << 18;  // 4 MB
+    public static final int NOT_FOUND = Integer.MIN_VALUE;
+    private static final long OCCUPIED = 1L << 32;  // set in the data of every stored entry, so that an empty entry has data 0
+
+    private final long keys[];  // hash value XOR data
+    private final long data[];  // score in the low 32 bits, and OCCUPIED
+    private final int indexMask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder overwrites = new LongAdder();
+
+    /**
+     * Constructor for EvaluationCache with the default size
+     */
+    public EvaluationCache() {
+        this(DEFAULT_ENTRIES);
+    }
+
+    /**
+     * Constructor for EvaluationCache
+     * @param entries   The number of entries, rounded up to a power of 2.  Each entry takes 16 bytes.
+     */
+    public EvaluationCache(int entries) {
+        int size = Integer.highestOneBit(Math.max(entries, 1));
+        if (size < entries) {
+            size <<= 1;
+        }
+        keys = new long[size];
+        data = new long[size];
+        indexMask = size - 1;
+    }
+
+    /**
+     * Looks up the evaluation of a position, counting a hit or a miss
+     * @param hashValue The Zobrist hash value of the board
+     * @return  The stored evaluation, or NOT_FOUND
+     */
+    public int probe(long hashValue) {
+        int index = (int) hashValue & indexMask;
+        long entryData = data[index];
+        if (entryData != 0 && (keys[index] ^ entryData) == hashValue) {
+            hits.increment();
+            return (int) entryData;
+        }
+        misses.increment();
+        return NOT_FOUND;
+    }
+
+    /**
+     * Stores the evaluation of a position, replacing whatever was stored in its entry
+     * @param hashValue The Zobrist hash value of the board
+     * @param evaluation    The evaluation to store
+     */
+    public void store(long hashValue, int evaluation) {
+        int index = (int) hashValue & indexMask;
+        long previousData = data[index];
+        if (previousData != 0 && (keys[index] ^ previousData) != hashValue) {
+            overwrites.increment();
+        }
+        long entryData = OCCUPIED | (evaluation & 0xFFFFFFFFL);
+        keys[index] = hashValue ^ entryData;
+        data[index] = entryData;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+    }
+
+    /**
+     * Gets the number of entries
+     * @return  The size of the cache in entries
+     */
+    public int getSize() {
+        return indexMask + 1;
+    }
+
+    /**
+     * Gets the number of probes which found their position since the statistics were last cleared
+     * @return  The hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of probes which did not find their position since the statistics were last cleared
+     * @return  The miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of stores which replaced the entry of a different position since the statistics were last cleared
+     * @return  The overwrite count
+     */
+    public long getOverwrites() {
+        return overwrites.sum();
+    }
+
+    /**
+     * Clears the hit, miss and overwrite counts.  The stored evaluations are kept.
+     */
+    public void clearStatistics() {
+        hits.reset();
+        misses.reset();
+        overwrites.reset();
+    }
+}
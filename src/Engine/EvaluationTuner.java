@@ -0,0 +1,466 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.ChessApplication.InvalidMoveException;
+import com.circumspectus.ChessApplication.Move;
+import com.circumspectus.ChessApplication.Piece;
+import com.circumspectus.ChessApplication.Square;
+import com.circumspectus.PGN.PGNGame;
+import com.circumspectus.PGN.PGNReader;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless Texel-style tuner of the evaluation parameters of ChessEngine and PieceSquareTables, run from the command line with
+ * optional arguments: the number of positions to take from each game file, the number of iterations, and the number of threads.
+ * Quiet positions are taken from the master games in resources/sortedgames, and each is reduced to the result of its game and
+ * the terms of its evaluation in a TuningDataset.  The evaluation is modeled as linear in the tuned parameters: its fixed term is
+ * the evaluation by ChessEngine.evaluateBoard less the parameters' share at their current values, so that the model agrees with
+ * evaluateBoard before tuning.  The parameters are then fitted by gradient descent (Adam) to minimize the mean squared difference
+ * between the game results and the expected scores given by a logistic function of the evaluations, with the positions split
+ * among the threads.  The tuned values are printed in the form of the source, piece-square tables from white's side only.
+ * @author Christopher Stieg
+ */
+public class EvaluationTuner {
+    private static final File GAMES_DIRECTORY = new File("resources", "sortedgames");
+    private static final int DEFAULT_POSITIONS_PER_FILE = 250;  // about 730000 positions over the 2930 files
+    private static final int DEFAULT_ITERATIONS = 200;
+    private static final int MIN_PLY = 16;  // positions before this ply are mostly from opening theory
+    private static final int SAMPLE_INTERVAL = 3;  // ply between sampled positions of a game, since neighboring positions are alike
+    private static final int CHUNK_SIZE = 8192;  // positions per task
+    private static final double LEARNING_RATE = 1.0;  // in centipawns per iteration
+    private static final double FIRST_MOMENT_DECAY = 0.9;
+    private static final double SECOND_MOMENT_DECAY = 0.999;
+    private static final double EPSILON = 1e-8;
+
+    // layout of the parameter vector: single parameters, then the piece-square tables from white's side
+    private static final String SINGLE_PARAMETER_NAMES[] = { "DOUBLE_BISHOP_BONUS", "DOUBLED_PAWN_PENALTY", "ISOLATED_PAWN_PENALTY",
+        "PASSED_PAWN_BONUS", "PAWN_SHIELD_BONUS", "BOTH_CASTLING_RIGHTS_VALUE", "ONE_CASTLING_RIGHTS_VALUE",
+        "SQUARE_ADJACENT_TO_KING_ATTACKED_PENALTY", "MOBILITY_MULTIPLIER", "CENTER4_MULTIPLIER", "CENTER16_MULTIPLIER" };
+    private static final int DOUBLE_BISHOP = 0;
+    private static final int DOUBLED_PAWN = 1;
+    private static final int ISOLATED_PAWN = 2;
+    private static final int PASSED_PAWN = 3;
+    private static final int PAWN_SHIELD = 4;
+    private static final int BOTH_CASTLING_RIGHTS = 5;
+    private static final int ONE_CASTLING_RIGHTS = 6;
+    private static final int KING_ZONE_ATTACKED = 7;
+    private static final int MOBILITY = 8;
+    private static final int CENTER4 = 9;
+    private static final int CENTER16 = 10;
+    private static final String TABLE_NAMES[] = { "WHITE_KING_BONUSES", "WHITE_QUEEN_BONUSES", "WHITE_ROOK_BONUSES", "WHITE_BISHOP_BONUSES",
+        "WHITE_KNIGHT_BONUSES", "WHITE_PAWN_BONUSES", "WHITE_KING_ENDGAME_BONUSES", "WHITE_PAWN_ENDGAME_BONUSES" };
+    private static final int FIRST_TABLE = SINGLE_PARAMETER_NAMES.length;  // the middlegame tables by piece type / 2, then the two endgame tables
+    private static final int KING_ENDGAME_TABLE = FIRST_TABLE + 6 * 64;
+    private static final int PAWN_ENDGAME_TABLE = FIRST_TABLE + 7 * 64;
+    private static final int PARAMETERS = FIRST_TABLE + TABLE_NAMES.length * 64;
+
+    private final ExecutorService threadPool;
+    private final int threads;
+
+    /**
+     * Constructor for EvaluationTuner
+     * @param threads   The number of threads among which the positions are split
+     */
+    public EvaluationTuner(int threads) {
+        this.threads = threads;
+        this.threadPool = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Gets the current values of the parameters from ChessEngine and PieceSquareTables
+     * @return  The parameter vector
+     */
+    public static double[] getCurrentParameters() {
+        double parameters[] = new double[PARAMETERS];
+        parameters[DOUBLE_BISHOP] = ChessEngine.DOUBLE_BISHOP_BONUS;
+        parameters[DOUBLED_PAWN] = ChessEngine.DOUBLED_PAWN_PENALTY;
+        parameters[ISOLATED_PAWN] = ChessEngine.ISOLATED_PAWN_PENALTY;
+        parameters[PASSED_PAWN] = ChessEngine.PASSED_PAWN_BONUS;
+        parameters[PAWN_SHIELD] = ChessEngine.PAWN_SHIELD_BONUS;
+        parameters[BOTH_CASTLING_RIGHTS] = ChessEngine.BOTH_CASTLING_RIGHTS_VALUE;
+        parameters[ONE_CASTLING_RIGHTS] = ChessEngine.ONE_CASTLING_RIGHTS_VALUE;
+        parameters[KING_ZONE_ATTACKED] = ChessEngine.SQUARE_ADJACENT_TO_KING_ATTACKED_PENALTY;
+        parameters[MOBILITY] = ChessEngine.MOBILITY_MULTIPLIER;
+        parameters[CENTER4] = ChessEngine.CENTER4_MULTIPLIER;
+        parameters[CENTER16] = ChessEngine.CENTER16_MULTIPLIER;
+        for (int pieceType = Chessboard.KING; pieceType <= Chessboard.PAWN; pieceType += 2) {
+            for (int squareSerial = 0; squareSerial < 64; squareSerial++) {
+                parameters[FIRST_TABLE + pieceType / 2 * 64 + squareSerial] = PieceSquareTables.getMiddlegameBonus(pieceType + Chessboard.WHITE, squareSerial);
+            }
+        }
+        for (int squareSerial = 0; squareSerial < 64; squareSerial++) {
+            parameters[KING_ENDGAME_TABLE + squareSerial] = PieceSquareTables.getEndgameBonus(Chessboard.KING + Chessboard.WHITE, squareSerial);
+            parameters[PAWN_ENDGAME_TABLE + squareSerial] = PieceSquareTables.getEndgameBonus(Chessboard.PAWN + Chessboard.WHITE, squareSerial);
+        }
+        return parameters;
+    }
+
+    /**
+     * Calculates the coefficient of every parameter in the evaluation of a board from white's perspective, following evaluateBoard
+     * @param board The board
+     * @param coefficients  The array in which to add the coefficients, indexed by parameter
+     */
+    static void addCoefficients(ZobristBoard board, float coefficients[]) {
+        float middlegame = (float) board.getPhase() / ZobristBoard.MAX_PHASE;
+        float endgame = 1 - middlegame;
+        float kingSafety = middlegame * ChessEngine.KING_SAFETY_WEIGHT;
+        long attackMaps[] = new long[2];
+        for (int pieceTypeColor = Chessboard.KING; pieceTypeColor <= Chessboard.PAWN + Chessboard.BLACK; pieceTypeColor++) {
+            long pieceSet = board.getPieceSet(pieceTypeColor);
+            while (pieceSet != 0) {
+                attackMaps[Chessboard.getPieceColor(pieceTypeColor)] |= Piece.getAttackedSquares(pieceTypeColor, Square.toSerial(pieceSet), board);
+                pieceSet &= pieceSet - 1;
+            }
+        }
+
+        for (int color = Chessboard.WHITE; color <= Chessboard.BLACK; color++) {
+            int sign = (color == Chessboard.WHITE) ? 1 : -1;
+            int orientation = (color == Chessboard.WHITE) ? 0 : 56;  // black's squares are mirrored onto white's tables
+            if (Long.bitCount(board.getPieceSet(Chessboard.BISHOP + color)) >= 2) {
+                coefficients[DOUBLE_BISHOP] += sign;
+            }
+
+            // pawn structure, as in evaluatePawnStructure
+            long pawns = board.getPieceSet(Chessboard.PAWN + color);
+            for (int file = 0; file < 8; file++) {
+                int pawnsOnFile = Long.bitCount(pawns & Chessboard.FILES[file]);
+                if (pawnsOnFile > 0) {
+                    coefficients[DOUBLED_PAWN] -= sign * (pawnsOnFile - 1);
+                    if ((pawns & ChessEngine.ADJACENT_FILES[file]) == 0) {
+                        coefficients[ISOLATED_PAWN] -= sign;
+                    }
+                }
+            }
+            coefficients[PASSED_PAWN] += sign * Long.bitCount(ChessEngine.getPassedPawns(pawns, board.getPieceSet(Chessboard.PAWN + 1 - color), color));
+
+            // king safety, as in evaluateKingSafety
+            long kingPosition = board.getPieceSet(Chessboard.KING + color);
+            int kingPositionSerial = Square.toSerial(kingPosition);
+            if ((kingPosition & ChessEngine.CASTLED_KING) != 0) {
+                coefficients[PAWN_SHIELD] += sign * kingSafety * Long.bitCount(pawns & ChessEngine.PAWN_SHIELD[kingPositionSerial]);
+            }
+            else {
+                boolean kingsideCastlingRights = !board.castlePiecesHaveMoved(0, color);
+                boolean queensideCastlingRights = !board.castlePiecesHaveMoved(1, color);
+                if (kingsideCastlingRights && queensideCastlingRights) {
+                    coefficients[BOTH_CASTLING_RIGHTS] += sign * kingSafety;
+                }
+                else if (kingsideCastlingRights || queensideCastlingRights) {
+                    coefficients[ONE_CASTLING_RIGHTS] += sign * kingSafety;
+                }
+            }
+            coefficients[KING_ZONE_ATTACKED] -= sign * kingSafety * Long.bitCount(Chessboard.ADJACENT_SQUARE_BLOCK[kingPositionSerial] & attackMaps[1 - color]);
+
+            for (int pieceType = Chessboard.KING; pieceType <= Chessboard.PAWN; pieceType += 2) {
+                long pieceSet = board.getPieceSet(pieceType + color);
+                while (pieceSet != 0) {
+                    int currentPositionSerial = Square.toSerial(pieceSet);
+                    pieceSet &= pieceSet - 1;
+
+                    // mobility and center control, as in evaluateBoard; the king's count in the endgame only
+                    long possibleMovesExcludingCastle;
+                    if (pieceType == Chessboard.PAWN) {
+                        long potentialMovesExcludingCastle = Piece.getPotentialMovesExcludingCastle(pieceType + color, currentPositionSerial, board);
+                        possibleMovesExcludingCastle = Piece.getPossibleMovesExcludingCastle(pieceType + color, currentPositionSerial, board, potentialMovesExcludingCastle);
+                    }
+                    else {
+                        possibleMovesExcludingCastle = Piece.getAttackedSquares(pieceType + color, currentPositionSerial, board) & ~board.getPiecesOfColor(color);
+                    }
+                    float activityWeight = sign * ((pieceType == Chessboard.KING) ? endgame : 1);
+                    coefficients[MOBILITY] += activityWeight * Long.bitCount(possibleMovesExcludingCastle);
+                    coefficients[CENTER4] += activityWeight * Long.bitCount(possibleMovesExcludingCastle & Chessboard.CENTER4);
+                    coefficients[CENTER16] += activityWeight * Long.bitCount(possibleMovesExcludingCastle & Chessboard.CENTER16);
+
+                    // piece-square bonuses; knights, bishops, rooks and queens use one table in both phases
+                    int tableSerial = currentPositionSerial ^ orientation;
+                    if (pieceType == Chessboard.KING || pieceType == Chessboard.PAWN) {
+                        coefficients[FIRST_TABLE + pieceType / 2 * 64 + tableSerial] += sign * middlegame;
+                        int endgameTable = (pieceType == Chessboard.KING) ? KING_ENDGAME_TABLE : PAWN_ENDGAME_TABLE;
+                        coefficients[endgameTable + tableSerial] += sign * endgame;
+                    }
+                    else {
+                        coefficients[FIRST_TABLE + pieceType / 2 * 64 + tableSerial] += sign;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether a position is quiet enough for its static evaluation to stand for it: the player to move is not in check,
+     * the last move was not a capture, and no capture wins material outright (a more valuable piece, or an undefended one)
+     * @param board The board
+     * @return  True if the position is quiet
+     */
+    static boolean isQuiet(ZobristBoard board) {
+        int player = board.getCurrentPlayer();
+        if (board.isInCheck(player) || board.getLastMove().isCapture()) {
+            return false;
+        }
+        for (Move move : board.getPossibleMoves(player)) {
+            if (move.isCapture() && (Piece.getValue(move.getCapturedPieceTypeColor()) > Piece.getValue(move.getPieceTypeColor())
+                                     || !Square.isAttacked(move.getDestinationSerial(), board, player))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes quiet positions from the games of one file
+     * @param file  The game text file
+     * @param maxPositions  The number of positions after which the rest of the file is skipped
+     * @param currentParameters The current parameter vector, for the fixed terms
+     * @return  The positions
+     */
+    private static TuningDataset extractPositions(File file, int maxPositions, double currentParameters[]) {
+        TuningDataset dataset = new TuningDataset();
+        ZobristHashing hasher = new ZobristHashing();
+        PawnHashTable pawnHashTable = new PawnHashTable();
+        float coefficients[] = new float[PARAMETERS];
+        int allParameters[] = new int[PARAMETERS];
+        for (int i = 0; i < PARAMETERS; i++) {
+            allParameters[i] = i;
+        }
+        PGNReader reader = new PGNReader(file);
+        String gameText = reader.getNextGame();
+        while (!gameText.trim().isEmpty() && dataset.size() < maxPositions) {
+            PGNGame game = new PGNGame(gameText);
+            int resultInHalfPoints = "1-0".equals(game.getResult()) ? 2 : "0-1".equals(game.getResult()) ? 0 : "1/2-1/2".equals(game.getResult()) ? 1 : -1;
+            ZobristBoard board = new ZobristBoard(hasher);
+            for (String movetext : game.getMoves()) {
+                if (resultInHalfPoints < 0 || dataset.size() >= maxPositions) {
+                    break;
+                }
+                try {
+                    board.move(movetext);
+                }
+                catch (InvalidMoveException | RuntimeException e) {
+                    break;  // the rest of a game the move parser cannot follow is skipped
+                }
+                if (board.getPly() < MIN_PLY || board.getPly() % SAMPLE_INTERVAL != 0 || !isQuiet(board)) {
+                    continue;
+                }
+                // endings known from the material table are not evaluated by the tuned terms
+                long materialKey = board.getMaterialKey();
+                if (MaterialTable.probe(materialKey) != null || (MaterialTable.hasOnlyMinorPieces(materialKey) && !board.sufficientMaterialToCheckmate())) {
+                    continue;
+                }
+                Arrays.fill(coefficients, 0);
+                addCoefficients(board, coefficients);
+                int evaluation = ChessEngine.evaluateBoard(board, pawnHashTable);
+                double whiteEvaluation = (board.getCurrentPlayer() == Chessboard.WHITE) ? evaluation : -evaluation;
+                for (int parameter = 0; parameter < PARAMETERS; parameter++) {
+                    whiteEvaluation -= currentParameters[parameter] * coefficients[parameter];
+                }
+                dataset.add((float) whiteEvaluation, resultInHalfPoints, coefficients, allParameters, PARAMETERS);
+            }
+            gameText = reader.getNextGame();
+        }
+        reader.close();
+        return dataset;
+    }
+
+    /**
+     * Takes quiet positions from every game file, the files being split among the threads
+     * @param positionsPerFile  The number of positions to take from each file
+     * @return  The positions, in the order of the file names, so that the same set is built on every run
+     */
+    public TuningDataset extractPositions(int positionsPerFile) throws InterruptedException, ExecutionException {
+        File files[] = GAMES_DIRECTORY.listFiles();
+        if (files == null) {
+            throw new IllegalStateException("Cannot read " + GAMES_DIRECTORY.getAbsolutePath());
+        }
+        Arrays.sort(files);
+        double currentParameters[] = getCurrentParameters();
+        List<Callable<TuningDataset>> tasks = new ArrayList<>();
+        for (File file : files) {
+            tasks.add(() -> extractPositions(file, positionsPerFile, currentParameters));
+        }
+        TuningDataset dataset = new TuningDataset();
+        for (Future<TuningDataset> result : threadPool.invokeAll(tasks)) {
+            dataset.addAll(result.get());
+        }
+        return dataset;
+    }
+
+    /**
+     * Calculates the expected score of white from an evaluation
+     * @param evaluation    The evaluation in centipawns from white's perspective
+     * @param scale The scaling constant K of the logistic function
+     * @return  The expected score, from 0 to 1
+     */
+    private static double getExpectedScore(double evaluation, double scale) {
+        return 1 / (1 + Math.pow(10, -scale * evaluation / 400));
+    }
+
+    /**
+     * Sums the squared errors of a range of positions, and optionally the gradient of the sum with respect to the parameters
+     * @param dataset   The positions
+     * @param first The index of the first position of the range
+     * @param end   The index after the last position of the range
+     * @param parameters    The parameter vector
+     * @param scale The scaling constant K of the logistic function
+     * @param withGradient  True to calculate the gradient
+     * @return  The gradient by parameter followed by the sum of squared errors, or only the sum if withGradient is false
+     */
+    private static double[] evaluateRange(TuningDataset dataset, int first, int end, double parameters[], double scale, boolean withGradient) {
+        double sums[] = new double[withGradient ? PARAMETERS + 1 : 1];
+        double errorSum = 0;
+        for (int position = first; position < end; position++) {
+            int entryStart = dataset.getEntryStart(position);
+            int entryEnd = dataset.getEntryEnd(position);
+            double evaluation = dataset.getFixedTerm(position);
+            for (int entry = entryStart; entry < entryEnd; entry++) {
+                evaluation += parameters[dataset.getParameter(entry)] * dataset.getCoefficient(entry);
+            }
+            double expectedScore = getExpectedScore(evaluation, scale);
+            double error = dataset.getResult(position) - expectedScore;
+            errorSum += error * error;
+            if (withGradient) {
+                // derivative of the squared error with respect to the evaluation
+                double slope = -2 * error * expectedScore * (1 - expectedScore) * scale * Math.log(10) / 400;
+                for (int entry = entryStart; entry < entryEnd; entry++) {
+                    sums[dataset.getParameter(entry)] += slope * dataset.getCoefficient(entry);
+                }
+            }
+        }
+        sums[sums.length - 1] = errorSum;
+        return sums;
+    }
+
+    /**
+     * Calculates the mean squared error over all positions, and optionally its gradient, the positions being split among the threads
+     * @param dataset   The positions
+     * @param parameters    The parameter vector
+     * @param scale The scaling constant K of the logistic function
+     * @param withGradient  True to calculate the gradient
+     * @return  The gradient by parameter followed by the mean squared error, or only the error if withGradient is false
+     */
+    private double[] evaluateAll(TuningDataset dataset, double parameters[], double scale, boolean withGradient) throws InterruptedException, ExecutionException {
+        List<Callable<double[]>> tasks = new ArrayList<>();
+        for (int first = 0; first < dataset.size(); first += CHUNK_SIZE) {
+            int start = first;
+            int end = Math.min(first + CHUNK_SIZE, dataset.size());
+            tasks.add(() -> evaluateRange(dataset, start, end, parameters, scale, withGradient));
+        }
+        double totals[] = new double[withGradient ? PARAMETERS + 1 : 1];
+        for (Future<double[]> result : threadPool.invokeAll(tasks)) {
+            double sums[] = result.get();
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] += sums[i];
+            }
+        }
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] /= dataset.size();
+        }
+        return totals;
+    }
+
+    /**
+     * Finds the scaling constant K which best fits the current evaluations to the results, by golden section search
+     * @param dataset   The positions
+     * @param parameters    The parameter vector
+     * @return  The scaling constant
+     */
+    public double fitScale(TuningDataset dataset, double parameters[]) throws InterruptedException, ExecutionException {
+        double ratio = (Math.sqrt(5) - 1) / 2;
+        double low = 0.1;
+        double high = 3.0;
+        while (high - low > 0.001) {
+            double lowProbe = high - ratio * (high - low);
+            double highProbe = low + ratio * (high - low);
+            if (evaluateAll(dataset, parameters, lowProbe, false)[0] < evaluateAll(dataset, parameters, highProbe, false)[0]) {
+                high = highProbe;
+            }
+            else {
+                low = lowProbe;
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * Fits the parameters to the results with Adam, printing the error and throughput of each iteration
+     * @param dataset   The positions
+     * @param parameters    The parameter vector, updated in place
+     * @param scale The scaling constant K of the logistic function
+     * @param iterations    The number of iterations
+     */
+    public void tune(TuningDataset dataset, double parameters[], double scale, int iterations) throws InterruptedException, ExecutionException {
+        double firstMoments[] = new double[PARAMETERS];
+        double secondMoments[] = new double[PARAMETERS];
+        for (int iteration = 1; iteration <= iterations; iteration++) {
+            long startTime = System.nanoTime();
+            double gradient[] = evaluateAll(dataset, parameters, scale, true);
+            long elapsedTime = System.nanoTime() - startTime;
+            for (int i = 0; i < PARAMETERS; i++) {
+                firstMoments[i] = FIRST_MOMENT_DECAY * firstMoments[i] + (1 - FIRST_MOMENT_DECAY) * gradient[i];
+                secondMoments[i] = SECOND_MOMENT_DECAY * secondMoments[i] + (1 - SECOND_MOMENT_DECAY) * gradient[i] * gradient[i];
+                double firstMoment = firstMoments[i] / (1 - Math.pow(FIRST_MOMENT_DECAY, iteration));
+                double secondMoment = secondMoments[i] / (1 - Math.pow(SECOND_MOMENT_DECAY, iteration));
+                parameters[i] -= LEARNING_RATE * firstMoment / (Math.sqrt(secondMoment) + EPSILON);
+            }
+            System.out.println(String.format("Iteration %4d   error: %.6f   positions per second: %.0f", iteration, gradient[PARAMETERS],
+                    dataset.size() * 1e9 / elapsedTime));
+        }
+    }
+
+    /**
+     * Prints the parameters in the form of the declarations in ChessEngine and PieceSquareTables
+     * @param parameters    The parameter vector
+     */
+    public static void printParameters(double parameters[]) {
+        for (int i = 0; i < SINGLE_PARAMETER_NAMES.length; i++) {
+            System.out.println(String.format("static final int %s = %d;", SINGLE_PARAMETER_NAMES[i], Math.round(parameters[i])));
+        }
+        for (int table = 0; table < TABLE_NAMES.length; table++) {
+            StringBuilder declaration = new StringBuilder("private static final int " + TABLE_NAMES[table] + "[] = {");
+            for (int squareSerial = 0; squareSerial < 64; squareSerial++) {
+                if (squareSerial % 8 == 0 && squareSerial > 0) {
+                    declaration.append("\n    ");
+                }
+                declaration.append(String.format("%4d", Math.round(parameters[FIRST_TABLE + table * 64 + squareSerial])));
+                declaration.append(squareSerial < 63 ? "," : " };");
+            }
+            System.out.println(declaration);
+        }
+        System.out.println("// black's tables are the mirrors of white's");
+    }
+
+    /**
+     * Shuts down the threads
+     */
+    public void shutdown() {
+        threadPool.shutdown();
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int positionsPerFile = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_POSITIONS_PER_FILE;
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        EvaluationTuner tuner = new EvaluationTuner(threads);
+        try {
+            long startTime = System.nanoTime();
+            TuningDataset dataset = tuner.extractPositions(positionsPerFile);
+            System.out.println(String.format("Positions: %d   entries: %d   threads: %d   extraction time: %.1f s", dataset.size(),
+                    dataset.getEntryCount(), tuner.threads, (System.nanoTime() - startTime) / 1e9));
+            double parameters[] = getCurrentParameters();
+            double scale = tuner.fitScale(dataset, parameters);
+            System.out.println(String.format("Scaling constant K: %.3f   initial error: %.6f", scale, tuner.evaluateAll(dataset, parameters, scale, false)[0]));
+            tuner.tune(dataset, parameters, scale, iterations);
+            printParameters(parameters);
+        }
+        finally {
+            tuner.shutdown();
+        }
+    }
+}
@@ -44,6 +44,30 @@ public class KillerMoveHistoryTable {
         }
     }
 
+    /**
+     * Moves the table to a given ply: forward by shifting out the ply which the game has moved past, or by clearing the table if
+     * the game has moved back (a new game or position) or too far forward for any of its entries to remain relevant
+     * @param ply   The ply of the position about to be searched
+     */
+    public void setCurrentPly(int ply) {
+        if (ply < currentPly || ply - currentPly > ChessEngine.DEPTH) {
+            clear();
+            currentPly = ply;
+        }
+        while (currentPly < ply) {
+            incrementPly();
+        }
+    }
+
+    /**
+     * Removes all killer moves, such as for a new game
+     */
+    public void clear() {
+        for (int i = 0; i < historyMoves.length; i++) {
+            historyMoves[i] = new int[64][64];
+        }
+    }
+
     /**
      * Get a relative score corresponding to the number of cutoffs this move has caused at the same ply,
      * and to a lesser extent, the number of cutoffs this move has caused in previous and subsequent moves of the same player
@@ -0,0 +1,29 @@
+package com.circumspectus.Engine;
+
+/**
+ * A tuple to store what is known about a material signature as the value of the material table
+ * @author Christopher Stieg
+ */
+public class MaterialEntry {
+    public enum TypeOfEntry {DRAW, SCALED, SPECIALIZED};
+    public enum Endgame {KQK, KRK, KBNK, KPK};
+    public static final int FULL_SCALE = 64;  // scale factor which leaves the evaluation unchanged
+    public TypeOfEntry typeOfEntry;
+    public int scaleFactor;  // the general evaluation is multiplied by scaleFactor / FULL_SCALE
+    public Endgame endgame;  // the specialized evaluator to use
+    public int strongerColor;  // the color of the side with the extra material, for specialized evaluators
+    
+    /**
+     * Constructor for MaterialEntry
+     * @param typeOfEntry   Whether the signature is a known draw, has its general evaluation scaled, or has a specialized evaluator
+     * @param scaleFactor   Scale factor of the general evaluation in 64ths, for scaled entries
+     * @param endgame       The specialized evaluator, for specialized entries
+     * @param strongerColor The color of the side with the extra material, for specialized entries
+     */
+    public MaterialEntry(TypeOfEntry typeOfEntry, int scaleFactor, Endgame endgame, int strongerColor) {
+        this.typeOfEntry = typeOfEntry;
+        this.scaleFactor = scaleFactor;
+        this.endgame = endgame;
+        this.strongerColor = strongerColor;
+    }
+}
@@ -0,0 +1,142 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.Engine.MaterialEntry.Endgame;
+import com.circumspectus.Engine.MaterialEntry.TypeOfEntry;
+import java.util.HashMap;
+
+/**
+ * A table of material signatures whose evaluation is known in advance, indexed by the material key of a board.
+ * The material key counts the pieces of each type and color in MATERIAL_KEY_BITS bits each, so it identifies the signature exactly.
+ * Signatures which cannot be won (such as a lone minor piece against a king) are known draws, a few drawish endings without pawns
+ * have their evaluation scaled down, and the basic mates and king and pawn against king have specialized evaluators.
+ * Signatures not in the table are evaluated in full.
+ * @author Christopher Stieg
+ */
+public class MaterialTable {
+    public static final int MATERIAL_KEY_BITS = 4;  // bits per piece count; no piece type can reach 16 of one color
+    private static final int MAX_PIECES = 6;  // the most pieces, kings included, of any signature in the table
+    private static final int MAX_MINOR_PIECES = 2;  // per type and color, for the signatures of minor pieces only
+    private static final int DRAWISH_SCALE = 16;  // in 64ths, for a rook against a minor piece, or a rook and minor piece against a rook
+    private static final long HEAVY_PIECES_AND_PAWNS_MASK = getMaterialKeyIncrement(Chessboard.QUEEN) * 0xFF
+                                                          | getMaterialKeyIncrement(Chessboard.ROOK) * 0xFF
+                                                          | getMaterialKeyIncrement(Chessboard.PAWN) * 0xFF;
+    private static final HashMap<Long, MaterialEntry> ENTRIES = new HashMap<>();
+
+    static {
+        // lone minor pieces which cannot force mate, by the same rule as Chessboard.sufficientMaterialToCheckmate
+        for (int whiteKnights = 0; whiteKnights <= MAX_MINOR_PIECES; whiteKnights++) {
+            for (int whiteBishops = 0; whiteBishops <= MAX_MINOR_PIECES; whiteBishops++) {
+                for (int blackKnights = 0; blackKnights <= MAX_MINOR_PIECES; blackKnights++) {
+                    for (int blackBishops = 0; blackBishops <= MAX_MINOR_PIECES; blackBishops++) {
+                        if (!canForceMate(whiteKnights, whiteBishops) && !canForceMate(blackKnights, blackBishops)) {
+                            int counts[] = new int[12];
+                            counts[Chessboard.KNIGHT + Chessboard.WHITE] = whiteKnights;
+                            counts[Chessboard.BISHOP + Chessboard.WHITE] = whiteBishops;
+                            counts[Chessboard.KNIGHT + Chessboard.BLACK] = blackKnights;
+                            counts[Chessboard.BISHOP + Chessboard.BLACK] = blackBishops;
+                            put(counts, new MaterialEntry(TypeOfEntry.DRAW, MaterialEntry.FULL_SCALE, null, Chessboard.WHITE));
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int strongerColor = Chessboard.WHITE; strongerColor <= Chessboard.BLACK; strongerColor++) {
+            int weakerColor = 1 - strongerColor;
+            putSpecialized(Endgame.KQK, strongerColor, Chessboard.QUEEN + strongerColor);
+            putSpecialized(Endgame.KRK, strongerColor, Chessboard.ROOK + strongerColor);
+            putSpecialized(Endgame.KBNK, strongerColor, Chessboard.BISHOP + strongerColor, Chessboard.KNIGHT + strongerColor);
+            putSpecialized(Endgame.KPK, strongerColor, Chessboard.PAWN + strongerColor);
+
+            putScaled(Chessboard.ROOK + strongerColor, Chessboard.BISHOP + weakerColor);
+            putScaled(Chessboard.ROOK + strongerColor, Chessboard.KNIGHT + weakerColor);
+            putScaled(Chessboard.ROOK + strongerColor, Chessboard.BISHOP + strongerColor, Chessboard.ROOK + weakerColor);
+            putScaled(Chessboard.ROOK + strongerColor, Chessboard.KNIGHT + strongerColor, Chessboard.ROOK + weakerColor);
+        }
+    }
+
+    /**
+     * Checks whether a side with only minor pieces can force mate, by the same rule as Chessboard.sufficientMaterialToCheckmate
+     * @param knights   The number of knights
+     * @param bishops   The number of bishops
+     * @return  True if the side has two bishops, or a bishop and a knight
+     */
+    private static boolean canForceMate(int knights, int bishops) {
+        return bishops >= 2 || (bishops >= 1 && knights >= 1);
+    }
+
+    /**
+     * Adds a specialized evaluator for a signature of two kings and the given pieces
+     * @param endgame   The specialized evaluator
+     * @param strongerColor The color of the side with the pieces
+     * @param pieceTypeColors   The pieces besides the kings
+     */
+    private static void putSpecialized(Endgame endgame, int strongerColor, int... pieceTypeColors) {
+        put(countPieces(pieceTypeColors), new MaterialEntry(TypeOfEntry.SPECIALIZED, MaterialEntry.FULL_SCALE, endgame, strongerColor));
+    }
+
+    /**
+     * Adds a scaled entry for a signature of two kings and the given pieces
+     * @param pieceTypeColors   The pieces besides the kings
+     */
+    private static void putScaled(int... pieceTypeColors) {
+        put(countPieces(pieceTypeColors), new MaterialEntry(TypeOfEntry.SCALED, DRAWISH_SCALE, null, Chessboard.WHITE));
+    }
+
+    /**
+     * Counts pieces by type and color
+     * @param pieceTypeColors   The pieces, one pieceTypeColor per piece
+     * @return  The counts indexed by pieceTypeColor
+     */
+    private static int[] countPieces(int... pieceTypeColors) {
+        int counts[] = new int[12];
+        for (int pieceTypeColor : pieceTypeColors) {
+            counts[pieceTypeColor]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Adds an entry for a signature of two kings and the given piece counts
+     * @param counts    The counts of pieces other than kings, indexed by pieceTypeColor
+     * @param entry     The entry to add
+     */
+    private static void put(int counts[], MaterialEntry entry) {
+        long materialKey = getMaterialKeyIncrement(Chessboard.KING + Chessboard.WHITE) + getMaterialKeyIncrement(Chessboard.KING + Chessboard.BLACK);
+        for (int pieceTypeColor = Chessboard.QUEEN; pieceTypeColor <= Chessboard.PAWN + Chessboard.BLACK; pieceTypeColor++) {
+            materialKey += counts[pieceTypeColor] * getMaterialKeyIncrement(pieceTypeColor);
+        }
+        ENTRIES.put(materialKey, entry);
+    }
+
+    /**
+     * Gets the amount by which the material key changes when a piece is added
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard)
+     * @return  The material key increment
+     */
+    public static long getMaterialKeyIncrement(int pieceTypeColor) {
+        return 1L << (pieceTypeColor * MATERIAL_KEY_BITS);
+    }
+
+    /**
+     * Looks up a material signature
+     * @param materialKey   The material key of the board
+     * @return  The entry for the signature, or null if it must be evaluated in full
+     */
+    public static MaterialEntry probe(long materialKey) {
+        if (Long.bitCount(materialKey) > MAX_PIECES) {
+            return null;  // quick rejection of most positions: each bit set in a key stands for at least one piece
+        }
+        return ENTRIES.get(materialKey);
+    }
+
+    /**
+     * Checks whether a signature has no queens, rooks or pawns, in which case it may lack the material to checkmate
+     * @param materialKey   The material key of the board
+     * @return  True if the only pieces are kings, bishops and knights
+     */
+    public static boolean hasOnlyMinorPieces(long materialKey) {
+        return (materialKey & HEAVY_PIECES_AND_PAWNS_MASK) == 0;
+    }
+}
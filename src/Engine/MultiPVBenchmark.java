@@ -0,0 +1,71 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.InvalidMoveException;
+import java.io.PrintStream;
+
+/**
+ * Benchmark for multi-PV search.  Searches a set of middlegame positions to a fixed depth with one line and with several,
+ * each search on a fresh engine so that no transposition table entries carry over, and reports the nodes and time of each
+ * number of lines relative to a single-PV search.  The lines of the last search of each position are printed as well.
+ * Run with the arguments: depth, followed by the numbers of lines to compare (by default 5, and 1 2 4).
+ * @author Christopher Stieg
+ */
+public class MultiPVBenchmark {
+    private static final int DEFAULT_DEPTH = 5;
+    private static final int[] DEFAULT_LINE_COUNTS = { 1, 2, 4 };
+    private static final String[] POSITIONS = {
+        "e4 e5 Nf3 Nc6 Bb5 a6 Ba4 Nf6 O-O Be7 Re1 b5 Bb3 d6 c3 O-O h3 Na5 Bc2 c5 d4 Qc7",
+        "d4 Nf6 c4 e6 Nc3 Bb4 e3 O-O Bd3 d5 Nf3 c5 O-O Nc6 a3 Bxc3 bxc3 dxc4 Bxc4 Qc7",
+        "e4 c5 Nf3 d6 d4 cxd4 Nxd4 Nf6 Nc3 a6 Be3 e5 Nb3 Be6 f3 Be7 Qd2 O-O O-O-O Nbd7",
+        "d4 d5 c4 e6 Nc3 Nf6 Bg5 Be7 e3 O-O Nf3 h6 Bh4 b6 cxd5 Nxd5 Bxe7 Qxe7 Nxd5 exd5",
+        "e4 e6 d4 d5 Nc3 Bb4 e5 c5 a3 Bxc3 bxc3 Ne7 Qg4 Qc7 Qxg7 Rg8 Qxh7 cxd4 Ne2 Nbc6",
+        "c4 e5 Nc3 Nf6 Nf3 Nc6 g3 d5 cxd5 Nxd5 Bg2 Nb6 O-O Be7 d3 O-O a3 Be6 b4 a5"
+    };
+
+    /**
+     * Runs the benchmark
+     * @param args  The depth, followed by the numbers of lines to compare
+     * @throws InvalidMoveException If a position's movetext is invalid
+     */
+    public static void main(String[] args) throws InvalidMoveException {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+        int[] lineCounts = DEFAULT_LINE_COUNTS;
+        if (args.length > 1) {
+            lineCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                lineCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        long[] totalNodes = new long[lineCounts.length];
+        long[] totalTime = new long[lineCounts.length];
+        PrintStream out = System.out;
+        for (String position : POSITIONS) {
+            out.println(position);
+            for (int i = 0; i < lineCounts.length; i++) {
+                ZobristBoard board = new ZobristBoard(new ZobristHashing());
+                for (String movetext : position.split(" ")) {
+                    board.move(movetext);
+                }
+                ChessEngine engine = new ChessEngine(board, board.getClone());
+                engine.setOpeningBookEnabled(false);
+                engine.setMultiPV(lineCounts[i]);
+                SearchResult result = engine.search(new SearchLimits(depth, SearchLimits.UNLIMITED, SearchLimits.UNLIMITED), new StopToken(), null).join();
+                totalNodes[i] += result.nodes;
+                totalTime[i] += result.time;
+                out.println(String.format("  %d line(s): %9d nodes %7d ms", lineCounts[i], result.nodes, result.time));
+                if (i == lineCounts.length - 1) {
+                    for (PrincipalVariation principalVariation : result.principalVariations) {
+                        out.println("    " + principalVariation);
+                    }
+                }
+            }
+        }
+
+        out.println("Depth " + depth + ", " + POSITIONS.length + " positions");
+        for (int i = 0; i < lineCounts.length; i++) {
+            out.println(String.format("%d line(s): %10d nodes %8d ms   %.2fx nodes  %.2fx time of %d line(s)", lineCounts[i], totalNodes[i], totalTime[i],
+                    (double) totalNodes[i] / totalNodes[0], (double) totalTime[i] / Math.max(1, totalTime[0]), lineCounts[0]));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.ChessApplication.Square;
+import java.util.Arrays;
+
+/**
+ * A stack of the first layer accumulators of a neural network for one board, the current position on top.
+ * Each level holds the accumulator of both perspectives.  A level is copied when a move is made and discarded when it is undone,
+ * and the pieces added and removed by the move update the copy.  When the king of a perspective moves, all of that perspective's
+ * inputs change, so the perspective is marked for a refresh from scratch when the board is next evaluated.
+ * @author Christopher Stieg
+ */
+public class NetworkAccumulator {
+    private static final int INITIAL_CAPACITY = 64;  // in ply; the stack grows if a search or game runs longer
+
+    private final NeuralNetwork network;
+    private final Chessboard board;
+    private final int levelSize;  // both perspectives' accumulators
+    private short values[];  // by level * levelSize + perspective * hiddenSize + hidden index
+    private boolean stale[];  // by level * 2 + perspective; true if the accumulator must be refreshed before use
+    private int top;  // level of the current position
+
+    /**
+     * Constructor for NetworkAccumulator.  Both perspectives are refreshed at the first evaluation.
+     * @param network   The network whose first layer to accumulate
+     * @param board The board whose pieces are accumulated
+     */
+    public NetworkAccumulator(NeuralNetwork network, Chessboard board) {
+        this.network = network;
+        this.board = board;
+        this.levelSize = 2 * network.getHiddenSize();
+        values = new short[INITIAL_CAPACITY * levelSize];
+        stale = new boolean[INITIAL_CAPACITY * 2];
+        stale[Chessboard.WHITE] = true;
+        stale[Chessboard.BLACK] = true;
+    }
+
+    /**
+     * Gets the network whose first layer is accumulated
+     * @return  The network
+     */
+    public NeuralNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Copies the current level to a new level on top of the stack, before a move is made, growing the stack if necessary
+     */
+    public void push() {
+        if ((top + 2) * levelSize > values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+            stale = Arrays.copyOf(stale, stale.length * 2);
+        }
+        System.arraycopy(values, top * levelSize, values, (top + 1) * levelSize, levelSize);
+        stale[(top + 1) * 2] = stale[top * 2];
+        stale[(top + 1) * 2 + 1] = stale[top * 2 + 1];
+        top++;
+    }
+
+    /**
+     * Discards the top level, when a move is undone.  Undoing a move made before the network was attached leaves a single level,
+     * which is marked for a refresh.
+     */
+    public void pop() {
+        if (top == 0) {
+            stale[Chessboard.WHITE] = true;
+            stale[Chessboard.BLACK] = true;
+            return;
+        }
+        top--;
+    }
+
+    /**
+     * Updates the current level for a piece added to the board
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard)
+     * @param serial    The square of the piece
+     */
+    public void addPiece(int pieceTypeColor, int serial) {
+        for (int perspective = Chessboard.WHITE; perspective <= Chessboard.BLACK; perspective++) {
+            if (updatePerspective(pieceTypeColor, perspective)) {
+                network.addFeature(values, top * levelSize + perspective * network.getHiddenSize(), getFeatureIndex(pieceTypeColor, serial, perspective));
+            }
+        }
+    }
+
+    /**
+     * Updates the current level for a piece removed from the board
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard)
+     * @param serial    The square of the piece
+     */
+    public void removePiece(int pieceTypeColor, int serial) {
+        for (int perspective = Chessboard.WHITE; perspective <= Chessboard.BLACK; perspective++) {
+            if (updatePerspective(pieceTypeColor, perspective)) {
+                network.subtractFeature(values, top * levelSize + perspective * network.getHiddenSize(), getFeatureIndex(pieceTypeColor, serial, perspective));
+            }
+        }
+    }
+
+    /**
+     * Checks whether a perspective of the current level can be updated for a piece, marking it stale if the piece is its king
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard)
+     * @param perspective   Either the constant WHITE or BLACK
+     * @return  True if the perspective should be updated, false if it will be refreshed instead
+     */
+    private boolean updatePerspective(int pieceTypeColor, int perspective) {
+        if (pieceTypeColor == Chessboard.KING + perspective) {
+            stale[top * 2 + perspective] = true;
+        }
+        return !stale[top * 2 + perspective];
+    }
+
+    /**
+     * Gets the input of a piece as seen from one perspective, with that perspective's king where it stands on the board
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard)
+     * @param serial    The square of the piece
+     * @param perspective   Either the constant WHITE or BLACK
+     * @return  The index of the input
+     */
+    private int getFeatureIndex(int pieceTypeColor, int serial, int perspective) {
+        return NeuralNetwork.getFeatureIndex(perspective, Square.toSerial(board.getPieceSet(Chessboard.KING + perspective)), pieceTypeColor, serial);
+    }
+
+    /**
+     * Evaluates the current position, refreshing stale perspectives first
+     * @return  The evaluation in centipawns from the perspective of the player to move
+     */
+    public int evaluate() {
+        for (int perspective = Chessboard.WHITE; perspective <= Chessboard.BLACK; perspective++) {
+            if (stale[top * 2 + perspective]) {
+                network.refresh(board, perspective, values, top * levelSize + perspective * network.getHiddenSize());
+                stale[top * 2 + perspective] = false;
+            }
+        }
+        return network.evaluate(values, top * levelSize, board.getCurrentPlayer());
+    }
+}
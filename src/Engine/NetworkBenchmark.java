@@ -0,0 +1,99 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Move;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Benchmark for the neural network evaluator against the classical evaluator.  For every position from games of pseudo-random
+ * legal moves, each pseudo-legal move is made, the resulting board is evaluated and the move is undone, as in a search; the
+ * evaluations per second of each evaluator are reported, with those of making and undoing the moves alone for comparison.
+ * Before timing, every incrementally updated evaluation is checked against an evaluation from freshly refreshed accumulators.
+ * The weights file is given as the first argument; without one, a network of pseudo-random weights of the usual size is used.
+ * @author Christopher Stieg
+ */
+public class NetworkBenchmark {
+    private static final int POSITIONS = 2000;
+    private static final int RANDOM_NETWORK_HIDDEN_SIZE = 256;
+    private static final long SEED = 42;
+    private static final int ROUNDS = 10;  // the fastest round is reported, to filter out JIT compilation
+
+    private enum Evaluator { NONE, CLASSICAL, NETWORK }
+
+    /**
+     * Counts the incrementally updated evaluations which differ from an evaluation from freshly refreshed accumulators
+     * @param positions The positions, each with the network attached
+     * @param network   The network
+     * @return  The number of mismatched evaluations
+     */
+    private static int countMismatches(ArrayList<ZobristBoard> positions, NeuralNetwork network) {
+        int mismatches = 0;
+        for (ZobristBoard position : positions) {
+            int evaluationBefore = position.evaluateNeuralNetwork();
+            for (Move move : position.getPossibleMoves(position.getCurrentPlayer())) {
+                position.move(move);
+                int incremental = position.evaluateNeuralNetwork();
+                ZobristBoard refreshed = position.getClone();  // the clone's accumulators start stale
+                if (incremental != refreshed.evaluateNeuralNetwork()) {
+                    mismatches++;
+                }
+                position.undoLastMove();
+            }
+            if (position.evaluateNeuralNetwork() != evaluationBefore) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * Makes, evaluates and undoes every pseudo-legal move of every position once
+     * @param positions The positions, each with the network attached
+     * @param evaluator The evaluator to use, or NONE to make and undo the moves only
+     * @param pawnHashTable The pawn hash table for the classical evaluator
+     * @return  The number of evaluations in the low 32 bits and a checksum of the scores in the high 32 bits
+     */
+    private static long evaluateMoves(ArrayList<ZobristBoard> positions, Evaluator evaluator, PawnHashTable pawnHashTable) {
+        int evaluations = 0;
+        int checksum = 0;
+        for (ZobristBoard position : positions) {
+            for (Move move : position.getPossibleMoves(position.getCurrentPlayer())) {
+                position.move(move);
+                if (evaluator == Evaluator.CLASSICAL) {
+                    checksum = checksum * 31 + ChessEngine.evaluateBoard(position, pawnHashTable);
+                }
+                else if (evaluator == Evaluator.NETWORK) {
+                    checksum = checksum * 31 + position.evaluateNeuralNetwork();
+                }
+                position.undoLastMove();
+                evaluations++;
+            }
+        }
+        return ((long) checksum << 32) | evaluations;
+    }
+
+    public static void main(String[] args) throws IOException {
+        NeuralNetwork network = (args.length > 0) ? NeuralNetwork.load(args[0]) : NeuralNetwork.createRandom(RANDOM_NETWORK_HIDDEN_SIZE, SEED);
+        ArrayList<ZobristBoard> positions = EvaluationBenchmark.generatePositions(POSITIONS, SEED);
+        for (ZobristBoard position : positions) {
+            position.setNeuralNetwork(network);
+        }
+        System.out.println("Kernel: " + NeuralNetwork.getKernelName() + "   hidden size: " + network.getHiddenSize());
+        System.out.println("Positions: " + positions.size());
+        System.out.println("Incremental evaluations differing from refreshed: " + countMismatches(positions, network));
+
+        PawnHashTable pawnHashTable = new PawnHashTable();
+        for (Evaluator evaluator : Evaluator.values()) {
+            long fastestRound = Long.MAX_VALUE;
+            long result = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long startTime = System.nanoTime();
+                result = evaluateMoves(positions, evaluator, pawnHashTable);
+                fastestRound = Math.min(fastestRound, System.nanoTime() - startTime);
+            }
+            int evaluations = (int) result;
+            System.out.println(String.format("%-9s  moves: %d   per second: %.0f   checksum: %08x", evaluator, evaluations,
+                    evaluations * 1e9 / fastestRound, (int) (result >>> 32)));
+        }
+    }
+}
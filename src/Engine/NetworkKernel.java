@@ -0,0 +1,42 @@
+package com.circumspectus.Engine;
+
+/**
+ * The inner loops of neural network inference, over int16 values.  NeuralNetwork uses VectorNetworkKernel where it was compiled
+ * and the jdk.incubator.vector module is present, and ScalarNetworkKernel otherwise.
+ * @author Christopher Stieg
+ */
+public interface NetworkKernel {
+
+    /**
+     * Adds a row of weights to an accumulator
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param weights   The array holding the weights
+     * @param weightOffset  The index of the first weight of the row
+     * @param length    The number of values
+     */
+    void add(short accumulator[], int offset, short weights[], int weightOffset, int length);
+
+    /**
+     * Subtracts a row of weights from an accumulator
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param weights   The array holding the weights
+     * @param weightOffset  The index of the first weight of the row
+     * @param length    The number of values
+     */
+    void subtract(short accumulator[], int offset, short weights[], int weightOffset, int length);
+
+    /**
+     * Multiplies accumulator values, clipped to 0..clip, by weights and sums the products.  The clipped values and the weights
+     * must be small enough for each product to fit in 16 bits.
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param weights   The array holding the weights
+     * @param weightOffset  The index of the first weight
+     * @param length    The number of values
+     * @param clip  The largest value of an accumulator value after clipping
+     * @return  The sum of the products
+     */
+    int clippedDotProduct(short accumulator[], int offset, short weights[], int weightOffset, int length, int clip);
+}
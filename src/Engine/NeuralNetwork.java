@@ -0,0 +1,250 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.ChessApplication.Square;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * A small efficiently updatable neural network for evaluating boards, an alternative to ChessEngine.evaluateBoard.
+ * The inputs are HalfKA features: for each perspective (white and black), one input for every combination of the square of that
+ * perspective's king, a piece (including the kings) and its square, with the board mirrored vertically for black so that both
+ * perspectives see their own pieces moving up the board.  The first layer maps the inputs of each perspective to hiddenSize int16
+ * values, the accumulator, which is updated incrementally as pieces are added and removed (see NetworkAccumulator).
+ * The output layer takes both accumulators, that of the player to move first, clipped to 0..CLIP so that they fit in int8, and
+ * weights them by int8 output weights.
+ * The inner loops run in a NetworkKernel: VectorNetworkKernel (in src-vector, see there) if it was compiled and the
+ * jdk.incubator.vector module was added, else ScalarNetworkKernel.
+ * @author Christopher Stieg
+ */
+public class NeuralNetwork {
+    public static final int PIECE_FEATURES = 12;  // 6 piece types, each of the perspective's color or the opponent's
+    public static final int INPUTS = 64 * PIECE_FEATURES * 64;  // king square, piece, piece square
+    public static final int CLIP = 127;  // accumulator values are clipped to 0..CLIP before the output layer
+    public static final int OUTPUT_WEIGHT_SCALE = 64;  // output weights are in 64ths
+    private static final int MAGIC = 0x554E4E43;  // "CNNU" in a little-endian file
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final String VECTOR_KERNEL = "com.circumspectus.Engine.VectorNetworkKernel";
+    private static final NetworkKernel KERNEL = createKernel();
+
+    private final int hiddenSize;  // accumulator values per perspective
+    private final int outputScale;  // centipawns per unit of network output
+    private final short featureBiases[];
+    private final short featureWeights[];  // by input * hiddenSize + hidden index
+    private final short outputWeights[];  // int8 values, widened for the kernel; the player to move's accumulator first, then the opponent's
+    private final int outputBias;
+
+    /**
+     * Constructor for NeuralNetwork
+     * @param hiddenSize    The number of accumulator values per perspective
+     * @param outputScale   Centipawns per unit of network output
+     * @param featureBiases The first layer biases, hiddenSize values
+     * @param featureWeights    The first layer weights, INPUTS * hiddenSize values
+     * @param outputWeights The output layer weights, 2 * hiddenSize values
+     * @param outputBias    The output layer bias
+     */
+    private NeuralNetwork(int hiddenSize, int outputScale, short featureBiases[], short featureWeights[], byte outputWeights[], int outputBias) {
+        this.hiddenSize = hiddenSize;
+        this.outputScale = outputScale;
+        this.featureBiases = featureBiases;
+        this.featureWeights = featureWeights;
+        this.outputWeights = new short[outputWeights.length];
+        for (int i = 0; i < outputWeights.length; i++) {
+            this.outputWeights[i] = outputWeights[i];
+        }
+        this.outputBias = outputBias;
+    }
+
+    /**
+     * Creates the vector kernel if it was compiled and the jdk.incubator.vector module is present, or the scalar kernel otherwise
+     * @return  The kernel
+     */
+    private static NetworkKernel createKernel() {
+        try {
+            return (NetworkKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarNetworkKernel();
+        }
+    }
+
+    /**
+     * Gets the name of the kernel in use
+     * @return  The simple class name of the kernel
+     */
+    public static String getKernelName() {
+        return KERNEL.getClass().getSimpleName();
+    }
+
+    /**
+     * Loads a network from a weights file.  The file is little-endian: the int magic number, version, hidden size and output scale,
+     * then the int16 first layer biases and weights, the int8 output weights and the int output bias.
+     * @param path  The path of the weights file
+     * @return  The network
+     * @throws IOException  If the file cannot be read or is not a weights file of this version
+     */
+    public static NeuralNetwork load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION + " network weights file");
+            }
+            int hiddenSize = buffer.getInt();
+            int outputScale = buffer.getInt();
+            if (hiddenSize <= 0 || (long) buffer.remaining() != getWeightBytes(hiddenSize)) {
+                throw new IOException(path + " has the wrong size for a hidden size of " + hiddenSize);
+            }
+            short featureBiases[] = new short[hiddenSize];
+            short featureWeights[] = new short[INPUTS * hiddenSize];
+            byte outputWeights[] = new byte[2 * hiddenSize];
+            buffer.asShortBuffer().get(featureBiases);
+            buffer.position(buffer.position() + hiddenSize * 2);
+            buffer.asShortBuffer().get(featureWeights);
+            buffer.position(buffer.position() + featureWeights.length * 2);
+            buffer.get(outputWeights);
+            int outputBias = buffer.getInt();
+            return new NeuralNetwork(hiddenSize, outputScale, featureBiases, featureWeights, outputWeights, outputBias);
+        }
+    }
+
+    /**
+     * Saves the network to a weights file in the format read by load
+     * @param path  The path of the weights file
+     * @throws IOException  If the file cannot be written
+     */
+    public void save(String path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (HEADER_BYTES + getWeightBytes(hiddenSize))).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(hiddenSize).putInt(outputScale);
+        for (short bias : featureBiases) {
+            buffer.putShort(bias);
+        }
+        for (short weight : featureWeights) {
+            buffer.putShort(weight);
+        }
+        for (short weight : outputWeights) {
+            buffer.put((byte) weight);
+        }
+        buffer.putInt(outputBias);
+        buffer.flip();
+        Path file = Paths.get(path);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Creates a network with pseudo-random weights, which plays badly but evaluates at the speed of a trained network of the same size
+     * @param hiddenSize    The number of accumulator values per perspective
+     * @param seed  The seed of the weights
+     * @return  The network
+     */
+    public static NeuralNetwork createRandom(int hiddenSize, long seed) {
+        Random random = new Random(seed);
+        short featureBiases[] = new short[hiddenSize];
+        short featureWeights[] = new short[INPUTS * hiddenSize];
+        byte outputWeights[] = new byte[2 * hiddenSize];
+        for (int i = 0; i < featureBiases.length; i++) {
+            featureBiases[i] = (short) random.nextInt(CLIP);
+        }
+        for (int i = 0; i < featureWeights.length; i++) {
+            featureWeights[i] = (short) (random.nextInt(33) - 16);
+        }
+        for (int i = 0; i < outputWeights.length; i++) {
+            outputWeights[i] = (byte) (random.nextInt(65) - 32);
+        }
+        return new NeuralNetwork(hiddenSize, 100, featureBiases, featureWeights, outputWeights, 0);
+    }
+
+    /**
+     * Gets the number of bytes of a weights file after the header
+     * @param hiddenSize    The number of accumulator values per perspective
+     * @return  The number of bytes
+     */
+    private static long getWeightBytes(int hiddenSize) {
+        return hiddenSize * 2L + (long) INPUTS * hiddenSize * 2 + hiddenSize * 2L + 4;
+    }
+
+    /**
+     * Gets the number of accumulator values per perspective
+     * @return  The hidden size
+     */
+    public int getHiddenSize() {
+        return hiddenSize;
+    }
+
+    /**
+     * Gets the input of a piece as seen from one perspective
+     * @param perspective   The color whose perspective to use, either the constant WHITE or BLACK
+     * @param kingSerial    The square of the perspective's king
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard)
+     * @param serial    The square of the piece
+     * @return  The index of the input
+     */
+    public static int getFeatureIndex(int perspective, int kingSerial, int pieceTypeColor, int serial) {
+        int orientation = (perspective == Chessboard.WHITE) ? 0 : 56;  // mirrors the ranks for black
+        int piece = Chessboard.getPieceType(pieceTypeColor) + (Chessboard.getPieceColor(pieceTypeColor) == perspective ? 0 : 1);
+        return ((kingSerial ^ orientation) * PIECE_FEATURES + piece) * 64 + (serial ^ orientation);
+    }
+
+    /**
+     * Adds the weights of an input to an accumulator
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param feature   The index of the input
+     */
+    public void addFeature(short accumulator[], int offset, int feature) {
+        KERNEL.add(accumulator, offset, featureWeights, feature * hiddenSize, hiddenSize);
+    }
+
+    /**
+     * Subtracts the weights of an input from an accumulator
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param feature   The index of the input
+     */
+    public void subtractFeature(short accumulator[], int offset, int feature) {
+        KERNEL.subtract(accumulator, offset, featureWeights, feature * hiddenSize, hiddenSize);
+    }
+
+    /**
+     * Calculates the accumulator of one perspective from scratch
+     * @param board The board whose pieces to use
+     * @param perspective   The color whose perspective to use, either the constant WHITE or BLACK
+     * @param accumulator   The array in which to write the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     */
+    public void refresh(Chessboard board, int perspective, short accumulator[], int offset) {
+        System.arraycopy(featureBiases, 0, accumulator, offset, hiddenSize);
+        int kingSerial = Square.toSerial(board.getPieceSet(Chessboard.KING + perspective));
+        for (int pieceTypeColor = Chessboard.KING; pieceTypeColor <= Chessboard.PAWN + Chessboard.BLACK; pieceTypeColor++) {
+            long pieceSet = board.getPieceSet(pieceTypeColor);
+            while (pieceSet != 0) {
+                addFeature(accumulator, offset, getFeatureIndex(perspective, kingSerial, pieceTypeColor, Square.toSerial(pieceSet)));
+                pieceSet &= pieceSet - 1;
+            }
+        }
+    }
+
+    /**
+     * Evaluates a board from its accumulators
+     * @param accumulator   The array holding the accumulators, white's followed by black's
+     * @param offset    The index of the first value of white's accumulator in the array
+     * @param player    The player to move, either the constant WHITE or BLACK
+     * @return  The evaluation in centipawns from the perspective of the player to move
+     */
+    public int evaluate(short accumulator[], int offset, int player) {
+        int playersOffset = offset + player * hiddenSize;
+        int opponentsOffset = offset + (1 - player) * hiddenSize;
+        int sum = KERNEL.clippedDotProduct(accumulator, playersOffset, outputWeights, 0, hiddenSize, CLIP)
+                  + KERNEL.clippedDotProduct(accumulator, opponentsOffset, outputWeights, hiddenSize, hiddenSize, CLIP);
+        return (int) ((long) (sum + outputBias) * outputScale / (CLIP * OUTPUT_WEIGHT_SCALE));
+    }
+}
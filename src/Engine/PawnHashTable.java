@@ -0,0 +1,86 @@
+package com.circumspectus.Engine;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size, always-replace hash table of pawn structure evaluations, indexed by the pawn-only Zobrist key of a board.
+ * Pawn structure changes only when a pawn moves or is captured, so most evaluations in a search find their pawn structure here.
+ * Each entry keeps the pawn structure score of each side.
+ * @author Christopher Stieg
+ */
+public class PawnHashTable {
+    private static final int SIZE = 16384;  // must be a power of 2
+    private static final int INDEX_MASK = SIZE - 1;
+    private static final long EMPTY = -1;  // key marking an unused entry; a board without pawns has a pawn key of 0, so 0 cannot be used
+    public static final int NOT_FOUND = -1;
+
+    private final long keys[];
+    private final int scores[];  // by index * 2 + color
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor for PawnHashTable
+     */
+    public PawnHashTable() {
+        keys = new long[SIZE];
+        scores = new int[SIZE * 2];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Finds the entry for a pawn structure, counting a hit or a miss
+     * @param pawnKey   The pawn-only Zobrist key of the board
+     * @return  The index of the entry, or NOT_FOUND
+     */
+    public int probe(long pawnKey) {
+        int index = (int) (pawnKey & INDEX_MASK);
+        if (keys[index] == pawnKey) {
+            hits++;
+            return index;
+        }
+        misses++;
+        return NOT_FOUND;
+    }
+
+    /**
+     * Stores the evaluation of a pawn structure, replacing whatever was stored in its entry
+     * @param pawnKey   The pawn-only Zobrist key of the board
+     * @param whiteScore    The pawn structure score of white's pawns in centipawns
+     * @param blackScore    The pawn structure score of black's pawns in centipawns
+     * @return  The index of the entry
+     */
+    public int store(long pawnKey, int whiteScore, int blackScore) {
+        int index = (int) (pawnKey & INDEX_MASK);
+        keys[index] = pawnKey;
+        scores[index * 2] = whiteScore;
+        scores[index * 2 + 1] = blackScore;
+        return index;
+    }
+
+    /**
+     * Gets the pawn structure score of one side in an entry
+     * @param index The index of the entry
+     * @param color Either the constant WHITE or BLACK
+     * @return  The score in centipawns
+     */
+    public int getScore(int index, int color) {
+        return scores[index * 2 + color];
+    }
+
+    /**
+     * Gets the fraction of probes which found their entry since the statistics were last cleared
+     * @return  The hit rate, from 0 to 1
+     */
+    public double getHitRate() {
+        return (hits + misses) == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Clears the hit and miss counts
+     */
+    public void clearStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+}
@@ -0,0 +1,190 @@
+package com.circumspectus.Engine;
+
+/**
+ * Bonuses in centipawns by piece type, color and square, to encourage good piece placement and pawn advancement.
+ * There is a table for the middlegame and one for the endgame for each piece, which the evaluator blends by the game phase.
+ * Knights, bishops, rooks and queens use the same table in both phases; the king is drawn to the center and pawn advancement is
+ * rewarded by rank alone in the endgame.
+ * Kept apart from the evaluator so that ZobristBoard can keep the totals for each side as running sums as pieces are added and removed.
+ * @author Christopher Stieg
+ */
+public class PieceSquareTables {
+    private static final int WHITE_PAWN_BONUSES[] =  {  0,  0,  0,  0,  0,  0,  0,  0,
+                                                        5,  10, 10, -20,-20,10, 10, 5,
+                                                        0,  -5, -10,0,  0,  -10,-5, 0,
+                                                        0,  0,  7,  20, 20, 7,  0,  0,
+                                                        25, 25, 30, 50, 50, 30, 25, 25,
+                                                        75, 75, 100,125,125,100,75, 75,
+                                                        230,230,230,230,230,230,230,230,
+                                                        0,  0,  0,  0,  0,  0,  0,  0 };
+                                                        
+    private static final int BLACK_PAWN_BONUSES[] =  {  0,  0,  0,  0,  0,  0,  0,  0,
+                                                        230,230,230,230,230,230,230,230,
+                                                        75, 75, 100,125,125,100,75, 75,
+                                                        25, 25, 30, 50, 50, 30, 25, 25,
+                                                        0,  0,  7,  20, 20, 7,  0,  0,
+                                                        0,  -5, -10,0,  0,  -10,-5, 0,
+                                                        5,  10, 10, -20,-20,10, 10, 5,
+                                                        0,  0,  0,  0,  0,  0,  0,  0 };
+    
+    private static final int WHITE_KNIGHT_BONUSES[] = { -50,-40,-30,-30,-30,-30,-40,-50,
+                                                        -40,-20,0,  5,  5,  0,  -20,-40,
+                                                        -30,5,  10, 15, 15, 10, 5,  -30,
+                                                        -30,0,  15, 20, 20, 15, 0,  -30,
+                                                        -30,5,  15, 20, 20, 15, 5,  -30,
+                                                        -30,0,  10, 15, 15, 10, 0,  -30,
+                                                        -40,-20,0,  0,  0,  0,  -20,-40,
+                                                        -50,-40,-30,-30,-30,-30,-40,-50 };
+    
+    private static final int BLACK_KNIGHT_BONUSES[] = { -50,-40,-30,-30,-30,-30,-40,-50,
+                                                        -40,-20,0,  0,  0,  0,  -20,-40,
+                                                        -30,0,  10, 15, 15, 10, 0,  -30,
+                                                        -30,5,  15, 20, 20, 15, 5,  -30,
+                                                        -30,0,  15, 20, 20, 15, 0,  -30,
+                                                        -30,5,  10, 15, 15, 10, 5,  -30,
+                                                        -40,-20,0,  5,  5,  0,  -20,-40,
+                                                        -50,-40,-30,-30,-30,-30,-40,-50 };
+                                                    
+    private static final int WHITE_BISHOP_BONUSES[] = { -20,-15,-15,-15,-15,-15,-15,-20,
+                                                        -10,  5,  0,  0,  0,  0,  5,-10,
+                                                        -10, 10, 10, 10, 10, 10, 10,-10,
+                                                        -10,  0, 10, 10, 10, 10,  0,-10,
+                                                        -10,  5,  5, 10, 10,  5,  5,-10,
+                                                        -10,  0,  5, 10, 10,  5,  0,-10,
+                                                        -10,  0,  0,  0,  0,  0,  0,-10,
+                                                        -20,-15,-10,-10,-10,-10,-10,-20 };
+    
+    private static final int BLACK_BISHOP_BONUSES[] = { -20,-10,-10,-10,-10,-10,-10,-20,
+                                                        -10,  0,  0,  0,  0,  0,  0,-10,
+                                                        -10,  0,  5, 10, 10,  5,  0,-10,
+                                                        -10,  5,  5, 10, 10,  5,  5,-10,
+                                                        -10,  0, 10, 10, 10, 10,  0,-10,
+                                                        -10, 10, 10, 10, 10, 10, 10,-10,
+                                                        -10,  5,  0,  0,  0,  0,  5,-10,
+                                                        -20,-15,-15,-15,-15,-15,-15,-20 };
+    
+    private static final int WHITE_ROOK_BONUSES[] = {   0,  0,  0,  5,  5,  0,  0,  0, 
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                       5, 10, 10, 10, 10, 10, 10,  5,
+                                                       0,  0,  0,  0,  0,  0,  0,  0 } ;
+    
+    private static final int BLACK_ROOK_BONUSES[] = {   0,  0,  0,  0,  0,  0,  0,  0,
+                                                        5, 10, 10, 10, 10, 10, 10,  5,
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                       -5,  0,  0,  0,  0,  0,  0, -5,
+                                                        0,  0,  0,  5,  5,  0,  0,  0 };
+    
+    private static final int WHITE_QUEEN_BONUSES[] = {  -20,-10,-10, -5, -5,-10,-10,-20,
+                                                        -10, 0,  5,  0,  0,  0,  0,-10,
+                                                        -10, 5,  5,  5,  5,  5,  0,-10,
+                                                        0,   0,  5,  5,  5,  5,  0, -5,
+                                                        -5,  0,  5,  5,  5,  5,  0, -5,
+                                                        -10,  0,  5,  5,  5,  5,  0,-10,
+                                                        -10,  0,  0,  0,  0,  0,  0,-10,
+                                                        -20,-10,-10, -5, -5,-10,-10,-20  };
+    
+    private static final int BLACK_QUEEN_BONUSES[] = {  -20,-10,-10, -5, -5,-10,-10,-20,
+                                                        -10,  0,  0,  0,  0,  0,  0,-10,
+                                                        -10,  0,  5,  5,  5,  5,  0,-10,
+                                                         -5,  0,  5,  5,  5,  5,  0, -5,
+                                                          0,  0,  5,  5,  5,  5,  0, -5,
+                                                        -10,  5,  5,  5,  5,  5,  0,-10,
+                                                        -10,  0,  5,  0,  0,  0,  0,-10,
+                                                        -20,-10,-10, -5, -5,-10,-10,-20 };
+
+    private static final int WHITE_KING_BONUSES[] = {   15, 30, 10,  0,  0, 30, 20, 15,
+                                                        20, 20,  0,  0,  0,  0, 20, 20,
+                                                        -10,-20,-20,-20,-20,-20,-20,-10,
+                                                        -20,-30,-30,-40,-40,-30,-30,-20,
+                                                        -30,-40,-40,-50,-50,-40,-40,-30,
+                                                        -30,-40,-40,-50,-50,-40,-40,-30,
+                                                        -30,-40,-40,-50,-50,-40,-40,-30,
+                                                        -30,-40,-40,-50,-50,-40,-40,-30 };
+ 
+    private static final int BLACK_KING_BONUSES[] = {   -30,-40,-40,-50,-50,-40,-40,-30,
+                                                        -30,-40,-40,-50,-50,-40,-40,-30,
+                                                        -30,-40,-40,-50,-50,-40,-40,-30,
+                                                        -30,-40,-40,-50,-50,-40,-40,-30,
+                                                        -20,-30,-30,-40,-40,-30,-30,-20,
+                                                        -10,-20,-20,-20,-20,-20,-20,-10,
+                                                         20, 20,  0,  0,  0,  0, 20, 20,
+                                                         15, 30, 10,  0,  0, 30, 20, 15 };
+    
+    private static final int WHITE_KING_ENDGAME_BONUSES[] = { -50,-40,-30,-20,-20,-30,-40,-50,
+                                                            -30,-20,-10,  0,  0,-10,-20,-30,
+                                                            -30,-10, 20, 30, 30, 20,-10,-30,
+                                                            -30,-10, 30, 40, 40, 30,-10,-30,
+                                                            -30,-10, 30, 40, 40, 30,-10,-30,
+                                                            -30,-10, 20, 30, 30, 20,-10,-30,
+                                                            -30,-30,  0,  0,  0,  0,-30,-30,
+                                                            -50,-30,-30,-30,-30,-30,-30,-50 };
+
+    private static final int BLACK_KING_ENDGAME_BONUSES[] = mirror(WHITE_KING_ENDGAME_BONUSES);
+
+    private static final int WHITE_PAWN_ENDGAME_BONUSES[] = {   0,  0,  0,  0,  0,  0,  0,  0,
+                                                                0,  0,  0,  0,  0,  0,  0,  0,
+                                                               10, 10, 10, 10, 10, 10, 10, 10,
+                                                               20, 20, 20, 20, 20, 20, 20, 20,
+                                                               40, 40, 40, 40, 40, 40, 40, 40,
+                                                               90, 90, 90, 90, 90, 90, 90, 90,
+                                                              180,180,180,180,180,180,180,180,
+                                                                0,  0,  0,  0,  0,  0,  0,  0 };
+
+    private static final int BLACK_PAWN_ENDGAME_BONUSES[] = mirror(WHITE_PAWN_ENDGAME_BONUSES);
+
+    // usage: MIDDLEGAME_BONUSES[pieceTypeColor][squareSerial]
+    private static final int MIDDLEGAME_BONUSES[][] = { WHITE_KING_BONUSES,   BLACK_KING_BONUSES,
+                                                        WHITE_QUEEN_BONUSES,  BLACK_QUEEN_BONUSES,
+                                                        WHITE_ROOK_BONUSES,   BLACK_ROOK_BONUSES,
+                                                        WHITE_BISHOP_BONUSES, BLACK_BISHOP_BONUSES,
+                                                        WHITE_KNIGHT_BONUSES, BLACK_KNIGHT_BONUSES,
+                                                        WHITE_PAWN_BONUSES,   BLACK_PAWN_BONUSES };
+
+    // usage: ENDGAME_BONUSES[pieceTypeColor][squareSerial]
+    private static final int ENDGAME_BONUSES[][] = { WHITE_KING_ENDGAME_BONUSES, BLACK_KING_ENDGAME_BONUSES,
+                                                     WHITE_QUEEN_BONUSES,        BLACK_QUEEN_BONUSES,
+                                                     WHITE_ROOK_BONUSES,         BLACK_ROOK_BONUSES,
+                                                     WHITE_BISHOP_BONUSES,       BLACK_BISHOP_BONUSES,
+                                                     WHITE_KNIGHT_BONUSES,       BLACK_KNIGHT_BONUSES,
+                                                     WHITE_PAWN_ENDGAME_BONUSES, BLACK_PAWN_ENDGAME_BONUSES };
+
+    /**
+     * Gets the middlegame bonus for a piece on a square
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard)
+     * @param squareSerial  The square serial
+     * @return  The bonus in centipawns
+     */
+    public static int getMiddlegameBonus(int pieceTypeColor, int squareSerial) {
+        return MIDDLEGAME_BONUSES[pieceTypeColor][squareSerial];
+    }
+
+    /**
+     * Gets the endgame bonus for a piece on a square
+     * @param pieceTypeColor    Sum of the constants for piece type and color (see Chessboard)
+     * @param squareSerial  The square serial
+     * @return  The bonus in centipawns
+     */
+    public static int getEndgameBonus(int pieceTypeColor, int squareSerial) {
+        return ENDGAME_BONUSES[pieceTypeColor][squareSerial];
+    }
+
+    /**
+     * Mirrors a table of white's bonuses top to bottom to give black's
+     * @param whiteBonuses  The bonuses for white by square serial
+     * @return  The bonuses for black by square serial
+     */
+    private static int[] mirror(int whiteBonuses[]) {
+        int blackBonuses[] = new int[64];
+        for (int squareSerial = 0; squareSerial < 64; squareSerial++) {
+            blackBonuses[squareSerial] = whiteBonuses[squareSerial ^ 56];
+        }
+        return blackBonuses;
+    }
+}
@@ -0,0 +1,43 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Move;
+import java.util.List;
+
+/**
+ * A tuple of one line of a search: a root move, its score, and the moves expected to follow it
+ * @author Christopher Stieg
+ */
+public class PrincipalVariation {
+    public final int score;  // the score of the line from the perspective of the player to move at the root
+    public final int depth;  // depth in ply to which the root move was searched
+    public final List<Move> moves;  // the root move first, followed by the best replies found in the transposition table
+
+    /**
+     * Constructor for PrincipalVariation
+     * @param score The score of the line from the perspective of the player to move at the root
+     * @param depth The depth in ply to which the root move was searched
+     * @param moves The moves of the line, the root move first
+     */
+    public PrincipalVariation(int score, int depth, List<Move> moves) {
+        this.score = score;
+        this.depth = depth;
+        this.moves = moves;
+    }
+
+    /**
+     * Gets the root move of the line
+     * @return  The root move
+     */
+    public Move getMove() {
+        return moves.get(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder("depth " + depth + "  score " + score + "  pv");
+        for (Move move : moves) {
+            line.append(' ').append(move.getMovetext());
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Move;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Benchmark for repetition detection.  Plays a 150 ply game of pseudo-random legal moves, and measures the cost per call
+ * of ZobristBoard.isRepetition at several points in the game, compared with a scan of the entire move list.
+ * The cost of isRepetition should stay constant as the game goes on, while the cost of the full scan grows with the game length.
+ * @author Christopher Stieg
+ */
+public class RepetitionBenchmark {
+    private static final int GAME_LENGTH = 150;
+    private static final int MEASURE_EVERY = 25;  // ply between measurements
+    private static final int CALLS = 2000000;
+    private static final int ROUNDS = 5;  // each measurement is repeated, and the fastest round is reported, to filter out JIT compilation
+
+    /**
+     * Checks for repetition by scanning every move made since the start of the game
+     * @param board The board to check
+     * @param repetitionLimit   The target number of repetitions to check
+     * @return  True if the board position has been repeated the specified number of times or more; false if not
+     */
+    private static boolean isRepetitionFullScan(ZobristBoard board, int repetitionLimit) {
+        int repetitionNumber = 0;
+        for (Move move : board.getMoves()) {
+            if (move.getBoardHashValue() == board.hashValue) {
+                repetitionNumber++;
+                if (repetitionNumber >= repetitionLimit) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static void main(String[] args) {
+        ZobristBoard board = new ZobristBoard(new ZobristHashing());
+        Random random = new Random(42);
+        int found = 0;  // accumulates results so the calls are not optimized away
+
+        System.out.println("ply    halfmove clock    isRepetition (ns/call)    full scan (ns/call)");
+        for (int ply = 1; ply <= GAME_LENGTH; ply++) {
+            ArrayList<Move> legalMoves = board.getLegalMoves(board.getCurrentPlayer());
+            if (legalMoves.isEmpty()) {
+                System.out.println("Game ended early at ply " + ply);
+                break;
+            }
+            board.move(legalMoves.get(random.nextInt(legalMoves.size())));
+
+            if (ply % MEASURE_EVERY == 0) {
+                long stackTime = Long.MAX_VALUE;
+                long fullScanTime = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    long startTime = System.nanoTime();
+                    for (int i = 0; i < CALLS; i++) {
+                        if (board.isRepetition(3)) {
+                            found++;
+                        }
+                    }
+                    stackTime = Math.min(stackTime, System.nanoTime() - startTime);
+
+                    startTime = System.nanoTime();
+                    for (int i = 0; i < CALLS; i++) {
+                        if (isRepetitionFullScan(board, 3)) {
+                            found++;
+                        }
+                    }
+                    fullScanTime = Math.min(fullScanTime, System.nanoTime() - startTime);
+                }
+
+                System.out.println(String.format("%3d    %14d    %22.2f    %19.2f", ply, board.getHalfmoveClock(),
+                        (double) stackTime / CALLS, (double) fullScanTime / CALLS));
+            }
+        }
+        System.out.println("Repetitions found: " + found);
+    }
+}
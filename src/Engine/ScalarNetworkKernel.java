@@ -0,0 +1,57 @@
+package com.circumspectus.Engine;
+
+/**
+ * The inner loops of neural network inference as plain loops, for when the jdk.incubator.vector module is not available
+ * @author Christopher Stieg
+ */
+public class ScalarNetworkKernel implements NetworkKernel {
+
+    /**
+     * Adds a row of weights to an accumulator
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param weights   The array holding the weights
+     * @param weightOffset  The index of the first weight of the row
+     * @param length    The number of values
+     */
+    @Override
+    public void add(short accumulator[], int offset, short weights[], int weightOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            accumulator[offset + i] += weights[weightOffset + i];
+        }
+    }
+
+    /**
+     * Subtracts a row of weights from an accumulator
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param weights   The array holding the weights
+     * @param weightOffset  The index of the first weight of the row
+     * @param length    The number of values
+     */
+    @Override
+    public void subtract(short accumulator[], int offset, short weights[], int weightOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            accumulator[offset + i] -= weights[weightOffset + i];
+        }
+    }
+
+    /**
+     * Multiplies accumulator values, clipped to 0..clip, by weights and sums the products
+     * @param accumulator   The array holding the accumulator
+     * @param offset    The index of the first value of the accumulator in the array
+     * @param weights   The array holding the weights
+     * @param weightOffset  The index of the first weight
+     * @param length    The number of values
+     * @param clip  The largest value of an accumulator value after clipping
+     * @return  The sum of the products
+     */
+    @Override
+    public int clippedDotProduct(short accumulator[], int offset, short weights[], int weightOffset, int length, int clip) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += Math.min(Math.max(accumulator[offset + i], 0), clip) * weights[weightOffset + i];
+        }
+        return sum;
+    }
+}
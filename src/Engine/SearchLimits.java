@@ -0,0 +1,53 @@
+package com.circumspectus.Engine;
+
+/**
+ * A tuple of the limits of a search.  The search stops at whichever limit is reached first; a limit of UNLIMITED does not apply.
+ * With no limit at all, the search runs until stopped or until it reaches the maximum depth of the engine.
+ * @author Christopher Stieg
+ */
+public class SearchLimits {
+    public static final int UNLIMITED = 0;
+    public final int startDepth;  // depth of the first iteration in ply, or UNLIMITED for the engine's initial depth
+    public final int depth;  // depth of the last iteration in ply
+    public final long nodes;  // nodes after which the search stops, even in the middle of an iteration
+    public final long time;  // time in milliseconds after which the search stops, managed by TimeManager
+
+    /**
+     * Constructor for SearchLimits
+     * @param depth The depth of the last iteration in ply, or UNLIMITED
+     * @param nodes The number of nodes after which the search stops, or UNLIMITED
+     * @param time  The time in milliseconds after which the search stops, or UNLIMITED
+     */
+    public SearchLimits(int depth, long nodes, long time) {
+        this(UNLIMITED, depth, nodes, time);
+    }
+
+    /**
+     * Constructor for SearchLimits starting iterative deepening at a given depth, such as to search a single iteration when the
+     * shallower ones were searched before and left their results in the transposition table
+     * @param startDepth    The depth of the first iteration in ply, or UNLIMITED for the engine's initial depth
+     * @param depth The depth of the last iteration in ply, or UNLIMITED
+     * @param nodes The number of nodes after which the search stops, or UNLIMITED
+     * @param time  The time in milliseconds after which the search stops, or UNLIMITED
+     */
+    public SearchLimits(int startDepth, int depth, long nodes, long time) {
+        this.startDepth = startDepth;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.time = time;
+    }
+
+    /**
+     * Creates limits of time alone
+     * @param time  The time in milliseconds after which the search stops
+     * @return  The limits
+     */
+    public static SearchLimits ofTime(long time) {
+        return new SearchLimits(UNLIMITED, UNLIMITED, time);
+    }
+
+    @Override
+    public String toString() {
+        return (startDepth == UNLIMITED ? "" : "start depth " + startDepth + "  ") + "depth " + depth + "  nodes " + nodes + "  time " + time;
+    }
+}
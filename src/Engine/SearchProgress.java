@@ -0,0 +1,45 @@
+package com.circumspectus.Engine;
+
+import java.util.List;
+
+/**
+ * An immutable snapshot of the progress of a search, published while it runs
+ * @author Christopher Stieg
+ */
+public class SearchProgress {
+    public final int depth;  // depth in ply of the last completed iteration, to which the principal variations were searched
+    public final int selectiveDepth;  // the greatest depth in ply reached so far, including extensions and quiescence
+    public final int score;  // the score of the best line from the perspective of the player to move at the root
+    public final long nodes;
+    public final long nodesPerSecond;
+    public final int hashfull;  // entries of the transposition table per thousand of its capacity
+    public final long time;  // elapsed time in milliseconds
+    public final List<PrincipalVariation> principalVariations;  // the best lines, best first; empty before the first iteration completes
+
+    /**
+     * Constructor for SearchProgress
+     * @param depth The depth in ply of the last completed iteration
+     * @param selectiveDepth    The greatest depth in ply reached so far
+     * @param score The score of the best line from the perspective of the player to move at the root
+     * @param nodes The number of nodes searched
+     * @param time  The elapsed time in milliseconds
+     * @param hashfull  The entries of the transposition table per thousand of its capacity
+     * @param principalVariations   The best lines, best first
+     */
+    public SearchProgress(int depth, int selectiveDepth, int score, long nodes, long time, int hashfull, List<PrincipalVariation> principalVariations) {
+        this.depth = depth;
+        this.selectiveDepth = selectiveDepth;
+        this.score = score;
+        this.nodes = nodes;
+        this.nodesPerSecond = nodes * 1000 / Math.max(1, time);
+        this.hashfull = hashfull;
+        this.time = time;
+        this.principalVariations = List.copyOf(principalVariations);
+    }
+
+    @Override
+    public String toString() {
+        return "depth " + depth + "  seldepth " + selectiveDepth + "  score " + score + "  nodes " + nodes + "  nps " + nodesPerSecond
+                + "  hashfull " + hashfull + "  time " + time + (principalVariations.isEmpty() ? "" : "  " + principalVariations.get(0));
+    }
+}
@@ -0,0 +1,99 @@
+package com.circumspectus.Engine;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the progress snapshots of a search to any number of subscribers.  Each subscriber has a bounded buffer, and the
+ * search thread never waits for a subscriber: a snapshot which does not fit in the buffer of a slow subscriber is dropped for
+ * that subscriber, which later receives newer snapshots.  Since each snapshot is complete, dropping one loses nothing but
+ * intermediate progress; the final result of the search is the one its future is completed with.
+ * Subscribe before passing the publisher to the engine, which closes it when the search ends.
+ * @author Christopher Stieg
+ */
+public class SearchProgressPublisher implements Flow.Publisher<SearchProgress>, AutoCloseable {
+    public static final int DEFAULT_BUFFER_CAPACITY = 16;
+    // delivers to subscribers on threads of their own, so that a slow subscriber does not hold up the others, as it might on the
+    // few threads of the common pool
+    private static final ExecutorService DELIVERY_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Search progress delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SubmissionPublisher<SearchProgress> publisher;
+    private final AtomicLong droppedCount = new AtomicLong();  // number of snapshots dropped, summed over the subscribers
+
+    /**
+     * Constructor for SearchProgressPublisher, with the default buffer capacity
+     */
+    public SearchProgressPublisher() {
+        this(DEFAULT_BUFFER_CAPACITY);
+    }
+
+    /**
+     * Constructor for SearchProgressPublisher
+     * @param bufferCapacity    The maximum number of snapshots buffered for each subscriber, rounded up to a power of two
+     */
+    public SearchProgressPublisher(int bufferCapacity) {
+        this(DELIVERY_EXECUTOR, bufferCapacity);
+    }
+
+    /**
+     * Constructor for SearchProgressPublisher
+     * @param executor  The executor on which subscribers are called
+     * @param bufferCapacity    The maximum number of snapshots buffered for each subscriber, rounded up to a power of two
+     */
+    public SearchProgressPublisher(Executor executor, int bufferCapacity) {
+        publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+    }
+
+    /**
+     * Adds a subscriber, which receives the snapshots published from now on
+     * @param subscriber    The subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super SearchProgress> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Publishes a snapshot without blocking, dropping it for subscribers whose buffers are full
+     * @param progress  The snapshot
+     */
+    void publish(SearchProgress progress) {
+        if (!publisher.isClosed()) {
+            publisher.offer(progress, (subscriber, dropped) -> {
+                droppedCount.incrementAndGet();
+                return false;  // do not retry
+            });
+        }
+    }
+
+    /**
+     * Gets whether anyone is subscribed, so that snapshots need not be made when no one is
+     * @return  True if there is at least one subscriber
+     */
+    boolean hasSubscribers() {
+        return publisher.hasSubscribers();
+    }
+
+    /**
+     * Gets the number of snapshots dropped because subscribers fell behind
+     * @return  The number of snapshots dropped, summed over the subscribers
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Completes the subscriptions once the buffered snapshots are delivered
+     */
+    @Override
+    public void close() {
+        publisher.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Move;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A tuple of the result of a search, or of its progress after a completed iteration
+ * @author Christopher Stieg
+ */
+public class SearchResult {
+    public final Move bestMove;  // null if there is no legal move
+    public final int score;  // the score of the best move from the perspective of the player to move
+    public final int depth;  // depth in ply of the last completed iteration; 0 for a move from the opening book
+    public final long nodes;
+    public final long time;  // elapsed time in milliseconds
+    public final Move ponderMove;  // the expected reply to the best move, on which to ponder; null if not known
+    public final List<PrincipalVariation> principalVariations;  // the best lines, best first; more than one in multi-PV mode
+
+    /**
+     * Constructor for SearchResult
+     * @param bestMove  The best move, or null if there is no legal move
+     * @param score     The score of the best move from the perspective of the player to move
+     * @param depth     The depth in ply of the last completed iteration
+     * @param nodes     The number of nodes searched
+     * @param time      The elapsed time in milliseconds
+     */
+    public SearchResult(Move bestMove, int score, int depth, long nodes, long time) {
+        this(bestMove, score, depth, nodes, time, null, Collections.emptyList());
+    }
+
+    /**
+     * Constructor for SearchResult
+     * @param bestMove  The best move, or null if there is no legal move
+     * @param score     The score of the best move from the perspective of the player to move
+     * @param depth     The depth in ply of the last completed iteration
+     * @param nodes     The number of nodes searched
+     * @param time      The elapsed time in milliseconds
+     * @param ponderMove    The expected reply to the best move, or null if not known
+     * @param principalVariations   The best lines, best first
+     */
+    public SearchResult(Move bestMove, int score, int depth, long nodes, long time, Move ponderMove, List<PrincipalVariation> principalVariations) {
+        this.bestMove = bestMove;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.time = time;
+        this.ponderMove = ponderMove;
+        this.principalVariations = principalVariations;
+    }
+
+    @Override
+    public String toString() {
+        return "depth " + depth + "  score " + score + "  nodes " + nodes + "  time " + time + "  best move " + bestMove
+                + (ponderMove == null ? "" : "  ponder " + ponderMove);
+    }
+}
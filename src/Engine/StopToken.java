@@ -0,0 +1,25 @@
+package com.circumspectus.Engine;
+
+/**
+ * A flag by which a search is asked to stop, from any thread.  The search polls it and returns the best move found so far.
+ * A token is stopped once for good; each search takes a new token.
+ * @author Christopher Stieg
+ */
+public class StopToken {
+    private volatile boolean stopped;
+
+    /**
+     * Asks the search holding this token to stop
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Checks whether the search has been asked to stop
+     * @return  True if stop has been called
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+}
@@ -0,0 +1,132 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Move;
+
+/**
+ * Decides when the iterative deepening search should stop.
+ * The hard limit is never exceeded: the search is stopped as soon as it is reached, even in the middle of an iteration.
+ * The soft limit decides whether to start another iteration.  It is extended when the best move changes between iterations,
+ * or when the score of an iteration drops (a fail low at the root), since more time is then likely to change the result,
+ * and shortened when the best move has stayed the same for several iterations.
+ * No iteration is started which is not expected to finish before the hard limit.
+ * A time manager created for pondering imposes no limit until ponderHit is called, which starts the clock afresh; the search
+ * then carries on under the normal limits.
+ * @author Christopher Stieg
+ */
+public class TimeManager {
+    private static final int SOFT_LIMIT_PERCENT = 50;  // initial soft limit as a percentage of the hard limit
+    private static final int INSTABILITY_EXTENSION_PERCENT = 50;  // extension of the soft limit when the best move changes
+    private static final int FAIL_LOW_EXTENSION_PERCENT = 100;  // extension of the soft limit when the score drops
+    private static final int FAIL_LOW_MARGIN = 30;  // drop in score in centipawns from one iteration to the next considered a fail low
+    private static final int STABLE_ITERATIONS = 4;  // iterations with the same best move after which the soft limit is halved
+    private static final int BRANCHING_FACTOR_ESTIMATE = 3;  // expected ratio of the time of one iteration to the time of the previous
+
+    private volatile long startTime;  // written by the thread calling ponderHit, read by the search thread
+    private volatile boolean pondering;
+    private final long hardLimit;
+    private long softLimit;
+    private long iterationStartTime;
+    private long lastIterationTime;
+    private Move lastBestMove;
+    private int lastScore;
+    private int stableIterations;
+
+    /**
+     * Constructor for TimeManager, starting the clock
+     * @param allowedProcessingTime Time in milliseconds the search is allowed to run (the hard limit)
+     */
+    public TimeManager(long allowedProcessingTime) {
+        this(allowedProcessingTime, false);
+    }
+
+    /**
+     * Constructor for TimeManager, starting the clock
+     * @param allowedProcessingTime Time in milliseconds the search is allowed to run (the hard limit), counted from the ponder hit if pondering
+     * @param pondering True if the search ponders, and so has no limit until ponderHit is called
+     */
+    public TimeManager(long allowedProcessingTime, boolean pondering) {
+        this.pondering = pondering;
+        startTime = System.currentTimeMillis();
+        hardLimit = allowedProcessingTime;
+        softLimit = allowedProcessingTime * SOFT_LIMIT_PERCENT / 100;
+        iterationStartTime = startTime;
+    }
+
+    /**
+     * Gets the time elapsed since the search started
+     * @return  Elapsed time in milliseconds
+     */
+    public long getElapsedTime() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Checks whether the hard limit has been reached, in which case the search must stop immediately
+     * @return  True if the hard limit has been reached
+     */
+    public boolean isHardLimitReached() {
+        return !pondering && getElapsedTime() >= hardLimit;
+    }
+
+    /**
+     * Ends pondering, restarting the clock so that the search continues under the normal limits
+     */
+    public void ponderHit() {
+        startTime = System.currentTimeMillis();
+        pondering = false;  // written last, so that a search thread which sees the ponder hit sees the new start time
+    }
+
+    /**
+     * Records the start of an iteration
+     */
+    public void startIteration() {
+        iterationStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Records the result of a completed iteration, adjusting the soft limit for the stability of the best move and score
+     * @param bestMove  The best move found by the iteration
+     * @param score     The score of the best move
+     */
+    public void endIteration(Move bestMove, int score) {
+        lastIterationTime = System.currentTimeMillis() - iterationStartTime;
+        if (lastBestMove != null) {
+            if (bestMove == null || !bestMove.equals(lastBestMove)) {
+                stableIterations = 0;
+                extendSoftLimit(INSTABILITY_EXTENSION_PERCENT);
+            }
+            else {
+                stableIterations++;
+            }
+            if (score < lastScore - FAIL_LOW_MARGIN) {
+                extendSoftLimit(FAIL_LOW_EXTENSION_PERCENT);
+            }
+        }
+        lastBestMove = bestMove;
+        lastScore = score;
+    }
+
+    /**
+     * Checks whether another iteration should be started
+     * @return  True if pondering, or if the soft limit has not been reached and the next iteration is expected to finish before the hard limit
+     */
+    public boolean canStartNextIteration() {
+        if (pondering) {
+            return true;
+        }
+        long elapsedTime = getElapsedTime();
+        long effectiveSoftLimit = stableIterations >= STABLE_ITERATIONS ? softLimit / 2 : softLimit;
+        if (elapsedTime >= effectiveSoftLimit) {
+            return false;
+        }
+        return elapsedTime + lastIterationTime * BRANCHING_FACTOR_ESTIMATE < hardLimit;
+    }
+
+    /**
+     * Extends the soft limit by a percentage, up to the hard limit
+     * @param percent   The percentage by which to extend the soft limit
+     */
+    private void extendSoftLimit(int percent) {
+        softLimit = Math.min(hardLimit, softLimit + softLimit * percent / 100);
+    }
+}
@@ -1,8 +1,11 @@
 
 package com.circumspectus.Engine;
 
+import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 
 /**
@@ -10,23 +13,49 @@ import java.util.Map;
  * for the same position derived from different moves (or the same moves in different order).
  * Also stores the best move, which aids in move ordering at deeper levels of the iterative deepening framework,
  * causing more cutoffs and speeding up search.
+ * The number of entries is bounded; its memory can be budgeted in megabytes through getEntriesForMegabytes.
+ * Deep entries can be exported in batches and imported into the tables of other engines, such as those of a cluster search.
  * @author Christopher Stieg
  */
 public class TranspositionTable {
     private final HashMap<Long, TranspositionFields> hashMap;
     private int serial;
-    private static final int MAX_ENTRIES = 20000000;
+    private final int maxEntries;
+    private static final int DEFAULT_MAX_ENTRIES = 20000000;
+    private static final int ENTRY_BYTES = 160;  // estimated memory of an entry: its slot and node in the hash map, the boxed key, the fields and the best move
     private static final int NO_OF_QUANTILES = 9;
     private static final int CLEAR_QUANTILES = 7; // must be more than search depth, less than NO_OF_QUANTILES
     private static final int LEVELS_TO_SAVE = 2; // save the deepest searches
     private final int quantiles[];
+    private static final int MAX_EXPORT_ENTRIES = 65536;  // the most entries recorded for export between drains
+    private int exportDepth = Integer.MAX_VALUE;  // entries stored with at least this depth are recorded for export
+    private final LinkedHashSet<Long> exportKeys = new LinkedHashSet<>();  // hash values of the entries to export, oldest first
+    private PrintStream trace;  // receives a line when old entries are cleared, or null if the trace is off
 
     public TranspositionTable() {
-        hashMap = new HashMap<>(MAX_ENTRIES + 1, 1);
-        serial = 0;
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructor for TranspositionTable
+     * @param maxEntries    The number of entries at which the oldest shallow entries are cleared
+     */
+    public TranspositionTable(int maxEntries) {
+        this.maxEntries = maxEntries;
+        hashMap = new HashMap<>(maxEntries + 1, 1);
         quantiles = new int[NO_OF_QUANTILES];
+        clear();
+    }
+
+    /**
+     * Removes all entries, keeping the memory of the table for reuse, such as for a new game
+     */
+    public final void clear() {
+        hashMap.clear();
+        exportKeys.clear();
+        serial = 0;
         for (int i = 0; i < NO_OF_QUANTILES; i++) {
-            quantiles[i] = i * MAX_ENTRIES / NO_OF_QUANTILES;
+            quantiles[i] = (int) ((long) i * maxEntries / NO_OF_QUANTILES);
         }
     }
 
@@ -41,11 +70,57 @@ public class TranspositionTable {
     public void put(long hashValue, TranspositionFields transpositionFields) {
         serial++;
         hashMap.put(hashValue, transpositionFields);
-        if (hashMap.size() >= MAX_ENTRIES) {
+        if (transpositionFields.depth >= exportDepth && transpositionFields.depth < ChessEngine.DEPTH && exportKeys.size() < MAX_EXPORT_ENTRIES) {
+            exportKeys.add(hashValue);  // root entries, stored with DEPTH, belong to the root moves searched alone
+        }
+        if (hashMap.size() >= maxEntries) {
             clearOldEntries();
         }
     }
 
+    /**
+     * Sets the depth from which stored entries are recorded for export by drainExports
+     * @param exportDepth   The least remaining depth in ply of an entry to export; Integer.MAX_VALUE to export none
+     */
+    public void setExportDepth(int exportDepth) {
+        this.exportDepth = exportDepth;
+        exportKeys.clear();
+    }
+
+    /**
+     * Gets the entries recorded for export since the last drain, as they now stand, and starts a new batch.  At most
+     * MAX_EXPORT_ENTRIES are recorded in a batch.
+     * @return  The entries by hash value, in the order first stored
+     */
+    public Map<Long, TranspositionFields> drainExports() {
+        LinkedHashMap<Long, TranspositionFields> exports = new LinkedHashMap<>();
+        for (Long hashValue : exportKeys) {
+            TranspositionFields fields = hashMap.get(hashValue);
+            if (fields != null) {  // not cleared since
+                exports.put(hashValue, fields);
+            }
+        }
+        exportKeys.clear();
+        return exports;
+    }
+
+    /**
+     * Stores an entry exported by another table, unless an entry at least as deep is stored for the position already.
+     * An imported entry is not recorded for export again.
+     * @param hashValue The hash value of the position
+     * @param transpositionFields   The entry
+     */
+    public void importEntry(long hashValue, TranspositionFields transpositionFields) {
+        TranspositionFields existingFields = hashMap.get(hashValue);
+        if (existingFields == null || existingFields.depth < transpositionFields.depth) {
+            transpositionFields.serial = serial++;
+            hashMap.put(hashValue, transpositionFields);
+            if (hashMap.size() >= maxEntries) {
+                clearOldEntries();
+            }
+        }
+    }
+
     public int getSerial() {
         return serial;
     }
@@ -54,8 +129,33 @@ public class TranspositionTable {
         return hashMap.size();
     }
 
+    /**
+     * Gets how full the table is
+     * @return  The number of entries per thousand of the maximum number of entries
+     */
+    public int getHashfull() {
+        return (int) ((long) hashMap.size() * 1000 / maxEntries);
+    }
+
+    /**
+     * Gets the number of entries which fit in a memory budget
+     * @param megabytes The memory budget in megabytes
+     * @return  The number of entries, at least 1
+     */
+    public static int getEntriesForMegabytes(int megabytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE - 1, (long) megabytes * 1024 * 1024 / ENTRY_BYTES));
+    }
+
+    /**
+     * Sets the stream receiving the trace of the table, as for ChessEngine.setTrace
+     * @param trace The stream, or null to turn the trace off
+     */
+    public void setTrace(PrintStream trace) {
+        this.trace = trace;
+    }
+
     private void clearOldEntries() {
-        System.out.println("Clearing Old Entries ************************************************************************************");
+        if (trace != null) trace.println("Clearing Old Entries ************************************************************************************");
         Iterator<Map.Entry<Long, TranspositionFields>> it = hashMap.entrySet().iterator();
         while (it.hasNext()) {
             Map.Entry<Long, TranspositionFields> pair = it.next();
@@ -0,0 +1,148 @@
+package com.circumspectus.Engine;
+
+import java.util.Arrays;
+
+/**
+ * A packed set of positions for tuning the evaluation, each reduced to the result of its game and the terms of its evaluation.
+ * The evaluation of a position from white's perspective is modeled as its fixed term plus the sum over its entries of a weight
+ * times a coefficient, where the weights are the evaluation parameters being tuned (see EvaluationTuner).
+ * Entries are stored in flat arrays, the entries of each position following those of the one before, so that the set is
+ * compact and scanned in order by the tuner.
+ * @author Christopher Stieg
+ */
+public class TuningDataset {
+    private static final int INITIAL_POSITIONS = 1024;  // the arrays grow as positions are added
+    private static final int INITIAL_ENTRIES = INITIAL_POSITIONS * 32;
+
+    private float fixedTerms[] = new float[INITIAL_POSITIONS];  // the part of each evaluation not covered by the parameters
+    private byte results[] = new byte[INITIAL_POSITIONS];  // game result from white's perspective in half points
+    private int entryStarts[] = new int[INITIAL_POSITIONS + 1];  // index of the first entry of each position, and the end of the last
+    private short parameters[] = new short[INITIAL_ENTRIES];
+    private float coefficients[] = new float[INITIAL_ENTRIES];
+    private int size;  // number of positions
+
+    /**
+     * Adds a position
+     * @param fixedTerm The part of the evaluation not covered by the parameters, in centipawns from white's perspective
+     * @param resultInHalfPoints    The result of the game for white: 0 for a loss, 1 for a draw, 2 for a win
+     * @param positionCoefficients  The coefficient of every parameter, indexed by parameter; only those which are not 0 are stored
+     * @param usedParameters    The indices of the parameters whose coefficients may not be 0
+     * @param usedCount The number of indices in usedParameters
+     */
+    public void add(float fixedTerm, int resultInHalfPoints, float positionCoefficients[], int usedParameters[], int usedCount) {
+        if (size == fixedTerms.length) {
+            fixedTerms = Arrays.copyOf(fixedTerms, size * 2);
+            results = Arrays.copyOf(results, size * 2);
+            entryStarts = Arrays.copyOf(entryStarts, size * 2 + 1);
+        }
+        int entry = entryStarts[size];
+        if (entry + usedCount > parameters.length) {
+            parameters = Arrays.copyOf(parameters, Math.max(parameters.length * 2, entry + usedCount));
+            coefficients = Arrays.copyOf(coefficients, parameters.length);
+        }
+        for (int i = 0; i < usedCount; i++) {
+            int parameter = usedParameters[i];
+            if (positionCoefficients[parameter] != 0) {
+                parameters[entry] = (short) parameter;
+                coefficients[entry] = positionCoefficients[parameter];
+                entry++;
+            }
+        }
+        fixedTerms[size] = fixedTerm;
+        results[size] = (byte) resultInHalfPoints;
+        size++;
+        entryStarts[size] = entry;
+    }
+
+    /**
+     * Appends all the positions of another set
+     * @param other The set to append
+     */
+    public void addAll(TuningDataset other) {
+        int entries = entryStarts[size];
+        int otherEntries = other.entryStarts[other.size];
+        fixedTerms = Arrays.copyOf(fixedTerms, size + other.size);
+        results = Arrays.copyOf(results, size + other.size);
+        entryStarts = Arrays.copyOf(entryStarts, size + other.size + 1);
+        parameters = Arrays.copyOf(parameters, entries + otherEntries);
+        coefficients = Arrays.copyOf(coefficients, entries + otherEntries);
+        System.arraycopy(other.fixedTerms, 0, fixedTerms, size, other.size);
+        System.arraycopy(other.results, 0, results, size, other.size);
+        for (int i = 1; i <= other.size; i++) {
+            entryStarts[size + i] = entries + other.entryStarts[i];
+        }
+        System.arraycopy(other.parameters, 0, parameters, entries, otherEntries);
+        System.arraycopy(other.coefficients, 0, coefficients, entries, otherEntries);
+        size += other.size;
+    }
+
+    /**
+     * Gets the number of positions
+     * @return  The size of the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the total number of entries of all positions
+     * @return  The entry count
+     */
+    public int getEntryCount() {
+        return entryStarts[size];
+    }
+
+    /**
+     * Gets the part of the evaluation of a position not covered by the parameters
+     * @param position  The index of the position
+     * @return  The fixed term in centipawns from white's perspective
+     */
+    public float getFixedTerm(int position) {
+        return fixedTerms[position];
+    }
+
+    /**
+     * Gets the result of the game of a position
+     * @param position  The index of the position
+     * @return  The score of white: 0, 0.5 or 1
+     */
+    public double getResult(int position) {
+        return results[position] * 0.5;
+    }
+
+    /**
+     * Gets the index of the first entry of a position
+     * @param position  The index of the position
+     * @return  The index of the entry
+     */
+    public int getEntryStart(int position) {
+        return entryStarts[position];
+    }
+
+    /**
+     * Gets the index after the last entry of a position
+     * @param position  The index of the position
+     * @return  The index of the entry after the last
+     */
+    public int getEntryEnd(int position) {
+        return entryStarts[position + 1];
+    }
+
+    /**
+     * Gets the parameter of an entry
+     * @param entry The index of the entry
+     * @return  The index of the parameter
+     */
+    public int getParameter(int entry) {
+        return parameters[entry];
+    }
+
+    /**
+     * Gets the coefficient of an entry
+     * @param entry The index of the entry
+     * @return  The coefficient by which the parameter is multiplied
+     */
+    public float getCoefficient(int entry) {
+        return coefficients[entry];
+    }
+}
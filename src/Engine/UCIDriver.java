@@ -0,0 +1,502 @@
+package com.circumspectus.Engine;
+
+import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.ChessApplication.InvalidFENException;
+import com.circumspectus.ChessApplication.InvalidMoveException;
+import com.circumspectus.ChessApplication.Move;
+import com.circumspectus.ChessApplication.Square;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Drives the engine through the Universal Chess Interface protocol on standard input and output, so that it can run headless
+ * under tournament managers and batch tools.
+ * Supports uci, isready, ucinewgame, position (startpos or fen, followed by moves), go (wtime, btime, winc, binc, movestogo,
+ * depth, nodes, movetime, infinite, ponder), stop, ponderhit, setoption (Hash, MultiPV, OwnBook, Deterministic), debug
+ * and quit.
+ * An info line is sent for every principal variation after each completed iteration.
+ * Commands are read on the main thread while the engine searches on its own thread.  The engine is only created when first
+ * needed, with a transposition table of the Hash size, and nothing of AWT is loaded, so the driver starts at once.
+ * Standard output carries the protocol alone: the engine's search trace is off, or written to standard error in debug mode.
+ * @author Christopher Stieg
+ */
+public class UCIDriver {
+    private static final String ENGINE_NAME = "Circumspectus";
+    private static final String ENGINE_AUTHOR = "Christopher Stieg";
+    private static final int DEFAULT_HASH = 64;  // transposition table size in megabytes
+    private static final int MAX_HASH = 4096;
+    private static final int MAX_MULTI_PV = 64;
+    private static final int DEFAULT_MOVES_TO_GO = 30;  // moves assumed to remain in the game when the time control gives no number
+    private static final int MOVE_OVERHEAD = 50;  // milliseconds kept in reserve on each move for the delay of communication
+
+    private final PrintStream out;  // standard output, for the protocol alone
+    private final ZobristHashing hasher;
+    private ChessEngine engine;  // created by getEngine when first needed
+    private ZobristBoard board;  // the position set by the last position command
+    private String positionFEN;  // the FEN of the last position command, or null for the start position
+    private List<String> positionMoves;  // the moves of the last position command
+    private boolean positionRejected;  // true if the last position command was invalid, so that go has no position to search
+    private PrintStream trace;  // receives the engine's search trace in debug mode, or null
+    private int hashSize = DEFAULT_HASH;
+    private int multiPV = 1;
+    private boolean ownBook = false;
+    private boolean deterministic = false;
+    private StopToken stopToken;  // the token of the search in progress
+    private CompletableFuture<SearchResult> search;  // the search in progress, completed once its best move has been sent or held
+    private boolean infinite;  // true if the search in progress may not end before stop
+    private boolean holdingBestMove;  // true while an infinite or pondering search may not yet send its best move
+    private SearchResult heldResult;  // the result of a search which finished while its best move was held
+
+    /**
+     * Constructor for UCIDriver
+     */
+    public UCIDriver() {
+        out = System.out;
+        hasher = new ZobristHashing();
+        board = new ZobristBoard(hasher);
+        positionMoves = new ArrayList<>();
+    }
+
+    /**
+     * Reads and executes commands until quit or the end of input
+     * @param in    The reader of the commands
+     * @throws IOException  If the commands cannot be read
+     */
+    public void run(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] tokens = line.trim().split("\\s+");
+            switch (tokens[0]) {
+                case "uci":
+                    send("id name " + ENGINE_NAME);
+                    send("id author " + ENGINE_AUTHOR);
+                    send("option name Hash type spin default " + DEFAULT_HASH + " min 1 max " + MAX_HASH);
+                    send("option name MultiPV type spin default 1 min 1 max " + MAX_MULTI_PV);
+                    send("option name OwnBook type check default false");
+                    send("option name Deterministic type check default false");
+                    send("option name Ponder type check default false");
+                    send("uciok");
+                    break;
+                case "isready":
+                    getEngine();
+                    send("readyok");
+                    break;
+                case "debug":
+                    trace = tokens.length > 1 && tokens[1].equals("on") ? System.err : null;
+                    if (engine != null) {
+                        engine.setTrace(trace);
+                    }
+                    break;
+                case "setoption":
+                    finishSearch();
+                    setOption(tokens);
+                    break;
+                case "ucinewgame":
+                    finishSearch();
+                    if (engine != null) {
+                        engine.setTranspositionTable(new TranspositionTable(TranspositionTable.getEntriesForMegabytes(hashSize)));
+                    }
+                    break;
+                case "position":
+                    finishSearch();
+                    setPosition(tokens);
+                    break;
+                case "go":
+                    finishSearch();
+                    go(tokens);
+                    break;
+                case "stop":
+                    if (search != null) {
+                        stopToken.stop();
+                        releaseBestMove();
+                    }
+                    break;
+                case "ponderhit":
+                    if (search != null) {
+                        getEngine().ponderHit();
+                        if (!infinite) {
+                            releaseBestMove();
+                        }
+                    }
+                    break;
+                case "quit":
+                    finishSearch();
+                    return;
+                default:
+                    break;  // unknown commands are ignored, as the protocol requires
+            }
+        }
+        finishSearch();
+    }
+
+    /**
+     * Gets the engine, creating it with the current options if it does not exist yet
+     * @return  The engine
+     */
+    private ChessEngine getEngine() {
+        if (engine == null) {
+            engine = new ChessEngine(board, board.getClone(), new TranspositionTable(TranspositionTable.getEntriesForMegabytes(hashSize)));
+            engine.setMultiPV(multiPV);
+            engine.setOpeningBookEnabled(ownBook);
+            engine.setDeterministic(deterministic);
+            engine.setTrace(trace);
+        }
+        return engine;
+    }
+
+    /**
+     * Executes the setoption command
+     * @param tokens    The tokens of the command: setoption name [name] value [value]
+     */
+    private void setOption(String[] tokens) {
+        int valueIndex = Arrays.asList(tokens).indexOf("value");
+        if (tokens.length < 3 || !tokens[1].equals("name")) {
+            return;
+        }
+        String name = String.join(" ", Arrays.copyOfRange(tokens, 2, valueIndex < 0 ? tokens.length : valueIndex));
+        String value = valueIndex < 0 ? "" : String.join(" ", Arrays.copyOfRange(tokens, valueIndex + 1, tokens.length));
+        try {
+            switch (name.toLowerCase()) {
+                case "hash":
+                    hashSize = Math.max(1, Math.min(MAX_HASH, Integer.parseInt(value)));
+                    if (engine != null) {
+                        engine.setTranspositionTable(new TranspositionTable(TranspositionTable.getEntriesForMegabytes(hashSize)));
+                    }
+                    break;
+                case "multipv":
+                    multiPV = Math.max(1, Math.min(MAX_MULTI_PV, Integer.parseInt(value)));
+                    if (engine != null) {
+                        engine.setMultiPV(multiPV);
+                    }
+                    break;
+                case "ownbook":
+                    ownBook = Boolean.parseBoolean(value);
+                    if (engine != null) {
+                        engine.setOpeningBookEnabled(ownBook);
+                    }
+                    break;
+                case "deterministic":
+                    deterministic = Boolean.parseBoolean(value);
+                    if (engine != null) {
+                        engine.setDeterministic(deterministic);
+                    }
+                    break;
+                default:
+                    break;  // Ponder and unknown options need no action; Threads is not offered, the engine searching on a single thread
+            }
+        } catch (NumberFormatException nfe) {
+            send("info string invalid value '" + value + "' for option " + name);
+        }
+    }
+
+    /**
+     * Executes the position command.  If the new position is invalid, the following go commands are refused until a valid
+     * position is set, rather than searching the previous position.
+     * @param tokens    The tokens of the command: position (startpos | fen [fen]) [moves [move]...]
+     */
+    private void setPosition(String[] tokens) {
+        List<String> tokenList = Arrays.asList(tokens);
+        int movesIndex = tokenList.indexOf("moves");
+        int end = movesIndex < 0 ? tokens.length : movesIndex;
+        String fen = null;
+        if (tokens.length > 1 && tokens[1].equals("fen")) {
+            fen = String.join(" ", tokenList.subList(2, end));
+        }
+        else if (tokens.length < 2 || !tokens[1].equals("startpos")) {
+            send("info string position must be given by startpos or fen");
+            positionRejected = true;
+            return;
+        }
+        List<String> moves = movesIndex < 0 ? new ArrayList<>() : new ArrayList<>(tokenList.subList(movesIndex + 1, tokens.length));
+        try {
+            ZobristBoard newBoard = createBoard(fen, moves);
+            board = newBoard;
+            positionFEN = fen;
+            positionMoves = moves;
+            positionRejected = false;
+            if (engine != null) {
+                engine.setBoard(board);
+            }
+        } catch (InvalidFENException | InvalidMoveException e) {
+            send("info string invalid position: " + e.getMessage());
+            positionRejected = true;
+        }
+    }
+
+    /**
+     * Sets up a board from a position and the moves played from it
+     * @param fen   The FEN of the position, or null for the start position
+     * @param moves The moves in coordinate notation
+     * @return  The board after the moves
+     * @throws InvalidFENException  If the FEN is invalid
+     * @throws InvalidMoveException If a move is invalid or illegal
+     */
+    private ZobristBoard createBoard(String fen, List<String> moves) throws InvalidFENException, InvalidMoveException {
+        ZobristBoard newBoard = fen == null ? new ZobristBoard(hasher) : new ZobristBoard(fen, hasher);
+        for (String move : moves) {
+            newBoard.move(parseMove(newBoard, move));
+        }
+        return newBoard;
+    }
+
+    /**
+     * Finds the legal move on a board given by a move in coordinate notation
+     * @param board The board on which the move is to be made
+     * @param movetext  The move in coordinate notation (e.g. e2e4, e7e8n)
+     * @return  The move
+     * @throws InvalidMoveException If the movetext is invalid or the move is illegal
+     */
+    static Move parseMove(ZobristBoard board, String movetext) throws InvalidMoveException {
+        if (!movetext.matches("[a-h][1-8][a-h][1-8][qrbn]?")) {
+            throw new InvalidMoveException("Invalid move " + movetext);
+        }
+        int originSerial = new Square(movetext.substring(0, 2)).toSerial();
+        int destinationSerial = new Square(movetext.substring(2, 4)).toSerial();
+        for (Move move : board.getLegalMoves(board.getCurrentPlayer())) {
+            if (move.getOriginSerial() == originSerial && move.getDestinationSerial() == destinationSerial) {
+                if (movetext.length() == 5 && movetext.charAt(4) != 'q') {
+                    int promotionPieceTypeColor = Chessboard.getPieceTypeEnum(movetext.substring(4).toUpperCase()) + board.getCurrentPlayer();
+                    return new Move(board.getPly(), originSerial, destinationSerial, move.getPieceTypeColor(), board, promotionPieceTypeColor);
+                }
+                return move;
+            }
+        }
+        throw new InvalidMoveException("Illegal move " + movetext);
+    }
+
+    /**
+     * Executes the go command, starting a search on the engine's search thread
+     * @param tokens    The tokens of the command
+     */
+    private void go(String[] tokens) {
+        long[] remaining = new long[Chessboard.NUMBER_OF_COLORS];
+        long[] increment = new long[Chessboard.NUMBER_OF_COLORS];
+        int movesToGo = 0;
+        int depth = SearchLimits.UNLIMITED;
+        long nodes = SearchLimits.UNLIMITED;
+        long moveTime = SearchLimits.UNLIMITED;
+        boolean ponder = false;
+        infinite = false;
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                switch (tokens[i]) {
+                    case "wtime":
+                        remaining[Chessboard.WHITE] = Long.parseLong(tokens[++i]);
+                        break;
+                    case "btime":
+                        remaining[Chessboard.BLACK] = Long.parseLong(tokens[++i]);
+                        break;
+                    case "winc":
+                        increment[Chessboard.WHITE] = Long.parseLong(tokens[++i]);
+                        break;
+                    case "binc":
+                        increment[Chessboard.BLACK] = Long.parseLong(tokens[++i]);
+                        break;
+                    case "movestogo":
+                        movesToGo = Integer.parseInt(tokens[++i]);
+                        break;
+                    case "depth":
+                        depth = Integer.parseInt(tokens[++i]);
+                        break;
+                    case "nodes":
+                        nodes = Long.parseLong(tokens[++i]);
+                        break;
+                    case "movetime":
+                        moveTime = Long.parseLong(tokens[++i]);
+                        break;
+                    case "infinite":
+                        infinite = true;
+                        break;
+                    case "ponder":
+                        ponder = true;
+                        break;
+                    default:
+                        break;  // searchmoves and mate are not supported
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            send("info string invalid go command");
+        }
+
+        if (positionRejected) {
+            // answered with no move, which is held until stop or ponderhit like the result of a search
+            send("info string no position to search: the last position command was rejected");
+            SearchResult noMove = new SearchResult(null, 0, 0, 0, 0);
+            stopToken = new StopToken();
+            holdingBestMove = infinite || ponder;
+            heldResult = null;
+            search = CompletableFuture.completedFuture(noMove);
+            searchFinished(noMove, null);
+            return;
+        }
+
+        int player = board.getCurrentPlayer();
+        long time = SearchLimits.UNLIMITED;
+        if (moveTime > 0) {
+            time = moveTime;
+        }
+        else if (remaining[player] > 0) {
+            time = allocateTime(remaining[player], increment[player], movesToGo);
+        }
+        SearchLimits limits = infinite ? new SearchLimits(SearchLimits.UNLIMITED, SearchLimits.UNLIMITED, SearchLimits.UNLIMITED)
+                : new SearchLimits(depth, nodes, time);
+
+        ChessEngine engine = getEngine();
+        stopToken = new StopToken();
+        holdingBestMove = infinite || ponder;
+        heldResult = null;
+        CompletableFuture<SearchResult> started;
+        if (ponder && !positionMoves.isEmpty()) {
+            // the position ends with the expected reply: search from the position before it, pondering on the reply
+            try {
+                ZobristBoard boardBeforeReply = createBoard(positionFEN, positionMoves.subList(0, positionMoves.size() - 1));
+                Move reply = parseMove(boardBeforeReply, positionMoves.get(positionMoves.size() - 1));
+                engine.setBoard(boardBeforeReply);
+                started = engine.ponder(reply, limits, stopToken, this::sendInfo);
+            } catch (InvalidFENException | InvalidMoveException e) {
+                throw new IllegalStateException("The current position could not be set up again", e);  // it was set up by the position command
+            } finally {
+                engine.setBoard(board);
+            }
+        }
+        else {
+            started = engine.search(limits, stopToken, this::sendInfo);
+        }
+        search = started.whenComplete((result, failure) -> searchFinished(result, failure));
+    }
+
+    /**
+     * Allocates the time limit of a move under a time control
+     * @param remaining The time remaining on the clock in milliseconds
+     * @param increment The increment per move in milliseconds
+     * @param movesToGo The number of moves to the next time control, or 0 if the rest of the game must be played in the remaining time
+     * @return  The time limit in milliseconds: twice the average time per move, which leaves the soft limit of the TimeManager at
+     * about the average, but no more than half the remaining time unless this is the last move of the time control
+     */
+    static long allocateTime(long remaining, long increment, int movesToGo) {
+        int moves = movesToGo > 0 ? Math.min(movesToGo, DEFAULT_MOVES_TO_GO) : DEFAULT_MOVES_TO_GO;
+        long averageTime = remaining / moves + increment * 3 / 4;
+        long limit = Math.min(2 * averageTime, movesToGo == 1 ? remaining : remaining / 2);
+        return Math.max(1, limit - MOVE_OVERHEAD);
+    }
+
+    /**
+     * Sends an info line for every principal variation of a search result
+     * @param result    The result of a completed iteration
+     */
+    private void sendInfo(SearchResult result) {
+        long nodesPerSecond = result.time > 0 ? result.nodes * 1000 / result.time : 0;
+        for (int i = 0; i < result.principalVariations.size(); i++) {
+            PrincipalVariation principalVariation = result.principalVariations.get(i);
+            StringBuilder info = new StringBuilder("info depth " + principalVariation.depth + " multipv " + (i + 1)
+                    + " score " + formatScore(principalVariation.score) + " nodes " + result.nodes + " nps " + nodesPerSecond
+                    + " time " + result.time + " pv");
+            for (Move move : principalVariation.moves) {
+                info.append(' ').append(move.getCoordinateMovetext());
+            }
+            send(info.toString());
+        }
+    }
+
+    /**
+     * Formats a score for an info line
+     * @param score The score from the perspective of the player to move
+     * @return  "cp" followed by the score, or "mate" followed by the number of moves to checkmate, negative if the player to move is mated
+     */
+    static String formatScore(int score) {
+        if (Math.abs(score) >= ChessEngine.CHECKMATE_THRESHOLD) {
+            int ply = ChessEngine.CHECKMATE_VALUE - Math.abs(score);
+            int moves = (ply + 1) / 2;
+            return "mate " + (score > 0 ? moves : -moves);
+        }
+        return "cp " + score;
+    }
+
+    /**
+     * Called on the search thread when a search ends: sends its best move, or holds it until stop or ponderhit
+     * @param result    The result of the search, or null if it failed
+     * @param failure   The exception which ended the search, or null
+     */
+    private synchronized void searchFinished(SearchResult result, Throwable failure) {
+        if (failure != null) {
+            send("info string search failed: " + failure);
+            result = new SearchResult(null, 0, 0, 0, 0);
+        }
+        if (holdingBestMove) {
+            heldResult = result;
+        }
+        else {
+            sendBestMove(result);
+        }
+    }
+
+    /**
+     * Allows the search in progress to send its best move, sending it at once if the search has already ended
+     */
+    private synchronized void releaseBestMove() {
+        holdingBestMove = false;
+        if (heldResult != null) {
+            sendBestMove(heldResult);
+            heldResult = null;
+        }
+    }
+
+    /**
+     * Sends the bestmove command for a search result
+     * @param result    The result of the search
+     */
+    private void sendBestMove(SearchResult result) {
+        if (result.bestMove == null) {
+            send("bestmove 0000");  // no legal move
+        }
+        else if (result.ponderMove == null) {
+            send("bestmove " + result.bestMove.getCoordinateMovetext());
+        }
+        else {
+            send("bestmove " + result.bestMove.getCoordinateMovetext() + " ponder " + result.ponderMove.getCoordinateMovetext());
+        }
+    }
+
+    /**
+     * Stops the search in progress, if any, and waits for it to send its best move
+     */
+    private void finishSearch() {
+        if (search != null) {
+            stopToken.stop();
+            releaseBestMove();
+            try {
+                search.join();
+            } catch (CompletionException ce) {
+                // already reported by searchFinished
+            }
+            search = null;
+        }
+    }
+
+    /**
+     * Sends a line to the GUI
+     * @param line  The line to send
+     */
+    private void send(String line) {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+
+    /**
+     * Runs the driver on standard input and output
+     * @param args  Not used
+     * @throws IOException  If standard input cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        new UCIDriver().run(new BufferedReader(new InputStreamReader(System.in)));
+    }
+}
@@ -2,18 +2,44 @@
 package com.circumspectus.Engine;
 
 import com.circumspectus.ChessApplication.Chessboard;
+import com.circumspectus.ChessApplication.InvalidFENException;
 import com.circumspectus.ChessApplication.Move;
+import com.circumspectus.ChessApplication.Piece;
 import com.circumspectus.ChessApplication.Square;
+import java.util.Arrays;
 
 /**
  * Extends the Chessboard to have a Zobrist hash value field, and to keep
- * the hash value updated by XORing new moves
+ * the hash value updated by XORing new moves.
+ * Also keeps a stack of the hash values of the positions reached so far, and a halfmove clock
+ * counting the ply since the last irreversible move (capture or pawn move), for detecting repetitions and the fifty-move rule.
+ * The material and piece-square bonus totals of each side, and the game phase, are kept as running sums in the same way as the hash value, for the evaluator,
+ * as is a hash value of the pawns alone, for the pawn hash table, and a material key counting the pieces of each type, for the material table.
+ * If a neural network is attached, its accumulators are kept on a stack which follows the moves made and undone.
  * @author Christopher Stieg
  */
 public class ZobristBoard extends Chessboard {
     long hashValue;
+    long pawnHashValue;  // XOR of the piece-square hash values of the pawns only
+    long materialKey;  // sum of MaterialTable.getMaterialKeyIncrement over the pieces on the board
     ZobristHashing hasher;
     
+    private static final int INITIAL_HISTORY_CAPACITY = 512;  // in ply; the stacks grow if a game runs longer
+    private static final int FIFTY_MOVE_RULE_PLY = 100;
+    private long hashHistory[] = new long[INITIAL_HISTORY_CAPACITY];  // hash values of the positions reached, the current position on top
+    private int halfmoveClockHistory[] = new int[INITIAL_HISTORY_CAPACITY];  // halfmove clock of each position in hashHistory
+    private int historySize;  // number of positions in the stacks
+    private int halfmoveClock;  // ply since the last capture or pawn move
+    private int material[] = new int[NUMBER_OF_COLORS];  // total piece value of each side in centipawns, including the king
+    private int middlegameBonuses[] = new int[NUMBER_OF_COLORS];  // total middlegame piece-square bonus of each side in centipawns
+    private int endgameBonuses[] = new int[NUMBER_OF_COLORS];  // total endgame piece-square bonus of each side in centipawns
+    private int phase;  // sum of PHASE_WEIGHTS over the pieces on the board
+    private NetworkAccumulator networkAccumulator;  // null unless a neural network is attached
+    private boolean restoringAccumulator;  // true while a move is undone, since popping the accumulator stack already undoes its piece changes
+    
+    public static final int MAX_PHASE = 24;  // the phase of the initial position; the phase falls toward 0 as pieces other than pawns are captured
+    private static final int PHASE_WEIGHTS[] = { 0, 0, 4, 4, 2, 2, 1, 1, 1, 1, 0, 0 };  // by pieceTypeColor
+    
     /**
      * Constructor for ZobristBoard
      * @param hasher    Hash value generator object
@@ -22,10 +48,13 @@ public class ZobristBoard extends Chessboard {
         super();
         this.hasher = hasher;
         hashValue = hasher.getBoardHash(new Chessboard());  // any chessboard in the initial state will do for initializing a new board
+        calculateScores();
+        pushHistory();
     }
     
     /**
-     * Constructor for ZobristBoard which calculates the hash value of a given board
+     * Constructor for ZobristBoard which calculates the hash value of a given board.  The moves of the board are not copied,
+     * except a last double pawn push, which allows an en passant capture.
      * @param board     The board whose hash value to calculate
      * @param hasher    Hash value generator object
      */
@@ -36,6 +65,44 @@ public class ZobristBoard extends Chessboard {
         this.boardState = board.getBoardState();
         this.ply = board.getPly();
         this.hashValue = hasher.getBoardHash(board);
+        copyEnPassantMove(board);
+        calculateScores();
+        pushHistory();
+    }
+
+    /**
+     * Records the last move of another board as the last move of this one if it is a double pawn push, so that this board
+     * allows the same en passant capture.  The moves before it are not needed, since a board never undoes past its first state.
+     * @param board The board whose last move to copy
+     */
+    private void copyEnPassantMove(Chessboard board) {
+        if (board.lastMoveIsDoublePawnPush()) {
+            Move doublePawnPush = board.getLastMove().getClone();
+            doublePawnPush.setBoard(this);
+            moves.add(doublePawnPush);
+        }
+    }
+
+    /**
+     * Constructor for ZobristBoard which sets up a position given in Forsyth-Edwards Notation, including its halfmove clock
+     * @param fen       The position in Forsyth-Edwards Notation (see Chessboard)
+     * @param hasher    Hash value generator object
+     * @throws InvalidFENException  If the position is not valid FEN
+     */
+    public ZobristBoard(String fen, ZobristHashing hasher) throws InvalidFENException {
+        this(new Chessboard(fen), hasher);
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length > 4) {
+            try {
+                halfmoveClock = Integer.parseInt(fields[4]);
+            } catch (NumberFormatException nfe) {
+                throw new InvalidFENException("Invalid halfmove clock '" + fields[4] + "': " + fen, nfe);
+            }
+            if (halfmoveClock < 0) {
+                throw new InvalidFENException("Invalid halfmove clock '" + fields[4] + "': " + fen);
+            }
+            halfmoveClockHistory[historySize - 1] = halfmoveClock;
+        }
     }
     
     /**
@@ -46,7 +113,19 @@ public class ZobristBoard extends Chessboard {
     @Override
     public void addPiece(long position, int pieceTypeColor) {
         super.addPiece(position, pieceTypeColor);
-        hashValue ^= hasher.getPieceSquareHash(pieceTypeColor, Square.toSerial(position));
+        int positionSerial = Square.toSerial(position);
+        hashValue ^= hasher.getPieceSquareHash(pieceTypeColor, positionSerial);
+        material[getPieceColor(pieceTypeColor)] += Piece.getValue(pieceTypeColor);
+        middlegameBonuses[getPieceColor(pieceTypeColor)] += PieceSquareTables.getMiddlegameBonus(pieceTypeColor, positionSerial);
+        endgameBonuses[getPieceColor(pieceTypeColor)] += PieceSquareTables.getEndgameBonus(pieceTypeColor, positionSerial);
+        phase += PHASE_WEIGHTS[pieceTypeColor];
+        materialKey += MaterialTable.getMaterialKeyIncrement(pieceTypeColor);
+        if (getPieceType(pieceTypeColor) == PAWN) {
+            pawnHashValue ^= hasher.getPieceSquareHash(pieceTypeColor, positionSerial);
+        }
+        if (networkAccumulator != null && !restoringAccumulator) {
+            networkAccumulator.addPiece(pieceTypeColor, positionSerial);
+        }
     }
     
 
@@ -58,7 +137,115 @@ public class ZobristBoard extends Chessboard {
     @Override
     public void removePiece(long position, int pieceTypeColor) {
         super.removePiece(position, pieceTypeColor);
-        hashValue ^= hasher.getPieceSquareHash(pieceTypeColor, Square.toSerial(position));
+        int positionSerial = Square.toSerial(position);
+        hashValue ^= hasher.getPieceSquareHash(pieceTypeColor, positionSerial);
+        material[getPieceColor(pieceTypeColor)] -= Piece.getValue(pieceTypeColor);
+        middlegameBonuses[getPieceColor(pieceTypeColor)] -= PieceSquareTables.getMiddlegameBonus(pieceTypeColor, positionSerial);
+        endgameBonuses[getPieceColor(pieceTypeColor)] -= PieceSquareTables.getEndgameBonus(pieceTypeColor, positionSerial);
+        phase -= PHASE_WEIGHTS[pieceTypeColor];
+        materialKey -= MaterialTable.getMaterialKeyIncrement(pieceTypeColor);
+        if (getPieceType(pieceTypeColor) == PAWN) {
+            pawnHashValue ^= hasher.getPieceSquareHash(pieceTypeColor, positionSerial);
+        }
+        if (networkAccumulator != null && !restoringAccumulator) {
+            networkAccumulator.removePiece(pieceTypeColor, positionSerial);
+        }
+    }
+
+    /**
+     * Calculates the material and piece-square bonus totals of both sides, the game phase, the pawn hash value and the material key from scratch
+     */
+    private void calculateScores() {
+        for (int color = WHITE; color <= BLACK; color++) {
+            material[color] = 0;
+            middlegameBonuses[color] = 0;
+            endgameBonuses[color] = 0;
+        }
+        phase = 0;
+        pawnHashValue = 0;
+        materialKey = 0;
+        for (int pieceTypeColor = KING; pieceTypeColor <= PAWN + BLACK; pieceTypeColor++) {
+            long pieceSet = getPieceSet(pieceTypeColor);
+            while (pieceSet != 0) {
+                int positionSerial = Square.toSerial(pieceSet);
+                material[getPieceColor(pieceTypeColor)] += Piece.getValue(pieceTypeColor);
+                middlegameBonuses[getPieceColor(pieceTypeColor)] += PieceSquareTables.getMiddlegameBonus(pieceTypeColor, positionSerial);
+                endgameBonuses[getPieceColor(pieceTypeColor)] += PieceSquareTables.getEndgameBonus(pieceTypeColor, positionSerial);
+                phase += PHASE_WEIGHTS[pieceTypeColor];
+                materialKey += MaterialTable.getMaterialKeyIncrement(pieceTypeColor);
+                if (getPieceType(pieceTypeColor) == PAWN) {
+                    pawnHashValue ^= hasher.getPieceSquareHash(pieceTypeColor, positionSerial);
+                }
+                pieceSet &= pieceSet - 1;
+            }
+        }
+    }
+
+    /**
+     * Gets the total piece value of a side, including the king
+     * @param color Either the constant WHITE or BLACK
+     * @return  The material in centipawns
+     */
+    public int getMaterial(int color) {
+        return material[color];
+    }
+
+    /**
+     * Gets the total middlegame piece-square bonus of a side
+     * @param color Either the constant WHITE or BLACK
+     * @return  The bonus in centipawns
+     */
+    public int getMiddlegameBonuses(int color) {
+        return middlegameBonuses[color];
+    }
+
+    /**
+     * Gets the total endgame piece-square bonus of a side
+     * @param color Either the constant WHITE or BLACK
+     * @return  The bonus in centipawns
+     */
+    public int getEndgameBonuses(int color) {
+        return endgameBonuses[color];
+    }
+
+    /**
+     * Gets the hash value of the pawns alone, which identifies the pawn structure
+     * @return  The pawn hash value
+     */
+    public long getPawnHashValue() {
+        return pawnHashValue;
+    }
+
+    /**
+     * Gets the material key, which identifies the number of pieces of each type and color on the board
+     * @return  The material key
+     */
+    public long getMaterialKey() {
+        return materialKey;
+    }
+
+    /**
+     * Gets the game phase, from MAX_PHASE in the opening to 0 when only kings and pawns are left
+     * @return  The game phase, limited to MAX_PHASE when promotions have added material
+     */
+    public int getPhase() {
+        return Math.min(phase, MAX_PHASE);
+    }
+
+    /**
+     * Attaches a neural network, whose accumulators are then updated as moves are made and undone
+     * @param network   The network to attach, or null to detach the current network
+     */
+    public void setNeuralNetwork(NeuralNetwork network) {
+        networkAccumulator = (network == null) ? null : new NetworkAccumulator(network, this);
+    }
+
+    /**
+     * Evaluates the board with the attached neural network
+     * @return  The evaluation in centipawns from the perspective of the player to move
+     */
+    public int evaluateNeuralNetwork() {
+        return networkAccumulator.evaluate();
     }
     
     /**
@@ -73,6 +260,20 @@ public class ZobristBoard extends Chessboard {
         clonedBoard.boardState = this.boardState;
         clonedBoard.ply = this.ply;
         clonedBoard.hashValue = this.hashValue;
+        clonedBoard.hashHistory = this.hashHistory.clone();
+        clonedBoard.halfmoveClockHistory = this.halfmoveClockHistory.clone();
+        clonedBoard.historySize = this.historySize;
+        clonedBoard.halfmoveClock = this.halfmoveClock;
+        clonedBoard.material = this.material.clone();
+        clonedBoard.middlegameBonuses = this.middlegameBonuses.clone();
+        clonedBoard.endgameBonuses = this.endgameBonuses.clone();
+        clonedBoard.phase = this.phase;
+        clonedBoard.pawnHashValue = this.pawnHashValue;
+        clonedBoard.materialKey = this.materialKey;
+        clonedBoard.copyEnPassantMove(this);
+        if (networkAccumulator != null) {
+            clonedBoard.setNeuralNetwork(networkAccumulator.getNetwork());
+        }
         return clonedBoard;
     }
     
@@ -109,29 +310,58 @@ public class ZobristBoard extends Chessboard {
      */
     @Override
     public void move(Move move) {
+        boolean irreversible = move.isCapture() || Chessboard.getPieceType(move.getPieceTypeColor()) == Chessboard.PAWN;
+        if (networkAccumulator != null) {
+            networkAccumulator.push();
+        }
         super.move(move);
         hashValue ^= hasher.getTurnToMoveHash();
         move.setBoardHashValue(hashValue);   
+        halfmoveClock = irreversible ? 0 : halfmoveClock + 1;
+        pushHistory();
     }
     
     /**
-     * Undoes last move made
+     * Undoes last move made.  The hash value and halfmove clock are restored from the history stacks, and the network accumulators from their stack.
      */
     @Override
     public void undoLastMove() {
+        restoringAccumulator = networkAccumulator != null;
         super.undoLastMove();
-        hashValue ^= hasher.getTurnToMoveHash();
+        restoringAccumulator = false;
+        if (networkAccumulator != null) {
+            networkAccumulator.pop();
+        }
+        historySize--;
+        hashValue = hashHistory[historySize - 1];
+        halfmoveClock = halfmoveClockHistory[historySize - 1];
+    }
+    
+    /**
+     * Pushes the hash value and halfmove clock of the current position onto the history stacks, growing them if necessary
+     */
+    private void pushHistory() {
+        if (historySize == hashHistory.length) {
+            hashHistory = Arrays.copyOf(hashHistory, historySize * 2);
+            halfmoveClockHistory = Arrays.copyOf(halfmoveClockHistory, historySize * 2);
+        }
+        hashHistory[historySize] = hashValue;
+        halfmoveClockHistory[historySize] = halfmoveClock;
+        historySize++;
     }
     
     /**
-     * Checks whether this board position has been repeated before a specified number of times
-     * @param repetitionLimit   The target number of repetitions to check
+     * Checks whether this board position has been repeated before a specified number of times.
+     * Only positions since the last irreversible move with the same player to move (every second ply) can be repetitions, 
+     * so only those are compared.
+     * @param repetitionLimit   The target number of repetitions to check (including the current position)
      * @return  True if the board position has been repeated the specified number of times or more; false if not
      */
     public boolean isRepetition(int repetitionLimit) {
-        int repetitionNumber = 0;
-        for (Move move : moves) {
-            if (move.getBoardHashValue() == hashValue) {
+        int repetitionNumber = 1;
+        int earliest = Math.max(historySize - 1 - halfmoveClock, 0);
+        for (int i = historySize - 3; i >= earliest; i -= 2) {
+            if (hashHistory[i] == hashValue) {
                 repetitionNumber++;
                 if (repetitionNumber >= repetitionLimit) {
                     return true;
@@ -140,4 +370,55 @@ public class ZobristBoard extends Chessboard {
         }
         return false;
     }
+    
+    /**
+     * Checks whether the player to move can reach an earlier position with one reversible move, using the cuckoo table of reversible moves.
+     * Only positions since the last irreversible move with the other player to move (at odd ply distances of 3 or more) are candidates,
+     * and only those already repeated, so that the move reaches them a third time, as isRepetition(3) requires of a draw.
+     * @return  True if a move to an earlier position is available; false if not
+     */
+    public boolean hasUpcomingRepetition() {
+        int end = Math.min(halfmoveClock, historySize - 1);
+        if (end < 3) {
+            return false;
+        }
+        CuckooTable cuckooTable = hasher.getCuckooTable();
+        long occupied = getAllPieces();
+        for (int i = 3; i <= end; i += 2) {
+            int index = cuckooTable.find(hashValue ^ hashHistory[historySize - 1 - i]);
+            if (index < 0 || (cuckooTable.getSquaresBetween(index) & occupied) != 0) {
+                continue;
+            }
+            // the piece must be on one of the two squares, and belong to the player to move
+            long origin = Square.toBitwise(cuckooTable.getOriginSerial(index));
+            long movingPiece = (occupied & origin) != 0 ? origin : Square.toBitwise(cuckooTable.getDestinationSerial(index));
+            if (getPieceColorAt(movingPiece) != getCurrentPlayer()) {
+                continue;
+            }
+            int earlierPosition = historySize - 1 - i;
+            int earliest = Math.max(earlierPosition - halfmoveClockHistory[earlierPosition], 0);
+            for (int j = earlierPosition - 2; j >= earliest; j -= 2) {
+                if (hashHistory[j] == hashHistory[earlierPosition]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Checks whether the game is drawn by the fifty-move rule (fifty moves by each player without a capture or pawn move)
+     * @return  True if a draw may be claimed by the fifty-move rule; false if not
+     */
+    public boolean isFiftyMoveDraw() {
+        return halfmoveClock >= FIFTY_MOVE_RULE_PLY;
+    }
+    
+    /**
+     * Gets the halfmove clock
+     * @return  The number of ply since the last capture or pawn move
+     */
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
 }
\ No newline at end of file
@@ -14,6 +14,7 @@ public class ZobristHashing {
     private final long hashTable[][];
     private final long turnToMoveHash;
     private final long boardStateHash[];
+    private final CuckooTable cuckooTable;  // table of the keys of reversible moves, for detecting upcoming repetitions
     
     /**
      * Constructor for ZobristHashing which initializes each of the various elements with a random hash value.
@@ -32,6 +33,7 @@ public class ZobristHashing {
             boardStateHash[i] = random.nextLong();
         }
         turnToMoveHash = random.nextLong();
+        cuckooTable = new CuckooTable(this);
     }
     
     /**
@@ -62,6 +64,14 @@ public class ZobristHashing {
         return boardStateHash[boardState];
     }
     
+    /**
+     * Gets the cuckoo table of the keys of reversible moves built from these hash values
+     * @return  The cuckoo table
+     */
+    public CuckooTable getCuckooTable() {
+        return cuckooTable;
+    }
+    
     /**
      * Gets the hash value for the entire board
      * @param board The board to be hashed
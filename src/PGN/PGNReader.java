@@ -92,6 +92,18 @@ public class PGNReader {
         } 
     }
     
+    /**
+     * Closes the game text file
+     */
+    public void close() {
+        try {
+            in.close();
+        }
+        catch (IOException ioe) {
+            System.out.println("Error closing PGN");
+        }
+    }
+    
     public static void main(String[] args)
     {
         System.out.println("Hello");